@@ -3,6 +3,7 @@ package controller;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
@@ -13,7 +14,9 @@ import org.json.JSONObject;
 
 import model.CloudCore;
 import model.FileHandler;
+import model.ListingCache;
 import model.Operation;
+import model.Operation.Mode;
 import model.Operation.Type;
 import views.FilesPanel;
 import views.MainPanel;
@@ -26,6 +29,12 @@ import views.MainWindow;
  */
 
 public class Controller {
+    /**
+     * Amount of files requested at once in a directory listing. The next ones are
+     * requested when the user scrolls to the end of the list.
+     */
+    public static final int LISTING_PAGE = 1000;
+
     private CloudCore core;
     private MainWindow mainWindow;
 
@@ -104,9 +113,11 @@ public class Controller {
      * core the corresponding {@link model.Operation Operation}.
      * <p>
      * If the sender is this node, then constructs a <code>SEND</code> {@link
-     * model.Operation Operation}.
+     * model.Operation Operation} (one for every copy of the file, see {@link
+     * model.CloudCore#replicate(String, String) replicate}).
      * If the sender is different from this node, then constructs a <code>TRANSFER</code>
-     * {@link model.Operation Operation}, with the special parameter as "data".
+     * {@link model.Operation Operation}, with the {@link model.Operation.Mode Mode} as
+     * <code>DATA</code>.
      * In this case, the receiver can be this or another remote node.
      * @param sender the sender node.
      * @param receiver the receiver node.
@@ -116,12 +127,10 @@ public class Controller {
     public void send(String sender, String receiver, String path) {
         // The sender is this node
         if (sender.equals(core.getNodeName())) {
-            String param = receiver + Operation.SEPARATOR + path + Operation.SEPARATOR + Operation.SEND_DATA;
-            core.addOperation(new Operation(Type.SEND, param));
+            core.replicate(receiver, path);
         }
         else {
-            String param = sender + Operation.SEPARATOR + receiver + Operation.SEPARATOR + path + Operation.SEPARATOR + Operation.SEND_DATA;
-            core.addOperation(new Operation(Type.TRANSFER, param));
+            core.addOperation(new Operation(Type.TRANSFER, sender, receiver, path, Mode.DATA));
         }
     }
 
@@ -131,21 +140,64 @@ public class Controller {
      * If local, it constructs a <code>LISTDIR</code> {@link model.Operation Operation},
      * which can be done instantly.
      * If remote, it constructs a <code>TRANSFER</code> {@link model.Operation Operation},
-     * with the special parameter as "info", wich will request the remote node the 
+     * with the {@link model.Operation.Mode Mode} as <code>INFO</code>, wich will request the remote node the 
      * content of the requested directory. This process can take some time.
+     * <p>
+     * Only the first <code>LISTING_PAGE</code> files are requested. A remote directory
+     * listed recently is displayed from the core {@link model.ListingCache
+     * ListingCache}, without requesting it.
      * @param node
      * @param path
      */
     public void listdir(String node, String path) {
-        mainWindow.getMainPanel().getOperationsPanel().setLoaderVisible(true);
+        listdir(node, path, 0);
+    }
+
+    /**
+     * Requests a page of <code>LISTING_PAGE</code> files of the specified directory,
+     * as {@link #listdir(String, String)} does.
+     * @param node the node of the directory.
+     * @param path the path of the directory.
+     * @param offset the position of the first requested file.
+     */
+    public void listdir(String node, String path, int offset) {
+        listdir(node, path, offset, 0);
+    }
+
+    /**
+     * Requests a page of the files of the specified directory only if it changed
+     * since the displayed listing was got, as {@link #listdir(String, String, int)}
+     * does.
+     * @param node the node of the directory.
+     * @param path the path of the directory.
+     * @param offset the position of the first requested file.
+     * @param version the version stamp of the displayed listing, 0 if unknown.
+     */
+    public void listdir(String node, String path, int offset, long version) {
+        FilesPanel fp = mainWindow.getMainPanel().getFilesPanel(node);
         // The dir is local
         if (node.equals(core.getNodeName())) {
-            core.addOperation(new Operation(Type.LISTDIR, path));
+            mainWindow.getMainPanel().getOperationsPanel().setLoaderVisible(true);
+            fp.setPageEnd(offset + LISTING_PAGE);
+            core.addOperation(new Operation(Type.LISTDIR, null, node, path, null, offset, LISTING_PAGE, version));
+            return;
         }
-        else {
-            String param = node + Operation.SEPARATOR + core.getNodeName() + Operation.SEPARATOR + path + Operation.SEPARATOR + Operation.SEND_INFO;
-            core.addOperation(new Operation(Type.TRANSFER, param));
+
+        // A remote dir that was already listed
+        ListingCache.Listing cached = offset == 0 ? core.getListingCache().get(node, path) : null;
+        if (cached != null && version == 0) {
+            if (cached.isFresh()) {
+                fp.updateTableData(path, cached.getFiles(), cached.getTotal(), cached.getVersion());
+                fp.setPageEnd(cached.getFiles().size());
+                return;
+            }
+            // Only if it changed
+            version = cached.getVersion();
         }
+
+        mainWindow.getMainPanel().getOperationsPanel().setLoaderVisible(true);
+        fp.setPageEnd(offset + LISTING_PAGE);
+        core.addOperation(new Operation(Type.TRANSFER, node, core.getNodeName(), path, Mode.INFO, offset, LISTING_PAGE, version));
     }
 
     /**
@@ -155,8 +207,7 @@ public class Controller {
      * @param path the path (new directory name included) where will be created.
      */
     public void mkdir(String node, String path) {
-        String param = node + Operation.SEPARATOR + path;
-        core.addOperation(new Operation(Type.MKDIR, param));
+        core.addOperation(new Operation(Type.MKDIR, node, path));
     }
 
     /**
@@ -168,8 +219,7 @@ public class Controller {
      */
     public void delete(String node, String path) {
         mainWindow.getMainPanel().getOperationsPanel().setLoaderVisible(true);
-        String param = node + Operation.SEPARATOR + path;
-        core.addOperation(new Operation(Type.DELETE, param));
+        core.addOperation(new Operation(Type.DELETE, node, path));
     }
 
     /**
@@ -182,14 +232,57 @@ public class Controller {
     /*  COMMUNICATION CORE -> WINDOW    */
 
     /**
-     * Sends to the GUI the file list to display.
+     * Sends to the GUI a part of the file list to display.
+     * @param node the node of the directory.
+     * @param path the path of the directory.
      * @param files the file list information to display.
+     * @param offset the position of the first file in the directory. If it's 0, the
+     * displayed list is replaced; otherwise, the files are added to it.
+     * @param total the amount of files in the directory.
+     * @param version the version stamp of the directory listing, 0 if unknown.
+     */
+    public void listFiles(String node, String path, ArrayList<String> files, int offset, int total, long version) {
+        FilesPanel fp = mainWindow.getMainPanel().getFilesPanel(node);
+        if (offset == 0) fp.updateTableData(path, files, total, version);
+        else fp.appendTableData(path, files, total, version);
+        mainWindow.getMainPanel().getOperationsPanel().setLoaderVisible(false);
+    }
+
+    /**
+     * Tells the GUI the displayed file list didn't change.
+     * @param node the node of the directory.
+     * @param path the path of the directory.
+     * @param version the version stamp of the directory.
      */
-    public void listFiles(String node, ArrayList<String> files) {
-        mainWindow.getMainPanel().getFilesPanel(node).updateTableData(files);
+    public void listNotModified(String node, String path, long version) {
+        FilesPanel fp = mainWindow.getMainPanel().getFilesPanel(node);
+        // The displayed list is of another dir: the cached list is displayed
+        if (fp.getVersion(path) != version) {
+            ListingCache.Listing cached = core.getListingCache().get(node, path);
+            if (cached != null && cached.getVersion() == version) {
+                fp.updateTableData(path, cached.getFiles(), cached.getTotal(), cached.getVersion());
+                fp.setPageEnd(cached.getFiles().size());
+            }
+        }
         mainWindow.getMainPanel().getOperationsPanel().setLoaderVisible(false);
     }
 
+    /**
+     * Notifies the GUI that some directories of a remote node changed. If one of them
+     * is displayed, it's listed again.
+     * @param node the remote node.
+     * @param dirs the paths of the changed directories, relative to the remote node
+     * root and without <code>"./"</code>.
+     */
+    public void notifyChanges(String node, HashSet<String> dirs) {
+        if (!checkGUI()) return;
+        FilesPanel fp = mainWindow.getMainPanel().getFilesPanel(node);
+        if (fp != null && dirs.contains(fp.getPath())) {
+            String path = "./" + fp.getPath();
+            listdir(node, path, 0, fp.getVersion(path));
+        }
+    }
+
     /**
      * Notifies the GUI that the system is ready to use, and passes the list of
      * connected remote node names.
@@ -284,7 +377,8 @@ public class Controller {
         MainPanel mp = mainWindow.getMainPanel();
         String currentNode = mp.getCurrentNode();
         mainWindow.getMainPanel().getFilesPanel(mainWindow.getMainPanel().getCurrentNode()).errorMessage("");
-        listdir(currentNode, "./" + mp.getFilesPanel(currentNode).getPath());
+        String path = "./" + mp.getFilesPanel(currentNode).getPath();
+        listdir(currentNode, path, 0, mp.getFilesPanel(currentNode).getVersion(path));
     }
 
     public void backEvent(){
@@ -309,6 +403,11 @@ public class Controller {
         }
     }
 
+    public void moreEvent(String nodeName){
+        FilesPanel fp = mainWindow.getMainPanel().getFilesPanel(nodeName);
+        listdir(nodeName, "./" + fp.getPath(), fp.getRowCount());
+    }
+
     public void deleteEvent(){
         MainPanel mp = mainWindow.getMainPanel();
         String currentNode = mp.getCurrentNode();
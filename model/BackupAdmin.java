@@ -1,5 +1,398 @@
 package model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+import org.json.JSONObject;
+
+/**
+ * The <code>Thread</code> that keeps the backup of the <code>systemDirectory root
+ * </code> in the backup node (the {@link model.BackupSlave BackupSlave} at <code>
+ * address</code> and <code>port</code> of <code>backup</code> in the configuration
+ * file). Every <code>updt</code> seconds, the root is walked and compared with the
+ * manifest of the backup (the size and last modified time of every file and
+ * directory the backup node has), and only the changes are sent: new and modified
+ * files, new directories and deleted ones. The manifest is saved in the <code>
+ * systemDirectory sysfiles</code> directory, so the changes made while the node was
+ * off are the only ones sent after a restart.
+ * <p>
+ * The first backup after starting depends on <code>init_mode</code>:
+ * <blockquote>
+ * <b>overwrite</b>: the backup is deleted and the whole root is sent again.
+ * <b>update</b>: the backup is updated from the saved manifest.
+ * </blockquote>
+ * The data is sent at most at <code>bandwidth</code> KB per second (unlimited if
+ * it's 0 or it isn't set), so the backup doesn't take all the network.
+ */
+
 public class BackupAdmin extends Thread {
-    
-}
\ No newline at end of file
+    /**
+     * Amount of sent files between the saves of the manifest.
+     */
+    private static final int SAVE_INTERVAL = 256;
+
+    /**
+     * This system {@link model.CloudCore core}.
+     */
+    private CloudCore core;
+
+    /**
+     * The address of the backup node BackupSlave.
+     */
+    private InetSocketAddress address;
+
+    /**
+     * Time in milliseconds between backups.
+     */
+    private long interval;
+
+    /**
+     * Maximum bytes per second sent. 0 for unlimited.
+     */
+    private long bandwidth;
+
+    /**
+     * How the first backup is done.
+     */
+    private InitMode initMode;
+
+    /**
+     * The file where the manifest is saved.
+     */
+    private File manifestFile;
+
+    /**
+     * What the backup node has: the root relative path of every file and directory,
+     * with its size and last modified time.
+     */
+    private HashMap<String, Entry> manifest;
+
+    /**
+     * Amount of files sent since the manifest was saved.
+     */
+    private int sinceSave;
+
+    /**
+     * <code>true</code> if the last backup failed, so the error isn't printed again.
+     */
+    private boolean failing;
+
+    /**
+     * The bandwidth limit state: when the current backup started sending data, and the
+     * amount of bytes sent since then.
+     */
+    private long throttleStart, throttleBytes;
+
+    /**
+     * Creates the thread that keeps the backup.
+     * @param core this system {@link model.CloudCore core}.
+     * @param backup the <code>backup</code> configuration.
+     */
+    public BackupAdmin(CloudCore core, JSONObject backup) {
+        this.core = core;
+        address = new InetSocketAddress(backup.getString("address"), backup.getInt("port"));
+        interval = backup.getLong("updt") * 1000;
+        bandwidth = backup.optLong("bandwidth", 0) * 1024;
+        manifestFile = new File(core.getSystemFilesDirectory() + "/backup.manifest");
+        manifest = new HashMap<>();
+
+        try {
+            initMode = InitMode.valueOf(backup.optString("init_mode", "overwrite").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Warning: Unknown backup init_mode \"" + backup.optString("init_mode") + "\". Using overwrite.");
+            initMode = InitMode.OVERWRITE;
+        }
+    }
+
+    @Override
+    public void run() {
+        boolean cleared = false;
+        if (initMode == InitMode.UPDATE) {
+            loadManifest();
+            cleared = true;
+        }
+
+        while (true) {
+            try {
+                cleared = backup(cleared);
+                failing = false;
+            } catch (IOException e) {
+                if (!failing) System.out.println("Error: Backup to " + address + " failed: " + e.getMessage());
+                failing = true;
+            }
+
+            try {
+                sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends the changes of the root since the last backup.
+     * @param cleared <code>false</code> if the backup has to be deleted first.
+     * @return <code>true</code>, once the backup was deleted.
+     * @throws IOException - if there's a problem with the backup node. What was sent
+     * before is kept in the manifest.
+     */
+    private boolean backup(boolean cleared) throws IOException {
+        Path root = Paths.get(core.getSystemRootDirectory()).toAbsolutePath().normalize();
+        ConcurrentHashMap<String, Entry> current = new ConcurrentHashMap<>();
+        core.getFileTree().walk(root, (path, attrs) -> {
+            if (!attrs.isRegularFile() && !attrs.isDirectory()) return;
+            String relative = PathScheduler.normalize(root.relativize(path).toString());
+            current.put(relative, new Entry(attrs.isDirectory() ? -1 : attrs.size(), attrs.isDirectory() ? 0 : attrs.lastModifiedTime().toMillis()));
+        });
+        if (!cleared) manifest.clear();
+
+        // The changes, sorted so the parent directories go first
+        ArrayList<String> deleted = new ArrayList<>();
+        for (String path : manifest.keySet()) {
+            if (!current.containsKey(path)) deleted.add(path);
+        }
+        ArrayList<String> changed = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : current.entrySet()) {
+            if (!entry.getValue().equals(manifest.get(entry.getKey()))) changed.add(entry.getKey());
+        }
+        Collections.sort(deleted);
+        Collections.sort(changed);
+        if (cleared && deleted.isEmpty() && changed.isEmpty()) return true;
+
+        int sentFiles = 0, deletedFiles = 0, failed = 0;
+        long sentBytes = 0;
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BackupSlave.BLOCK_SIZE));
+            DataInputStream din = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            dout.writeUTF(core.getNodeName());
+            throttleStart = System.currentTimeMillis();
+            throttleBytes = 0;
+
+            if (!cleared) {
+                dout.writeByte(BackupSlave.CLEAR);
+                dout.flush();
+                if (din.readByte() != BackupSlave.OK) throw new IOException("The backup couldn't be deleted");
+                saveManifest();
+                cleared = true;
+            }
+
+            HashSet<String> removed = new HashSet<>();
+            for (String path : deleted) {
+                // Deleted with its directory
+                if (removed.contains(parent(path))) {
+                    manifest.remove(path);
+                    removed.add(path);
+                    continue;
+                }
+                dout.writeByte(BackupSlave.DELETE);
+                dout.writeUTF(path);
+                dout.flush();
+                if (din.readByte() == BackupSlave.OK) {
+                    manifest.remove(path);
+                    removed.add(path);
+                    deletedFiles++;
+                }
+                else {
+                    failed++;
+                }
+            }
+
+            for (String path : changed) {
+                Entry entry = current.get(path);
+                boolean ok;
+                if (entry.size < 0) {
+                    dout.writeByte(BackupSlave.MKDIR);
+                    dout.writeUTF(path);
+                    dout.flush();
+                    ok = din.readByte() == BackupSlave.OK;
+                }
+                else {
+                    long size = put(dout, root.resolve(path), path, entry);
+                    // Deleted meanwhile
+                    if (size < 0) continue;
+                    ok = din.readByte() == BackupSlave.OK;
+                    entry = new Entry(size, entry.lastModified);
+                    if (ok) {
+                        sentFiles++;
+                        sinceSave++;
+                        sentBytes += size;
+                    }
+                }
+
+                if (ok) manifest.put(path, entry);
+                else failed++;
+                if (sinceSave >= SAVE_INTERVAL) saveManifest();
+            }
+        } finally {
+            saveManifest();
+        }
+
+        if (failed > 0) System.out.println("Error: " + failed + " files couldn't be updated in the backup.");
+        core.putMessage("Backup: " + sentFiles + " files sent (" + sentBytes + " bytes), " + deletedFiles + " deleted");
+        return cleared;
+    }
+
+    /**
+     * Sends a file to the backup node.
+     * @param dout the connection stream.
+     * @param file the file.
+     * @param path the root relative path of the file.
+     * @param entry the size and last modified time of the file when the root was walked.
+     * @return the amount of bytes sent, or -1 if the file doesn't exist anymore.
+     * @throws IOException - if there's a problem with the socket or the file.
+     */
+    private long put(DataOutputStream dout, Path file, String path, Entry entry) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            dout.writeByte(BackupSlave.PUT);
+            dout.writeUTF(path);
+            dout.writeLong(entry.lastModified);
+            dout.writeLong(size);
+
+            CRC32C crc = new CRC32C();
+            ByteBuffer block = ByteBuffer.allocate(BackupSlave.BLOCK_SIZE);
+            for (long remaining = size; remaining > 0; ) {
+                block.clear().limit((int) Math.min(block.capacity(), remaining));
+                if (channel.read(block) < 0) throw new IOException("File truncated while sending");
+                block.flip();
+                crc.update(block.array(), 0, block.limit());
+                dout.write(block.array(), 0, block.limit());
+                remaining -= block.limit();
+                throttle(block.limit());
+            }
+            dout.writeInt((int) crc.getValue());
+            dout.flush();
+            return size;
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Waits as needed to keep the sent bytes within the <code>bandwidth</code>.
+     * @param bytes the amount of bytes just sent.
+     */
+    private void throttle(long bytes) throws IOException {
+        if (bandwidth <= 0) return;
+
+        throttleBytes += bytes;
+        long wait = throttleStart + throttleBytes * 1000 / bandwidth - System.currentTimeMillis();
+        if (wait > 0) {
+            try {
+                sleep(wait);
+            } catch (InterruptedException e) {
+                throw new IOException("Backup interrupted");
+            }
+        }
+    }
+
+    /**
+     * Reads the saved manifest. If it doesn't exist or it's of another backup node,
+     * the manifest is empty.
+     */
+    private void loadManifest() {
+        manifest.clear();
+        if (!manifestFile.exists()) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)))) {
+            if (!in.readUTF().equals(address.toString())) return;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                manifest.put(path, new Entry(in.readLong(), in.readLong()));
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: Cannot read the backup manifest. The whole root will be sent.");
+            manifest.clear();
+        }
+    }
+
+    /**
+     * Saves the manifest. It's written apart and then replaces the saved one, so it's
+     * never left half written.
+     */
+    private void saveManifest() {
+        sinceSave = 0;
+        File temp = new File(manifestFile.getPath() + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+                out.writeUTF(address.toString());
+                out.writeInt(manifest.size());
+                for (Map.Entry<String, Entry> entry : manifest.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().size);
+                    out.writeLong(entry.getValue().lastModified);
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temp.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Error: Cannot save the backup manifest.");
+        }
+    }
+
+    /**
+     * @return the root relative path of the directory of a path. Empty for the root.
+     */
+    private static String parent(String path) {
+        int separator = path.lastIndexOf('/');
+        return separator < 0 ? "" : path.substring(0, separator);
+    }
+
+    /**
+     * The size and last modified time of a file, or a directory (size -1).
+     */
+    private static class Entry {
+        private long size;
+        private long lastModified;
+
+        private Entry(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry && ((Entry) o).size == size && ((Entry) o).lastModified == lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+        }
+    }
+
+    /**
+     * How the first backup after starting is done.
+     */
+    public enum InitMode {
+        OVERWRITE,
+        UPDATE
+    }
+}
@@ -1,5 +1,263 @@
 package model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32C;
+
+/**
+ * The <code>Thread</code> Server where the {@link model.BackupAdmin BackupAdmin} of
+ * other nodes connect to keep their backup in this node. Listens on <code>
+ * backup_port</code> (from the configuration file), and serves every connection in a
+ * worker thread. Only the nodes in <code>backup_nodes</code> (from the configuration
+ * file, the remote nodes if it isn't there) can keep their backup, and there's a
+ * worker for each one, and one more for a node connecting again.
+ * <p>
+ * The backup of every node is kept in a directory with its name inside the <code>
+ * systemDirectory backup</code> directory. The BackupAdmin sends the changes of its
+ * files as messages, each one answered with <code>OK</code> or <code>FAILED</code>:
+ * <blockquote>
+ * <b>PUT</b>: path, last modified time, size, data and its CRC32C. The file is
+ * written apart and replaces the old one only when it's verified.
+ * <b>MKDIR</b>: path of a directory to create.
+ * <b>DELETE</b>: path of a file or directory (with its content) to delete.
+ * <b>CLEAR</b>: deletes the whole backup of the node.
+ * </blockquote>
+ */
+
 public class BackupSlave extends Thread {
-    
-}
\ No newline at end of file
+    /**
+     * Backup messages.
+     */
+    public static final byte PUT = 0, MKDIR = 1, DELETE = 2, CLEAR = 3;
+
+    /**
+     * Backup replies.
+     */
+    public static final byte FAILED = 0, OK = 1;
+
+    /**
+     * Size in bytes of the blocks the file data is received in.
+     */
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * This system {@link model.CloudCore core}.
+     */
+    private CloudCore core;
+
+    /**
+     * The port where the BackupAdmins connect.
+     */
+    private int port;
+
+    /**
+     * The names of the nodes that can keep their backup.
+     */
+    private HashSet<String> nodes;
+
+    /**
+     * The worker threads serving the connections.
+     */
+    private ExecutorService workers;
+
+    /**
+     * Creates the backup server.
+     * @param core this system {@link model.CloudCore core}.
+     * @param port the port where the BackupAdmins connect.
+     * @param nodes the names of the nodes that can keep their backup.
+     */
+    public BackupSlave(CloudCore core, int port, Collection<String> nodes) {
+        this.core = core;
+        this.port = port;
+        this.nodes = new HashSet<>(nodes);
+        workers = core.getExecution().newWorkers("BackupSlave worker", this.nodes.size() + 1);
+    }
+
+    @Override
+    public void run() {
+        ServerSocketChannel serverChannel;
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            System.out.println("Error: Cannot listen for backups on port " + port);
+            return;
+        }
+
+        while (true) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                workers.execute(() -> serve(channel));
+            } catch (IOException e) {
+                System.out.println("Error: Backup point failure: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Receives the backup messages of a connection until it's closed.
+     * @param channel the connection.
+     */
+    private void serve(SocketChannel channel) {
+        try (SocketChannel socket = channel) {
+            DataInputStream din = new DataInputStream(new BufferedInputStream(Channels.newInputStream(socket), BLOCK_SIZE));
+            DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(socket)));
+
+            // The name of the node whose backup is kept
+            String name = din.readUTF();
+            if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.equals(".") || name.equals("..")) {
+                System.out.println("Error: Invalid backup node name \"" + name + "\"");
+                return;
+            }
+            if (!nodes.contains(name)) {
+                System.out.println("Error: \"" + name + "\" can't keep its backup in this node");
+                return;
+            }
+            Path base = Paths.get(core.getBackupDirectory(), name).toAbsolutePath().normalize();
+            Files.createDirectories(base);
+
+            while (true) {
+                byte type;
+                try {
+                    type = din.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+
+                boolean ok;
+                switch (type) {
+                    case PUT:
+                        ok = put(din, base);
+                        break;
+                    case MKDIR:
+                        ok = mkdir(resolve(base, din.readUTF()));
+                        break;
+                    case DELETE:
+                        Path target = resolve(base, din.readUTF());
+                        ok = target != null && core.getFileTree().delete(target).getFailed() == 0;
+                        break;
+                    case CLEAR:
+                        ok = core.getFileTree().delete(base).getFailed() == 0;
+                        Files.createDirectories(base);
+                        break;
+                    default:
+                        throw new IOException("Invalid backup message");
+                }
+
+                dout.writeByte(ok ? OK : FAILED);
+                dout.flush();
+            }
+        } catch (IOException e) {
+            // The BackupAdmin will try again
+        }
+    }
+
+    /**
+     * Receives a file and stores it in the backup if its data is verified.
+     * @param din the connection stream, after the message type.
+     * @param base the backup directory of the node.
+     * @return <code>true</code> if the file was stored.
+     * @throws IOException - if there's a problem with the socket. A problem storing
+     * the file only makes it fail.
+     */
+    private boolean put(DataInputStream din, Path base) throws IOException {
+        Path target = resolve(base, din.readUTF());
+        long lastModified = din.readLong();
+        long size = din.readLong();
+
+        Path partial = null;
+        FileChannel file = null;
+        try {
+            try {
+                partial = Files.createTempFile(Paths.get(core.getPartialFilesDirectory()), "backup-", ".part");
+                file = FileChannel.open(partial, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                // The data is still read
+            }
+
+            CRC32C crc = new CRC32C();
+            byte[] block = new byte[BLOCK_SIZE];
+            for (long remaining = size; remaining > 0; ) {
+                int count = (int) Math.min(block.length, remaining);
+                din.readFully(block, 0, count);
+                crc.update(block, 0, count);
+                remaining -= count;
+
+                if (file != null) {
+                    try {
+                        ByteBuffer buffer = ByteBuffer.wrap(block, 0, count);
+                        while (buffer.hasRemaining()) file.write(buffer);
+                    } catch (IOException e) {
+                        file.close();
+                        file = null;
+                    }
+                }
+            }
+            boolean verified = din.readInt() == (int) crc.getValue();
+            if (file == null || !verified || target == null) return false;
+
+            try {
+                file.force(false);
+                file.close();
+                Files.createDirectories(target.getParent());
+                if (Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) core.getFileTree().delete(target);
+                Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.setLastModifiedTime(target, FileTime.fromMillis(lastModified));
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        } finally {
+            if (file != null) file.close();
+            if (partial != null) Files.deleteIfExists(partial);
+        }
+    }
+
+    /**
+     * Creates a directory of the backup. A file with its name is replaced.
+     * @param dir the directory, or <code>null</code> if the path was invalid.
+     * @return <code>true</code> if the directory exists.
+     */
+    private boolean mkdir(Path dir) {
+        if (dir == null) return false;
+        try {
+            if (Files.exists(dir, LinkOption.NOFOLLOW_LINKS) && !Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) Files.delete(dir);
+            Files.createDirectories(dir);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Resolves a path of the backup of a node.
+     * @param base the backup directory of the node.
+     * @param path the root relative path sent by the BackupAdmin.
+     * @return the absolute path, or <code>null</code> if it isn't inside the backup
+     * directory of the node.
+     */
+    private static Path resolve(Path base, String path) {
+        Path resolved = base.resolve(path).normalize();
+        return resolved.startsWith(base) && !resolved.equals(base) ? resolved : null;
+    }
+}
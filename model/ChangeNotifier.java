@@ -0,0 +1,205 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import model.Operation.Change;
+import model.Operation.Change.Kind;
+
+/**
+ * Notifies the changes of the files in the <code>systemDirectory root</code> to the
+ * subscribed remote nodes, with <code>NOTIFY</code> {@link model.Operation
+ * Operations}. The changes come from the {@link model.DirectoryIndex
+ * DirectoryIndex}, so both the changes made by this node and the ones seen by its
+ * watcher are notified.
+ * <p>
+ * The changes are collected for <code>BATCH_DELAY</code> milliseconds and sent
+ * together. The changes of the same path are merged, and when a directory has more
+ * than <code>MAX_CHANGES_PER_DIR</code> changes, the directory is notified as
+ * modified instead.
+ * <p>
+ * A remote node subscribes when it connects, and stops being subscribed when it
+ * disconnects.
+ */
+
+public class ChangeNotifier implements Runnable {
+    /**
+     * Time in milliseconds the changes are collected before being notified.
+     */
+    private static final long BATCH_DELAY = 250;
+
+    /**
+     * Maximum amount of changes of a directory notified one by one.
+     */
+    private static final int MAX_CHANGES_PER_DIR = 64;
+
+    /**
+     * Maximum size in bytes of the changes of a single <code>NOTIFY</code>, so it
+     * fits in an Operation frame.
+     */
+    private static final int MAX_BATCH_SIZE = 32 * 1024;
+
+    /**
+     * This system {@link model.CloudCore core}.
+     */
+    private CloudCore core;
+
+    /**
+     * The names of the subscribed nodes.
+     */
+    private Set<String> subscribers;
+
+    /**
+     * The changes not notified yet, by path.
+     */
+    private LinkedHashMap<String, Kind> pending;
+
+    /**
+     * Mutex for the pending changes.
+     */
+    private Semaphore mutex;
+
+    /**
+     * Released when there are pending changes.
+     */
+    private Semaphore signal;
+
+    /**
+     * Creates a notifier without subscribers.
+     * @param core this system {@link model.CloudCore core}.
+     */
+    public ChangeNotifier(CloudCore core) {
+        this.core = core;
+        subscribers = ConcurrentHashMap.newKeySet();
+        pending = new LinkedHashMap<>();
+        mutex = new Semaphore(1, true);
+        signal = new Semaphore(0);
+    }
+
+    /**
+     * Subscribes a remote node to the changes.
+     * @param node the name of the node.
+     */
+    public void subscribe(String node) {
+        subscribers.add(node);
+    }
+
+    /**
+     * Stops notifying the changes to a remote node.
+     * @param node the name of the node.
+     */
+    public void unsubscribe(String node) {
+        subscribers.remove(node);
+    }
+
+    /**
+     * Adds a change to the next notification. Nothing is kept if there are no
+     * subscribers.
+     * @param kind what happened to the file or directory.
+     * @param path the <code>systemDirectory root</code> relative path of the file or
+     * directory.
+     */
+    public void changed(Kind kind, String path) {
+        if (subscribers.isEmpty()) return;
+
+        mutex.acquireUninterruptibly();
+            boolean first = pending.isEmpty();
+            Kind previous = pending.remove(path);
+            if (previous == Kind.CREATED && kind == Kind.MODIFIED) kind = Kind.CREATED;
+            else if (previous == Kind.DELETED && kind == Kind.CREATED) kind = Kind.MODIFIED;
+
+            // Created and deleted before being notified
+            if (previous != Kind.CREATED || kind != Kind.DELETED) pending.put(path, kind);
+            if (first && !pending.isEmpty()) signal.release();
+        mutex.release();
+    }
+
+    /**
+     * Waits for changes, and notifies them after <code>BATCH_DELAY</code>.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                signal.acquire();
+                Thread.sleep(BATCH_DELAY);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            LinkedHashMap<String, Kind> changes;
+            mutex.acquireUninterruptibly();
+                changes = pending;
+                pending = new LinkedHashMap<>();
+                signal.drainPermits();
+            mutex.release();
+
+            if (!changes.isEmpty()) publish(merge(changes));
+        }
+    }
+
+    /**
+     * Replaces the changes of the directories with too many changes by a change of
+     * the directory.
+     * @param changes the changes, by path.
+     * @return the changes to notify.
+     */
+    private static ArrayList<Change> merge(LinkedHashMap<String, Kind> changes) {
+        HashMap<String, Integer> perDir = new HashMap<>();
+        for (String path : changes.keySet()) perDir.merge(parent(path), 1, Integer::sum);
+
+        ArrayList<Change> merged = new ArrayList<>();
+        HashSet<String> added = new HashSet<>();
+        for (Map.Entry<String, Kind> change : changes.entrySet()) {
+            String dir = parent(change.getKey());
+            if (perDir.get(dir) <= MAX_CHANGES_PER_DIR) {
+                merged.add(new Change(change.getValue(), change.getKey()));
+            }
+            else if (added.add(dir)) {
+                merged.add(new Change(Kind.MODIFIED, dir));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Sends the changes to every subscribed node, in <code>NOTIFY</code> Operations of
+     * up to <code>MAX_BATCH_SIZE</code> bytes.
+     * @param changes the changes.
+     */
+    private void publish(ArrayList<Change> changes) {
+        ArrayList<ArrayList<Change>> batches = new ArrayList<>();
+        ArrayList<Change> batch = new ArrayList<>();
+        int size = 0;
+        for (Change change : changes) {
+            // Upper bound of the encoded size
+            int length = 3 + 3 * change.getPath().length();
+            if (!batch.isEmpty() && size + length > MAX_BATCH_SIZE) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                size = 0;
+            }
+            batch.add(change);
+            size += length;
+        }
+        batches.add(batch);
+
+        for (String node : subscribers) {
+            for (ArrayList<Change> part : batches) core.addOperation(new Operation(core.getNodeName(), node, part));
+        }
+    }
+
+    /**
+     * @return the root relative path of the directory of a path. Empty for the root.
+     */
+    private static String parent(String path) {
+        int separator = path.lastIndexOf('/');
+        return separator < 0 ? "" : path.substring(0, separator);
+    }
+}
@@ -0,0 +1,170 @@
+package model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A buffered <code>InputStream</code> that reads from a channel, usually a socket
+ * channel. Besides the usual stream reading (so a <code>DataInputStream</code> can
+ * be constructed over it), it can fill a (usually direct) <code>ByteBuffer</code>
+ * with {@link #readFully(ByteBuffer)}, without copying the bytes to a heap array.
+ * <p>
+ * Over a non-blocking channel, the data is read with {@link #readAvailable()}, and
+ * {@link #isBuffered(int)} tells if a whole message was already received, so it can
+ * be read without blocking.
+ */
+
+public class ChannelInputStream extends InputStream {
+    /**
+     * Size of the buffer for the small reads, like the messages headers.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Maximum size the buffer can grow to, to hold a whole message.
+     */
+    private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The channel where the data is read from.
+     */
+    private ReadableByteChannel channel;
+
+    /**
+     * The buffer of the read data not consumed yet. It's always ready to be read
+     * (flipped).
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Creates a stream over the specified channel.
+     * @param channel the channel where the data is read from.
+     */
+    public ChannelInputStream(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) return -1;
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!fill()) return -1;
+
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads bytes until the buffer is full. The bytes already buffered are copied
+     * first, and the rest are read directly from the channel.
+     * @param dst the buffer where the bytes are written. It's full after this call.
+     * @throws IOException - if there's a problem with the channel, or the stream ends
+     * before the buffer is full.
+     */
+    public void readFully(ByteBuffer dst) throws IOException {
+        // The bytes already read
+        if (buffer.hasRemaining()) {
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + Math.min(dst.remaining(), buffer.remaining()));
+            dst.put(buffer);
+            buffer.limit(limit);
+        }
+
+        // The rest, directly from the channel
+        while (dst.hasRemaining()) {
+            if (channel.read(dst) == -1) throw new EOFException();
+        }
+    }
+
+    /**
+     * Reads the data the channel has available, keeping the data not consumed yet.
+     * Used with non-blocking channels.
+     * @return the amount of bytes read, or -1 if the channel has reached the end of
+     * stream.
+     * @throws IOException - if there's a problem with the channel.
+     */
+    public int readAvailable() throws IOException {
+        buffer.compact();
+        int count = channel.read(buffer);
+        buffer.flip();
+        return count;
+    }
+
+    /**
+     * Checks if an amount of bytes is already in the buffer. If the buffer is too
+     * small to hold them, it's enlarged, so the next {@link #readAvailable()} can read
+     * them.
+     * @param count the amount of bytes.
+     * @return <code>true</code> if there are at least <code>count</code> bytes not
+     * consumed in the buffer.
+     * @throws IOException - if the amount of bytes is bigger than the maximum buffer
+     * size.
+     */
+    public boolean isBuffered(int count) throws IOException {
+        if (count > buffer.capacity()) {
+            if (count > MAX_BUFFER_SIZE) throw new IOException("Message too long");
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(Math.max(count, buffer.capacity() * 2), MAX_BUFFER_SIZE));
+            larger.put(buffer);
+            buffer = larger.flip();
+        }
+        return buffer.remaining() >= count;
+    }
+
+    /**
+     * Gets a byte from the buffer, without consuming it.
+     * @param offset the position of the byte, from the first byte not consumed. It
+     * has to be already in the buffer.
+     * @return the byte, as an unsigned value.
+     */
+    public int peekUnsignedByte(int offset) {
+        return buffer.get(buffer.position() + offset) & 0xFF;
+    }
+
+    /**
+     * Gets a two-byte unsigned value from the buffer, like the length of a string
+     * written with <code>writeUTF</code>, without consuming it.
+     * @param offset the position of the value, from the first byte not consumed. It
+     * has to be already in the buffer.
+     * @return the value.
+     */
+    public int peekUnsignedShort(int offset) {
+        return buffer.getShort(buffer.position() + offset) & 0xFFFF;
+    }
+
+    /**
+     * Reads more data from the channel if the buffer is empty.
+     * @return <code>true</code> if there's data in the buffer, <code>false</code> if
+     * the channel has reached the end of stream.
+     * @throws IOException - if there's a problem with the channel.
+     */
+    private boolean fill() throws IOException {
+        while (!buffer.hasRemaining()) {
+            buffer.clear();
+            int count = channel.read(buffer);
+            buffer.flip();
+            if (count == -1) return false;
+        }
+        return true;
+    }
+}
@@ -4,8 +4,11 @@ import org.json.*;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.concurrent.Semaphore;
 
@@ -73,11 +76,6 @@ public class CloudCore extends Thread {
      */
     private HashMap<String, RemoteSender> remoteSenderThreads;
 
-    /**
-     * This node's {@link model.RemoteReceiver RemoteReceiver} threads.
-     */
-    private ArrayList<RemoteReceiver> remoteReceiverThreads;
-
     /**
      * This node's {@link model.BackupAdmin BackupAdmin} thread.
      */
@@ -93,6 +91,61 @@ public class CloudCore extends Thread {
      */
     private Queue masterQueue;
 
+    /**
+     * The {@link model.Queue.Durability Durability} of all the {@link model.Queue
+     * Operation Queues}.
+     */
+    private Queue.Durability queueDurability;
+
+    /**
+     * When the file data sent to the remote nodes is compressed.
+     */
+    private Codec.Policy compression;
+
+    /**
+     * Creates the threads of the remote connections and the local Operations.
+     */
+    private Execution execution;
+
+    /**
+     * Runs the local <code>DELETE</code>, <code>MKDIR</code> and <code>LISTDIR
+     * </code> {@link model.Operation Operations} in <code>local_workers</code> (from
+     * the configuration file) threads, so a long one doesn't delay the rest.
+     */
+    private PathScheduler localOperations;
+
+    /**
+     * Deletes the directory trees in parallel.
+     */
+    private FileTree fileTree;
+
+    /**
+     * The files information of the <code>systemDirectory root</code> directories,
+     * for the directory listings.
+     */
+    private DirectoryIndex directoryIndex;
+
+    /**
+     * The directory listings received from the remote nodes.
+     */
+    private ListingCache listingCache;
+
+    /**
+     * Notifies the changes of the <code>systemDirectory root</code> files to the
+     * subscribed remote nodes.
+     */
+    private ChangeNotifier changeNotifier;
+
+    /**
+     * Keeps the copies of the files this node sends in several remote nodes.
+     */
+    private Replication replication;
+
+    /**
+     * Chooses the replica every file is requested to.
+     */
+    private ReadRouter readRouter;
+
     /**
      * <code>DELETE - SEND</code> <b>Synchronization</b>
      * <p>
@@ -108,9 +161,16 @@ public class CloudCore extends Thread {
     private Semaphore x, y, z, del, send;
 
     /**
-     * Incoming files and dir data mutex.
+     * Incoming files mutexes. Only one file can be received at time into the same
+     * path, but different files are received concurrently.
      */
-    private Semaphore recv;
+    private PathLocks recv;
+
+    /**
+     * Incoming files count limit. Allows up to <code>max_inbound</code> (from the
+     * configuration file) files to be received at the same time.
+     */
+    private Semaphore inbound;
 
     /**
      * GUI Update mutex.
@@ -123,7 +183,6 @@ public class CloudCore extends Thread {
 
         sysdirs = new LinkedHashMap<>();
 
-        remoteReceiverThreads = new ArrayList<>();
         remoteSenderThreads = new HashMap<>();
 
         sendingCount = 0;
@@ -133,7 +192,8 @@ public class CloudCore extends Thread {
         del = new Semaphore(1, true);
         send = new Semaphore(1, true);
 
-        recv = new Semaphore(1, true);
+        recv = new PathLocks();
+        inbound = new Semaphore(config.optInt("max_inbound", 4), true);
 
         guiupdt = new Semaphore(1, true);
     }
@@ -145,9 +205,24 @@ public class CloudCore extends Thread {
         systemDirectory = config.getString("path");
         remoteNodes = config.getJSONArray("remote");
         backupNode = config.getJSONObject("backup");
+        queueDurability = getOption("durability", Queue.Durability.BATCH);
+        compression = getOption("compression", Codec.Policy.ADAPTIVE);
+        execution = new Execution(getOption("threads", Execution.Mode.PLATFORM));
+        int localWorkers = config.optInt("local_workers", Math.max(4, Runtime.getRuntime().availableProcessors()));
+        localOperations = new PathScheduler(execution.newWorkers("Local operations", localWorkers));
+        fileTree = new FileTree(localWorkers);
+        listingCache = new ListingCache(config.optInt("listing_cache", 100000), config.optLong("listing_ttl", 30) * 1000);
 
         // Initializes the system directories
         initSystemDir();
+        initDirectoryIndex();
+        ArrayList<String> remoteNames = new ArrayList<>();
+        for (int i = 0; i < remoteNodes.length(); i++) remoteNames.add(remoteNodes.getJSONObject(i).getString("name"));
+        replication = new Replication(this, remoteNames, config.optInt("replication", 1), config.optInt("write_quorum", 0),
+                getOption("placement", Replication.Placement.ORDERED), config.optInt("virtual_nodes", 128), config.optLong("write_timeout", 1800) * 1000);
+        execution.start("Replication", replication);
+        readRouter = new ReadRouter(this, config.optBoolean("hedging", true), config.optLong("hedge_delay", 1000));
+        execution.start("ReadRouter", readRouter);
 
         // Initializes the Master Queue
         initMasterQueue();
@@ -167,40 +242,39 @@ public class CloudCore extends Thread {
         // System core process
         while (true) {
             try {
-                // Gets the next operation
-                Operation next = masterQueue.getNext();
-
-                // If there was an Operation
-                if (next != null) {
-                    // Obtain the node involved
-                    String node = next.getParam().split(Operation.SEPARATOR)[0];
-
-                    switch (next.getType()) {
-                        case DELETE:
-                            opDelete(node, next);
-                            break;
-                        case MKDIR:
-                            opMkdir(node, next);
-                            break;
-                        case LISTDIR: // ALWAYS LOCAL
-                            String path = next.getParam();
-                            opListdir(path);
-                            break;
-                        case TRANSFER:
-                            // Note: An operation transfer will never has the sender node as the local node.
-                            // Transfer operation means that this node's user is requesting to send a file
-                            // from a remote node, to a wether other remote node or this local node.
-                            // RemoteReceiver will receive the message for a transfer, and charge to the master
-                            // queue a Send operation, which means the file to send is in this local node.
-                        case SEND:
-                            // Pass the operation to the corresponding RemoteSender
-                            remoteSenderThreads.get(node).addOperation(next);
-                            break;
-                    }
-                }
-                // If there's no more Operations, waits before checking again
-                else {
-                    sleep(50);
+                // Waits for the next operation
+                Operation next = masterQueue.take();
+
+                // Obtain the node involved
+                String node = next.getNode();
+
+                switch (next.getType()) {
+                    case DELETE:
+                    case MKDIR:
+                    case LISTDIR: // ALWAYS LOCAL
+                        // Local operations run in the workers, ordered only with the ones of related paths
+                        if (next.getType() == Operation.Type.LISTDIR || name.equals(node)) {
+                            localOperations.submit(next.getPath(), () -> opLocal(node, next));
+                        }
+                        else {
+                            opLocal(node, next);
+                        }
+                        break;
+                    case TRANSFER:
+                        // Note: An operation transfer will never has the sender node as the local node.
+                        // Transfer operation means that this node's user is requesting to send a file
+                        // from a remote node, to a wether other remote node or this local node.
+                        // RemoteReceiver will receive the message for a transfer, and charge to the master
+                        // queue a Send operation, which means the file to send is in this local node.
+                        // A replicated file is requested to its best replica.
+                        Operation routed = next.getMode() == Operation.Mode.DATA ? readRouter.route(next) : next;
+                        remoteSenderThreads.get(routed.getNode()).addOperation(routed);
+                        break;
+                    case SEND:
+                    case NOTIFY:
+                        // Pass the operation to the corresponding RemoteSender
+                        remoteSenderThreads.get(node).addOperation(next);
+                        break;
                 }
             } catch (InterruptedException e) {
                 e.printStackTrace();
@@ -210,6 +284,31 @@ public class CloudCore extends Thread {
         }
     }
 
+    /**
+     * Does a <code>DELETE</code>, <code>MKDIR</code> or <code>LISTDIR</code> {@link
+     * model.Operation Operation}. The local ones are called by the {@link
+     * model.PathScheduler local Operations} workers.
+     * @param node the involved node.
+     * @param next the {@link model.Operation Operation} to do.
+     */
+    private void opLocal(String node, Operation next) {
+        try {
+            switch (next.getType()) {
+                case DELETE:
+                    opDelete(node, next);
+                    break;
+                case MKDIR:
+                    opMkdir(node, next);
+                    break;
+                default:
+                    opListdir(next.getPath(), next.getOffset(), next.getLimit(), next.getVersion());
+                    break;
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
     /*  LOCAL ONLY METHODS  */
 
     /**
@@ -225,12 +324,14 @@ public class CloudCore extends Thread {
             sysdirs.put("backup", "/backup");
             sysdirs.put("sysfiles", "/sysfiles");
             sysdirs.put("queues", "/sysfiles/queues");
+            sysdirs.put("partial", "/sysfiles/partial");
         }
         else {
             // In UNIX-like systems, gets hidden with "."
             sysdirs.put("backup", "/.backup");
             sysdirs.put("sysfiles", "/.sysfiles");
             sysdirs.put("queues", "/.sysfiles/queues");
+            sysdirs.put("partial", "/.sysfiles/partial");
         }
 
         for (String key : sysdirs.keySet()) {
@@ -246,11 +347,23 @@ public class CloudCore extends Thread {
         }
     }
 
+    /**
+     * Initializes the {@link model.DirectoryIndex DirectoryIndex} of the <code>
+     * systemDirectory root</code>, and the {@link model.ChangeNotifier
+     * ChangeNotifier} of its changes. Both run in their own threads.
+     */
+    private void initDirectoryIndex() {
+        changeNotifier = new ChangeNotifier(this);
+        directoryIndex = new DirectoryIndex(Paths.get(getSystemRootDirectory()), fileTree, changeNotifier);
+        execution.start("DirectoryIndex", directoryIndex);
+        execution.start("ChangeNotifier", changeNotifier);
+    }
+
     /**
      * Initializes the Master {@link model.Operation Queue}.
      */
     private void initMasterQueue() {
-        masterQueue = new Queue(systemDirectory + sysdirs.get("queues") + "/master.q");
+        masterQueue = new Queue(systemDirectory + sysdirs.get("queues") + "/master.q", queueDurability);
     }
 
     /**
@@ -270,24 +383,42 @@ public class CloudCore extends Thread {
         for (int i = 0; i < remoteNodes.length(); i++) {
             JSONObject remoteNode = remoteNodes.getJSONObject(i);
             RemoteSender aux = new RemoteSender(this, remoteNode);
-            aux.start();
+            execution.start("RemoteSender " + remoteNode.getString("name"), aux);
 
             remoteSenderThreads.put(remoteNode.getString("name"), aux);
         }
     }
 
     /**
-     * Initializes the {@link model.BackupAdmin BackupAdmin} thread.
+     * Initializes the {@link model.BackupAdmin BackupAdmin} thread, if the <code>
+     * backup</code> node has a port and an update interval.
      */
     private void initBackup() {
+        if (backupNode.optInt("port", 0) <= 0 || backupNode.optLong("updt", 0) <= 0) return;
 
+        backupAdminThread = new BackupAdmin(this, backupNode);
+        backupAdminThread.start();
     }
 
     /**
-     * Initializes the {@link model.BackupSlave BackupSlave} thread.
+     * Initializes the {@link model.BackupSlave BackupSlave} thread, if there's a
+     * <code>backup_port</code>.
      */
     private void initBackupPoint() {
-
+        int port = config.optInt("backup_port", 0);
+        if (port <= 0) return;
+
+        // The nodes that can keep their backup, all the remote ones by default
+        ArrayList<String> nodes = new ArrayList<>();
+        JSONArray backupNodes = config.optJSONArray("backup_nodes");
+        if (backupNodes != null) {
+            for (int i = 0; i < backupNodes.length(); i++) nodes.add(backupNodes.getString(i));
+        }
+        else {
+            for (int i = 0; i < remoteNodes.length(); i++) nodes.add(remoteNodes.getJSONObject(i).getString("name"));
+        }
+        backupSlaveThread = new BackupSlave(this, port, nodes);
+        backupSlaveThread.start();
     }
 
     /**
@@ -302,15 +433,23 @@ public class CloudCore extends Thread {
 
         // If local, Gets the path and tries to delete the file or directory
         if (node.equals(name)) {
-            String path = next.getParam().split(Operation.SEPARATOR)[1];
-            if (!delete(path)) {
+            String path = next.getPath();
+            FileTree.Count count = delete(path);
+            fileChanged(Paths.get(getSystemRootDirectory(), path));
+            if (count.getDone() == 0 && count.getFailed() == 0) {
                 controller.notifyError("Error: Couldn't find \"" + path + "\". The directory/file may not exist or was already deleted.");
             }
+            else if (count.getFailed() > 0) {
+                controller.notifyError("Error: Couldn't delete " + count.getFailed() + " of " + (count.getDone() + count.getFailed()) + " files and directories in \"" + path + "\".");
+            }
+            else {
+                putMessage("Deleted: \"" + path + "\" (" + count.getDone() + " files and directories)");
+            }
             // Updates GUI
             String[] dirs = path.split("/");
             StringBuilder current = new StringBuilder();
             for (int i = 0; i < dirs.length - 1; i++) current.append(dirs[i] + "/");
-            opListdir(current.toString());
+            opListdir(current.toString(), 0, Controller.LISTING_PAGE, 0);
         }
         // Else, pass this operation to the corresponding RemoteSender
         else {
@@ -330,16 +469,17 @@ public class CloudCore extends Thread {
         // If local, Gets the path and tries to create the directory
         // Semaphore needed!
         if (node.equals(name)) {
-            String path = next.getParam().split(Operation.SEPARATOR)[1];
+            String path = next.getPath();
             // Semaphore needed!
             if (!createDirectory(path)) {
                 controller.notifyError("Error: The directory is already created or couldn't find \"" + path + "\".");   
             }
+            fileChanged(Paths.get(getSystemRootDirectory(), path));
             // Updates GUI
             String[] dirs = path.split("/");
             StringBuilder current = new StringBuilder();
             for (int i = 0; i < dirs.length - 1; i++) current.append(dirs[i] + "/");
-            opListdir(current.toString());
+            opListdir(current.toString(), 0, Controller.LISTING_PAGE, 0);
         }
         // Else, pass this operation to the corresponding RemoteSender
         else {
@@ -350,10 +490,19 @@ public class CloudCore extends Thread {
     /**
      * <code>LISTDIR</code> {@link model.Operation Operation} process.
      * @param path the local path to display.
+     * @param offset the position of the first file to display.
+     * @param limit the maximum amount of files to display, 0 for all of them.
+     * @param known the version stamp of the displayed listing, 0 if unknown.
      */
-    private void opListdir(String path) {
-        ArrayList<String> filesInfo = new ArrayList<>();
-        if (!isCloudDir(path)) {
+    private void opListdir(String path, int offset, int limit, long known) {
+        long version = directoryIndex.getVersion(path);
+        if (version != 0 && version == known) {
+            listdirNotModified(name, path, version);
+            return;
+        }
+
+        ArrayList<String> filesInfo = directoryIndex.list(path);
+        if (filesInfo == null) {
             controller.notifyError("Error: Couldn't find \"" + path + "\". The directory/file may not exist or was already deleted.");
 
             // Updates GUI in the current dir
@@ -363,27 +512,29 @@ public class CloudCore extends Thread {
             path = current.toString();
 
             controller.updatePath(name, path);
+            version = directoryIndex.getVersion(path);
+            filesInfo = directoryIndex.list(path);
+            if (filesInfo == null) filesInfo = new ArrayList<>();
+            offset = 0;
         }
 
-        for (File file : new File(getSystemRootDirectory() + "/" + path).listFiles()) {
-            filesInfo.add(file.getName() + Operation.SEPARATOR + file.lastModified() + Operation.SEPARATOR + file.isDirectory());
-        }
-
-        listdir(name, filesInfo);
+        int start = Math.min(Math.max(offset, 0), filesInfo.size());
+        int end = limit > 0 ? (int) Math.min((long) start + limit, filesInfo.size()) : filesInfo.size();
+        listdir(name, path, new ArrayList<>(filesInfo.subList(start, end)), start, filesInfo.size(), version);
     }
 
     /*  SYSTEM FUNCTIONS   */
 
     /**
-     * Add a new {@link model.RemoteReceiver} thread to the list. This method has
-     * to be called only by the {@link model.ConnectionPoint ConnectionPoint} thread,
-     * wich must be previously created.
-     * @param thread the new instance of {@link model.RemoteReceiver RemoteReceiver}.
+     * Appends the specified {@link model.Operation Operation} in the {@link model.Queue 
+     * Master Queue}, telling the caller if it couldn't be written.
+     * @param op the {@link model.Operation Operation} instance to add.
+     * @throws IOException - if the Master Queue files can't be written.
+     * @throws InterruptedException - if the thread gets interrumpted while waiting
+     * for the Master Queue.
      */
-    public void addRemoteReceiver(RemoteReceiver thread) {
-        thread.setMutex(recv);
-        thread.start();
-        remoteReceiverThreads.add(thread);
+    public void enqueue(Operation op) throws IOException, InterruptedException {
+        masterQueue.add(op);
     }
 
     /**
@@ -393,7 +544,7 @@ public class CloudCore extends Thread {
      */
     public void addOperation(Operation op) {
         try {
-            masterQueue.add(op);
+            enqueue(op);
         } catch (IOException e) {
             System.out.println("Fatal Error: Cannot access to Master Queue");
         } catch (InterruptedException ie) {
@@ -403,6 +554,31 @@ public class CloudCore extends Thread {
         }
     }
 
+    /**
+     * Sends a file of this node to a remote node and, with <code>replication</code>
+     * (from the configuration file), to as many other remote nodes as copies are
+     * kept. With the <code>hash</code> placement, the nodes are chosen from the file
+     * name instead. See {@link model.Replication Replication}.
+     * @param target the remote node the user chose.
+     * @param path the <code>systemDirectory root</code> relative path of the file.
+     */
+    public void replicate(String target, String path) {
+        if (!replication.isEnabled()) {
+            addOperation(new Operation(Operation.Type.SEND, name, target, path, Operation.Mode.DATA));
+            return;
+        }
+
+        ArrayList<String> replicas = replication.place(target, path, node -> remoteSenderThreads.get(node).isConnected());
+        if (replicas.isEmpty()) {
+            controller.notifyError("Error: There are no remote nodes to send \"" + path + "\".");
+            return;
+        }
+        if (!replicas.get(0).equals(target)) putMessage("Placing \"" + new File(path).getName() + "\" in " + String.join(", ", replicas));
+
+        replication.begin(path, replicas);
+        for (String replica : replicas) addOperation(new Operation(Operation.Type.SEND, name, replica, path, Operation.Mode.DATA));
+    }
+
     /**
      * Creates a new directory in the specified path.
      * @param path the <code>systemDirectory root</code> relative path (directory name
@@ -415,33 +591,33 @@ public class CloudCore extends Thread {
     }
 
     /**
-     * Removes from the local OS file system the specified file or directory.
+     * Removes from the local OS file system the specified file or directory. The
+     * content of a directory is deleted in parallel by the {@link model.FileTree
+     * FileTree}.
      * @param path the <code>systemDirectory root</code> relative path (file or directory 
      * name included) where is located the file/directory to delete.
-     * @return <code>true</code> if and only if the file or directory is successfully 
-     * deleted; <code>false</code> otherwise.
+     * @return the amount of deleted entries and of entries that couldn't be deleted.
+     * Both are 0 if the file or directory doesn't exist.
      */
-    private boolean delete(String path) {
-        File todelete = new File(getSystemRootDirectory() + "/" + path);
-        if (todelete.isDirectory()) return emptydir(todelete);
-        return todelete.delete();
+    private FileTree.Count delete(String path) {
+        return fileTree.delete(Paths.get(getSystemRootDirectory(), path));
     }
 
     /**
-     * <b>Recursive</b>
-     * As Java can only delete empty directories, this function deletes recursively all
-     * the content of the directory passed as argument.
-     * @param dir the directory as <code>File</code> to empty.
+     * Reads an option of the configuration file that has a fixed set of values. An
+     * unknown value is warned about, and the default one is used instead.
+     * @param key the name of the option.
+     * @param fallback the default value.
+     * @return the configured value.
      */
-    private boolean emptydir(File dir) {
-        for (File f : dir.listFiles()) {
-            if (f.isDirectory()){
-                emptydir(f);
-                f.delete();
-            }
-            else f.delete();
+    private <E extends Enum<E>> E getOption(String key, E fallback) {
+        String value = config.optString(key, fallback.name());
+        try {
+            return Enum.valueOf(fallback.getDeclaringClass(), value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Warning: Unknown " + key + " \"" + value + "\". Using " + fallback.name().toLowerCase() + ".");
+            return fallback;
         }
-        return dir.delete();
     }
 
     /**
@@ -467,6 +643,58 @@ public class CloudCore extends Thread {
         return systemDirectory + sysdirs.get("queues");
     }
 
+    /**
+     * @return the {@link model.Queue.Durability Durability} of the {@link
+     * model.Queue Operation Queues}, specified in the configuration file.
+     */
+    public Queue.Durability getQueueDurability() {
+        return queueDurability;
+    }
+
+    /**
+     * @return the number of data channels each {@link model.RemoteSender
+     * RemoteSender} opens for sending file data, specified in the configuration file.
+     */
+    public int getDataStreams() {
+        return config.optInt("data_streams", 2);
+    }
+
+    /**
+     * @return the maximum amount of incoming messages the {@link
+     * model.ConnectionPoint ConnectionPoint} processes at the same time, with the
+     * file data or directory information that follows them, specified in the
+     * configuration file.
+     */
+    public int getReceiveWorkers() {
+        return config.optInt("receive_workers", 16);
+    }
+
+    /**
+     * @return the maximum amount of {@link model.Operation Operations} each {@link
+     * model.RemoteSender RemoteSender} sends without the remote node confirming
+     * them, specified in the configuration file.
+     */
+    public int getWindow() {
+        return config.optInt("window", 64);
+    }
+
+    /**
+     * @return when the file data sent to the remote nodes is compressed, specified in
+     * the configuration file.
+     */
+    public Codec.Policy getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return the {@link model.Execution Execution} that creates the threads of the
+     * remote connections and the local Operations, with the kind of threads specified in the configuration
+     * file.
+     */
+    public Execution getExecution() {
+        return execution;
+    }
+
     /**
      * @return the absolute path where incoming files will be saved.
      */
@@ -474,6 +702,38 @@ public class CloudCore extends Thread {
         return systemDirectory + sysdirs.get("recv");
     }
 
+    /**
+     * @return the absolute path where incoming files are written while they're
+     * being received. It's outside the Network Cloud root, but in the same file
+     * system, so complete files can be moved atomically to the received files
+     * directory.
+     */
+    public String getPartialFilesDirectory() {
+        return systemDirectory + sysdirs.get("partial");
+    }
+
+    /**
+     * @return the absolute path where this node's system files are kept.
+     */
+    public String getSystemFilesDirectory() {
+        return systemDirectory + sysdirs.get("sysfiles");
+    }
+
+    /**
+     * @return the absolute path where the backups of the other nodes are kept.
+     */
+    public String getBackupDirectory() {
+        return systemDirectory + sysdirs.get("backup");
+    }
+
+    /**
+     * @return the {@link model.FileTree FileTree} that deletes and walks the
+     * directory trees.
+     */
+    public FileTree getFileTree() {
+        return fileTree;
+    }
+
     /**
      * Checks if a directory (of this Network Cloud) exists.
      * @param path the path relative to <code>systemDirectory root</code>.
@@ -486,13 +746,75 @@ public class CloudCore extends Thread {
     
     /**
      * <b>GUI Interface</b>
-     * Sends to the {@link controller.Controller controller} the list of files to
-     * display in the GUI.
+     * Sends to the {@link controller.Controller controller} a part of the list of
+     * files of a directory to display in the GUI.
+     * @param node the node of the directory.
+     * @param path the path of the directory.
      * @param files the list of files (filename, last modified time in millis and
      * if its dir or not) to display.
+     * @param offset the position of the first file of the list in the directory.
+     * If it's 0, the list replaces the displayed one; otherwise, it's added to it.
+     * @param total the amount of files in the directory.
+     * @param version the version stamp of the directory listing, 0 if unknown.
+     */
+    public void listdir(String node, String path, ArrayList<String> files, int offset, int total, long version) {
+        if (!node.equals(name)) listingCache.put(node, path, files, offset, total, version);
+        controller.listFiles(node, path, files, offset, total, version);
+    }
+
+    /**
+     * <b>GUI Interface</b>
+     * Tells the {@link controller.Controller controller} the displayed list of files
+     * of a directory is still the same.
+     * @param node the node of the directory.
+     * @param path the path of the directory.
+     * @param version the version stamp of the directory.
+     */
+    public void listdirNotModified(String node, String path, long version) {
+        if (!node.equals(name)) listingCache.renew(node, path, version);
+        controller.listNotModified(node, path, version);
+    }
+
+    /**
+     * Subscribes a remote node to the changes of this node files.
+     * @param node the remote node name.
      */
-    public void listdir(String node, ArrayList<String> files) {
-        controller.listFiles(node, files);
+    public void subscribe(String node) {
+        // Only the known nodes can be notified
+        if (remoteSenderThreads.containsKey(node)) changeNotifier.subscribe(node);
+    }
+
+    /**
+     * Updates the cached listings and the GUI with the changes notified by a remote
+     * node.
+     * @param node the remote node name.
+     * @param changes the changes of its files.
+     */
+    public void changesNotified(String node, ArrayList<Operation.Change> changes) {
+        HashSet<String> dirs = new HashSet<>();
+        for (Operation.Change change : changes) {
+            String path = change.getPath();
+            int separator = path.lastIndexOf('/');
+            dirs.add(separator < 0 ? "" : path.substring(0, separator));
+
+            if (change.getKind() == Operation.Change.Kind.DELETED) {
+                listingCache.invalidate(node, path);
+            }
+            else {
+                listingCache.invalidateEntry(node, path);
+                // The content of a directory can change too
+                if (change.getKind() == Operation.Change.Kind.MODIFIED) dirs.add(path);
+            }
+        }
+        controller.notifyChanges(node, dirs);
+    }
+
+    /**
+     * @return <code>true</code> if this node subscribes to the changes of the remote
+     * nodes, as <code>notifications</code> in the configuration file says.
+     */
+    public boolean isSubscribing() {
+        return config.optBoolean("notifications", true);
     }
 
     /*  DELETE - SEND SYNCRHONIZATION METHODS   */
@@ -545,6 +867,34 @@ public class CloudCore extends Thread {
         y.release();
     }
 
+    /*  RECEIVE SYNCHRONIZATION METHODS    */
+
+    /**
+     * Request the system for receiving a file into the received files directory.
+     * Waits while there are already <code>max_inbound</code> files being received,
+     * or the same file is being received from other node.
+     * @param filename the name of the file to receive.
+     * @throws InterruptedException
+     */
+    public void requestReceive(String filename) throws InterruptedException {
+        inbound.acquire();
+        try {
+            recv.acquire(filename);
+        } catch (InterruptedException e) {
+            inbound.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Notifies that a file has been received (or the receiving failed).
+     * @param filename the name of the received file.
+     */
+    public void endReceive(String filename) {
+        recv.release(filename);
+        inbound.release();
+    }
+
     /**
      * Verifies the existence of the directory for the received files.
      * If doesn't exists, then creates it.
@@ -558,6 +908,80 @@ public class CloudCore extends Thread {
         }
     }
 
+    /**
+     * Notifies that a file or directory in the <code>systemDirectory root</code> was
+     * created, modified or deleted by this node, so the {@link model.DirectoryIndex
+     * DirectoryIndex} is updated without waiting for the file system events.
+     * @param path the absolute path of the file or directory.
+     */
+    public void fileChanged(Path path) {
+        directoryIndex.update(path);
+    }
+
+    /**
+     * @return the {@link model.DirectoryIndex DirectoryIndex} of the <code>
+     * systemDirectory root</code>.
+     */
+    public DirectoryIndex getDirectoryIndex() {
+        return directoryIndex;
+    }
+
+    /**
+     * Notifies that a file was received from a remote node, so the {@link
+     * model.ReadRouter ReadRouter} completes its request.
+     * @param node the remote node that sent it.
+     * @param filename the name of the file.
+     */
+    public void fileReceived(String node, String filename) {
+        readRouter.received(node, filename);
+    }
+
+    /**
+     * Tells if a file a remote node starts sending isn't needed, because it was
+     * also requested to another replica, and that copy already arrived. See {@link
+     * model.ReadRouter ReadRouter}.
+     * @param node the remote node sending it.
+     * @param filename the name of the file.
+     * @return <code>true</code> if the file isn't needed.
+     */
+    public boolean isLateCopy(String node, String filename) {
+        return readRouter.isLate(node, filename);
+    }
+
+    /**
+     * @param node the name of a remote node.
+     * @return the {@link model.RemoteSender RemoteSender} of the remote node, or
+     * <code>null</code> if it isn't a known node.
+     */
+    public RemoteSender getRemoteSender(String node) {
+        return remoteSenderThreads.get(node);
+    }
+
+    /**
+     * @param node the name of a remote node.
+     * @return the {@link model.PeerScore PeerScore} of the connection with the remote
+     * node, or <code>null</code> if it isn't a known node.
+     */
+    public PeerScore getPeerScore(String node) {
+        RemoteSender sender = remoteSenderThreads.get(node);
+        return sender != null ? sender.getScore() : null;
+    }
+
+    /**
+     * @return the {@link model.Replication Replication} of the files this node sends.
+     */
+    public Replication getReplication() {
+        return replication;
+    }
+
+    /**
+     * @return the {@link model.ListingCache ListingCache} of the remote directory
+     * listings.
+     */
+    public ListingCache getListingCache() {
+        return listingCache;
+    }
+
     /**
      * Gets controller to notify the GUI some (non error) message.
      * @param msg the message to be displayed.
@@ -566,6 +990,14 @@ public class CloudCore extends Thread {
         controller.notifyMessage(msg);
     }
 
+    /**
+     * Gets controller to notify the GUI some error message.
+     * @param msg the message to be displayed.
+     */
+    public void putError(String msg) {
+        controller.notifyError(msg);
+    }
+
     /**
      * Disconnects for reconnection the {@link model.RemoteSender
      * RemoteSender} thread when the {@link model.RemoteReceiver
@@ -586,6 +1018,12 @@ public class CloudCore extends Thread {
      * @throws InterruptedException
      */
     public void nodeStatus(String nodeName, boolean value) throws InterruptedException {
+        // Its directories may change while it's disconnected
+        if (!value) {
+            listingCache.invalidate(nodeName);
+            changeNotifier.unsubscribe(nodeName);
+        }
+
         guiupdt.acquire();
             while(!controller.checkGUI()) sleep(100);
             controller.notifyNodeStatus(nodeName, value);
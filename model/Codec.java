@@ -0,0 +1,80 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A compression codec for the file data sent between nodes. A codec instance keeps
+ * its own state, so every {@link model.RemoteChannel RemoteChannel} and {@link
+ * model.RemoteReceiver RemoteReceiver} creates its own with {@link #create(String)}.
+ * <p>
+ * The codec used by a channel is negotiated when it connects: the sender offers the
+ * names in <code>NAMES</code>, in preference order, and the receiver replies with
+ * the first one it supports. New codecs only need to be added to <code>NAMES</code>
+ * and {@link #create(String)}.
+ */
+
+public interface Codec {
+    /**
+     * The names of the supported codecs, in preference order.
+     */
+    public static final String[] NAMES = { DeflateCodec.NAME };
+
+    /**
+     * @return the name of this codec, as it's negotiated.
+     */
+    public String getName();
+
+    /**
+     * Compresses all the remaining bytes of a buffer.
+     * @param src the data to compress.
+     * @param dst the array where the compressed data is written.
+     * @return the compressed data length, or <code>-1</code> if it didn't fit in
+     * <code>dst</code>.
+     */
+    public int compress(ByteBuffer src, byte[] dst);
+
+    /**
+     * Decompresses data until the buffer is full.
+     * @param src the array with the compressed data.
+     * @param length the compressed data length.
+     * @param dst the buffer where the data is written.
+     * @throws IOException - if the compressed data is corrupted.
+     */
+    public void decompress(byte[] src, int length, ByteBuffer dst) throws IOException;
+
+    /**
+     * Creates an instance of the codec with the specified name.
+     * @param name the codec name.
+     * @return the codec, or <code>null</code> if there's no codec with that name.
+     */
+    public static Codec create(String name) {
+        switch (name) {
+            case DeflateCodec.NAME:
+                return new DeflateCodec();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * When the file data is compressed, as specified by <code>compression</code> in
+     * the configuration file.
+     */
+    public enum Policy {
+        /**
+         * Never. No codec is offered when connecting.
+         */
+        NONE,
+        /**
+         * Every chunk that gets smaller.
+         */
+        ALWAYS,
+        /**
+         * Decided for every file: the first chunk is compressed as a sample, and the
+         * file is only compressed if the sample got significantly smaller. Files
+         * already compressed (images, video, archives) are sent without compressing.
+         */
+        ADAPTIVE
+    }
+}
@@ -1,14 +1,35 @@
 package model;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
- * The <code>Thread</code> Server where remote nodes will connect to send (to 
- * this node) messages and data. Is only listening for connections; when one arrives, 
- * creates a {@link model.RemoteReceiver RemoteReceiver} <code>Thread</code>, passing 
- * the created <code>Socket</code>.
+ * The <code>Thread</code> Server where remote nodes will connect to send (to
+ * this node) messages and data. Is only listening for connections; when one arrives,
+ * creates a {@link model.RemoteReceiver RemoteReceiver} <code>Thread</code>, passing
+ * the created <code>SocketChannel</code>.
+ * <p>
+ * The connections no longer have a thread each: this thread is an event loop that
+ * waits with a <code>Selector</code> for new connections and incoming messages of
+ * all the connections, in non-blocking mode. Only when a complete {@link
+ * model.Operation Operation} arrives, a connection is given to a worker thread, in
+ * blocking mode, that processes it (with the file data or directory information that
+ * follows, if any); then it comes back to the event loop. So the amount of threads
+ * depends on the messages in progress, not on the amount of connected nodes, and the
+ * event loop never waits for the disk, the core or a full socket buffer. Up to
+ * <code>receive_workers</code> (from the configuration file) messages are
+ * processed at the same time; the connections with more wait for a worker in
+ * arrival order.
  */
 
 public class ConnectionPoint extends Thread {
@@ -22,6 +43,24 @@ public class ConnectionPoint extends Thread {
      */
     private int localPort;
 
+    /**
+     * The selector of the server channel and the connections in non-blocking mode.
+     */
+    private Selector selector;
+
+    /**
+     * The connections the worker threads have given back, to be registered again in
+     * the selector.
+     */
+    private LinkedBlockingQueue<RemoteReceiver> resumed;
+
+    /**
+     * The worker threads, for processing the messages and receiving file data and
+     * directory information. They're created when needed by the core {@link
+     * model.Execution Execution}, up to <code>receive_workers</code>.
+     */
+    private ExecutorService workers;
+
     /**
      * Creates an instance of this thread to manage incoming connections.
      * @param core this system {@link model.CloudCOore core}.
@@ -30,24 +69,126 @@ public class ConnectionPoint extends Thread {
     public ConnectionPoint(CloudCore core, int localPort) {
         this.core = core;
         this.localPort = localPort;
+        resumed = new LinkedBlockingQueue<>();
+        workers = core.getExecution().newWorkers("ConnectionPoint worker", core.getReceiveWorkers());
     }
 
     @Override
     public void run() {
-        ServerSocket serverSocket;
+        ServerSocketChannel serverChannel;
         try {
-            serverSocket = new ServerSocket(localPort);
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(localPort));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            System.out.println("Fatal Error: Cannot listen for connections on port " + localPort);
+            return;
+        }
+
+        while (true) {
+            try {
+                selector.select();
+                ArrayList<SelectionKey> handoffs = new ArrayList<>();
+
+                // The connections given back by the workers may have data already read
+                RemoteReceiver receiver;
+                while ((receiver = resumed.poll()) != null) {
+                    try {
+                        receiver.getChannel().configureBlocking(false);
+                        process(receiver.getChannel().register(selector, SelectionKey.OP_READ, receiver), handoffs);
+                    } catch (ClosedChannelException e) {
+                        // The remote node has gone
+                    }
+                }
 
-            while (true){
-                //This socket will be specifically used to receive data
-                Socket socket = serverSocket.accept();
-                socket.shutdownOutput();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
 
-                // Send socket to RemoteReceiver
-                core.addRemoteReceiver(new RemoteReceiver(core, socket));
+                    if (key.isAcceptable()) {
+                        accept(serverChannel);
+                    }
+                    else if (key.isReadable()) {
+                        receiver = (RemoteReceiver) key.attachment();
+                        try {
+                            if (receiver.read() == -1) throw new ClosedChannelException();
+                        } catch (IOException e) {
+                            close(key);
+                            continue;
+                        }
+                        process(key, handoffs);
+                    }
+                }
+
+                // The channels have to leave the selector before being set in blocking mode
+                if (!handoffs.isEmpty()) {
+                    for (SelectionKey key : handoffs) key.cancel();
+                    selector.selectNow();
+                    for (SelectionKey key : handoffs) {
+                        receiver = (RemoteReceiver) key.attachment();
+                        try {
+                            receiver.getChannel().configureBlocking(true);
+                            workers.execute(receiver);
+                        } catch (IOException e) {
+                            workers.execute(receiver::disconnect);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Error: Connection Point failure: " + e.getMessage());
             }
+        }
+    }
+
+    /**
+     * Gives back a connection whose data was received by a worker thread, so this
+     * thread waits again for its messages.
+     * @param receiver the connection.
+     */
+    public void resume(RemoteReceiver receiver) {
+        resumed.add(receiver);
+        selector.wakeup();
+    }
+
+    /**
+     * Accepts all the pending incoming connections.
+     * @param serverChannel the server channel.
+     * @throws IOException - if there's a problem with the server channel.
+     */
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, new RemoteReceiver(core, this, channel));
+        }
+    }
+
+    /**
+     * Checks if a connection received a complete message.
+     * @param key the selection key of the connection.
+     * @param handoffs the connections that have to be given to a worker thread. The
+     * connection is added if it received a complete message.
+     */
+    private void process(SelectionKey key, ArrayList<SelectionKey> handoffs) {
+        try {
+            if (((RemoteReceiver) key.attachment()).hasMessage()) handoffs.add(key);
         } catch (IOException e) {
-            System.out.println("Error?");
+            close(key);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Closes a connection. The disconnection is notified by a worker thread, because
+     * it can wait for the GUI.
+     * @param key the selection key of the connection.
+     */
+    private void close(SelectionKey key) {
+        key.cancel();
+        workers.execute(((RemoteReceiver) key.attachment())::disconnect);
+    }
+}
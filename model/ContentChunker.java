@@ -0,0 +1,179 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Splits a file in <b>content-defined</b> chunks, used to send only the changed parts
+ * of a file the remote node already has an old version of (see {@link
+ * model.RemoteChannel RemoteChannel}).
+ * <p>
+ * The chunk boundaries are chosen by a rolling (Gear) hash of the content, not by
+ * fixed positions, so inserting or removing bytes in a file only changes the chunks
+ * around the modification: the rest have the same content, and so the same hash, as
+ * in the old version. Chunks are between <code>MIN_SIZE</code> and <code>MAX_SIZE
+ * </code> bytes, about 64 KB on average. Every chunk is identified by the first
+ * <code>HASH_SIZE</code> bytes of its SHA-256.
+ * <p>
+ * Usage: call {@link #next()} until it returns <code>false</code>; after every call,
+ * the current chunk position, length, hash and data can be obtained.
+ */
+
+public class ContentChunker {
+    /**
+     * Minimum and maximum chunk sizes in bytes.
+     */
+    public static final int MIN_SIZE = 16 * 1024, MAX_SIZE = 1024 * 1024;
+
+    /**
+     * Size in bytes of the chunk hashes.
+     */
+    public static final int HASH_SIZE = 16;
+
+    /**
+     * A boundary is found when the rolling hash has these bits at zero, which
+     * happens every 64 KB on average.
+     */
+    private static final long MASK = 0xFFFFL << 48;
+
+    /**
+     * Random values for every byte, for the Gear hash. The seed is fixed, so all the
+     * nodes find the same boundaries.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x4E6574436C6F7564L);
+        for (int i = 0; i < GEAR.length; i++) GEAR[i] = random.nextLong();
+    }
+
+    /**
+     * The file being chunked.
+     */
+    private FileChannel file;
+
+    /**
+     * The size of the file when the chunking started.
+     */
+    private long size;
+
+    /**
+     * The read file data. It contains the file data from <code>windowStart</code>.
+     */
+    private ByteBuffer window;
+
+    /**
+     * The file position of the first byte in <code>window</code>.
+     */
+    private long windowStart;
+
+    /**
+     * The current chunk file position and length.
+     */
+    private long offset;
+    private int length;
+
+    /**
+     * The current chunk hash.
+     */
+    private byte[] hash;
+
+    private MessageDigest digest;
+
+    /**
+     * Creates a chunker for the specified file, starting at its first byte.
+     * @param file the channel of the file to split.
+     * @throws IOException - if there's a problem with the file.
+     */
+    public ContentChunker(FileChannel file) throws IOException {
+        this.file = file;
+        size = file.size();
+        window = ByteBuffer.allocate(4 * MAX_SIZE);
+        window.limit(0);
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Finds the next chunk.
+     * @return <code>true</code> if there was a next chunk, <code>false</code> if the
+     * end of the file was reached.
+     * @throws IOException - if there's a problem with the file.
+     */
+    public boolean next() throws IOException {
+        offset += length;
+        if (offset >= size) return false;
+
+        // The whole chunk has to be in the window
+        int available = (int) Math.min(MAX_SIZE, size - offset);
+        if (offset + available > windowStart + window.limit()) fill();
+
+        byte[] data = window.array();
+        int start = (int) (offset - windowStart);
+        length = available;
+        long fingerprint = 0;
+        for (int i = MIN_SIZE; i < available; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[data[start + i] & 0xFF];
+            if ((fingerprint & MASK) == 0) {
+                length = i + 1;
+                break;
+            }
+        }
+
+        digest.update(data, start, length);
+        hash = Arrays.copyOf(digest.digest(), HASH_SIZE);
+        return true;
+    }
+
+    /**
+     * Reads the file data into the window, from the current chunk position.
+     * @throws IOException - if there's a problem with the file, or it became shorter.
+     */
+    private void fill() throws IOException {
+        window.clear();
+        windowStart = offset;
+        while (window.hasRemaining() && windowStart + window.position() < size) {
+            if (file.read(window, windowStart + window.position()) == -1) throw new IOException("File truncated while chunking");
+        }
+        window.flip();
+    }
+
+    /**
+     * @return the file position of the current chunk.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the length of the current chunk.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the hash of the current chunk.
+     */
+    public byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * @return a read only buffer with the current chunk data.
+     */
+    public ByteBuffer getData() {
+        int start = (int) (offset - windowStart);
+        return ByteBuffer.wrap(window.array(), start, length).slice().asReadOnlyBuffer();
+    }
+}
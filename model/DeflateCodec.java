@@ -0,0 +1,51 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The {@link model.Codec Codec} using the Deflate algorithm (<code>java.util.zip
+ * </code>), at its fastest level, so compressing doesn't slow down the transfers.
+ */
+
+public class DeflateCodec implements Codec {
+    public static final String NAME = "deflate";
+
+    private Deflater deflater;
+    private Inflater inflater;
+
+    public DeflateCodec() {
+        deflater = new Deflater(Deflater.BEST_SPEED, true);
+        inflater = new Inflater(true);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public int compress(ByteBuffer src, byte[] dst) {
+        deflater.reset();
+        deflater.setInput(src);
+        deflater.finish();
+        int length = deflater.deflate(dst);
+        return deflater.finished() ? length : -1;
+    }
+
+    @Override
+    public void decompress(byte[] src, int length, ByteBuffer dst) throws IOException {
+        inflater.reset();
+        inflater.setInput(src, 0, length);
+        try {
+            while (dst.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(dst) == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted compressed data");
+        }
+    }
+}
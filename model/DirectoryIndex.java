@@ -0,0 +1,346 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory index of the files information (name, last modified time and if
+ * it's a directory) of every directory in the <code>systemDirectory root</code>, so
+ * the directory listings for <code>LISTDIR</code> and <code>SEND</code> (directory
+ * information) {@link model.Operation Operations} don't read the disk.
+ * <p>
+ * The index is built in a single walk of the whole tree, with the {@link
+ * model.FileTree FileTree}, when its thread starts. Until then, the listings are
+ * read from the disk. Then it's kept up to date with a <code>WatchService</code>
+ * watching every directory, and also updated right away by the local Operations
+ * and the received files (see {@link #update(Path)}), since the watcher events
+ * arrive a bit later. A directory that can't be watched isn't kept in the index.
+ * <p>
+ * Every indexed directory has a version stamp that changes whenever an entry of the
+ * directory changes, so a node that already has a listing can tell if it's still
+ * the same without getting it again.
+ * <p>
+ * The changes of the entries are passed to the {@link model.ChangeNotifier
+ * ChangeNotifier}, so the subscribed remote nodes know them.
+ */
+
+public class DirectoryIndex implements Runnable {
+    /**
+     * The <code>systemDirectory root</code>.
+     */
+    private Path root;
+
+    /**
+     * Used to walk the tree when the index is built.
+     */
+    private FileTree fileTree;
+
+    /**
+     * Notifies the changes to the subscribed remote nodes.
+     */
+    private ChangeNotifier notifier;
+
+    /**
+     * The watcher of the indexed directories, or <code>null</code> if the file
+     * system doesn't support it (then nothing is kept in the index).
+     */
+    private WatchService watcher;
+
+    /**
+     * The files information of every indexed directory. The key is the root
+     * relative path of the directory (empty for the root), and the value is the
+     * file information string of every entry, by its name. The entries are sorted by
+     * name, so a listing read in pages keeps the same order.
+     */
+    private ConcurrentHashMap<String, ConcurrentSkipListMap<String, String>> dirs;
+
+    /**
+     * The version stamp of every indexed directory.
+     */
+    private ConcurrentHashMap<String, Long> versions;
+
+    /**
+     * The last given version stamp. It starts at the time the index was created, in
+     * microseconds, so the stamps aren't given again after a restart.
+     */
+    private AtomicLong clock;
+
+    /**
+     * The root relative path of the directory of every watch key.
+     */
+    private ConcurrentHashMap<WatchKey, String> keys;
+
+    /**
+     * <code>true</code> when the index has been built.
+     */
+    private volatile boolean ready;
+
+    /**
+     * Mutex for the changes in the index once it's built.
+     */
+    private Semaphore mutex;
+
+    /**
+     * Creates an index (not built yet) of the specified root directory.
+     * @param root the <code>systemDirectory root</code>.
+     * @param fileTree used to walk the tree when the index is built.
+     * @param notifier notifies the changes to the subscribed remote nodes.
+     */
+    public DirectoryIndex(Path root, FileTree fileTree, ChangeNotifier notifier) {
+        this.root = root.toAbsolutePath().normalize();
+        this.fileTree = fileTree;
+        this.notifier = notifier;
+        dirs = new ConcurrentHashMap<>();
+        keys = new ConcurrentHashMap<>();
+        versions = new ConcurrentHashMap<>();
+        clock = new AtomicLong(System.currentTimeMillis() * 1000);
+        mutex = new Semaphore(1, true);
+
+        try {
+            watcher = root.getFileSystem().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            System.out.println("Warning: Cannot watch the directories. Directory listings will be read from the disk.");
+        }
+    }
+
+    /**
+     * Builds the index and then keeps it up to date with the watcher events.
+     */
+    @Override
+    public void run() {
+        if (watcher == null) return;
+
+        index("");
+        ready = true;
+
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            String dir = keys.get(key);
+            mutex.acquireUninterruptibly();
+                if (dir != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Some events were lost: reads the directory again
+                            forget(dir);
+                            index(dir);
+                            notifier.changed(Operation.Change.Kind.MODIFIED, dir);
+                        }
+                        else {
+                            refresh(dir, event.context().toString());
+                        }
+                    }
+
+                    // The directory last modified time changed too
+                    int separator = dir.lastIndexOf('/');
+                    if (!dir.isEmpty()) refresh(separator < 0 ? "" : dir.substring(0, separator), dir.substring(separator + 1));
+                }
+                else {
+                    key.pollEvents();
+                }
+                // The directory was deleted, if it wasn't already forgotten
+                if (!key.reset() && keys.remove(key) != null) forget(dir);
+            mutex.release();
+        }
+    }
+
+    /**
+     * Gets the files information of a directory.
+     * @param path the <code>systemDirectory root</code> relative path of the directory.
+     * @return the information string (filename, last modified time and if it's a
+     * directory, separated by {@link model.Operation#SEPARATOR SEPARATOR}) of every
+     * file in the directory, sorted by name, or <code>null</code> if the directory
+     * doesn't exist.
+     */
+    public ArrayList<String> list(String path) {
+        String dir = PathScheduler.normalize(path);
+        Map<String, String> files = dirs.get(dir);
+        if (files == null) {
+            if (ready) {
+                mutex.acquireUninterruptibly();
+                    if ((files = dirs.get(dir)) == null) files = read(dir, true);
+                mutex.release();
+            }
+            else {
+                files = read(dir, false);
+            }
+        }
+        return files == null ? null : new ArrayList<>(files.values());
+    }
+
+    /**
+     * Gets the version stamp of a directory. It has to be got before the listing, so
+     * a change made meanwhile gives a listing newer than its stamp, never older.
+     * @param path the <code>systemDirectory root</code> relative path of the directory.
+     * @return the version stamp, or 0 if the directory isn't indexed (then its
+     * listing can't be known to be the same).
+     */
+    public long getVersion(String path) {
+        return versions.getOrDefault(PathScheduler.normalize(path), 0L);
+    }
+
+    /**
+     * Updates the information of a file or directory that has just been created,
+     * modified or deleted by this node, without waiting for the watcher event.
+     * @param path the absolute path of the file or directory.
+     */
+    public void update(Path path) {
+        path = path.toAbsolutePath().normalize();
+        if (!ready || !path.startsWith(root) || path.equals(root)) return;
+
+        String relative = root.relativize(path).toString();
+        int separator = Math.max(relative.lastIndexOf('/'), relative.lastIndexOf('\\'));
+        mutex.acquireUninterruptibly();
+            refresh(PathScheduler.normalize(separator < 0 ? "" : relative.substring(0, separator)), relative.substring(separator + 1));
+        mutex.release();
+    }
+
+    /**
+     * Updates the information of an entry of an indexed directory, reading it from
+     * the disk. If it's a new directory, its tree is indexed.
+     * @param dir the root relative path of the directory.
+     * @param name the name of the entry.
+     */
+    private void refresh(String dir, String name) {
+        ConcurrentSkipListMap<String, String> files = dirs.get(dir);
+        if (files == null) return;
+
+        String path = dir.isEmpty() ? name : dir + "/" + name;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(root.resolve(path), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            String info = info(name, attrs);
+            String previous = files.put(name, info);
+            if (!info.equals(previous)) {
+                versions.put(dir, clock.incrementAndGet());
+                notifier.changed(previous == null ? Operation.Change.Kind.CREATED : Operation.Change.Kind.MODIFIED, path);
+            }
+            if (attrs.isDirectory() && !dirs.containsKey(path)) index(path);
+        } catch (IOException e) {
+            // Deleted
+            if (files.remove(name) != null) {
+                versions.put(dir, clock.incrementAndGet());
+                notifier.changed(Operation.Change.Kind.DELETED, path);
+            }
+            if (dirs.containsKey(path)) forget(path);
+        }
+    }
+
+    /**
+     * Adds a directory and all the directories inside it to the index, and watches
+     * them. The directories are added when all of them have been read.
+     * @param dir the root relative path of the directory.
+     */
+    private void index(String dir) {
+        if (!Files.isDirectory(root.resolve(dir), LinkOption.NOFOLLOW_LINKS) || !watch(dir)) return;
+
+        ConcurrentHashMap<String, ConcurrentSkipListMap<String, String>> found = new ConcurrentHashMap<>();
+        found.put(dir, new ConcurrentSkipListMap<>());
+        fileTree.walk(root.resolve(dir), (path, attrs) -> {
+            String relative = PathScheduler.normalize(root.relativize(path).toString());
+            int separator = relative.lastIndexOf('/');
+            ConcurrentSkipListMap<String, String> files = found.get(separator < 0 ? "" : relative.substring(0, separator));
+
+            // The directory of the entry couldn't be watched
+            if (files == null) return;
+
+            String name = path.getFileName().toString();
+            files.put(name, info(name, attrs));
+            if (attrs.isDirectory() && watch(relative)) found.put(relative, new ConcurrentSkipListMap<>());
+        });
+        dirs.putAll(found);
+        for (String path : found.keySet()) versions.put(path, clock.incrementAndGet());
+    }
+
+    /**
+     * Reads the entries of a single directory from the disk.
+     * @param dir the root relative path of the directory.
+     * @param keep <code>true</code> to watch the directory and keep it in the index.
+     * @return the information of the entries by name, or <code>null</code> if the
+     * directory doesn't exist.
+     */
+    private ConcurrentSkipListMap<String, String> read(String dir, boolean keep) {
+        Path path = root.resolve(dir);
+        if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) return null;
+
+        // Watched before reading, so no change is lost
+        keep = keep && watcher != null && watch(dir);
+        ConcurrentSkipListMap<String, String> files = new ConcurrentSkipListMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            for (Path entry : stream) {
+                String name = entry.getFileName().toString();
+                try {
+                    files.put(name, info(name, Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)));
+                } catch (NoSuchFileException e) {
+                    // Deleted meanwhile
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        if (keep) {
+            dirs.put(dir, files);
+            versions.put(dir, clock.incrementAndGet());
+        }
+        return files;
+    }
+
+    /**
+     * Starts watching a directory.
+     * @param dir the root relative path of the directory.
+     * @return <code>true</code> if the directory is watched.
+     */
+    private boolean watch(String dir) {
+        try {
+            keys.put(root.resolve(dir).register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Removes a directory and all the directories inside it from the index, and stops
+     * watching them.
+     * @param dir the root relative path of the directory.
+     */
+    private void forget(String dir) {
+        dirs.keySet().removeIf(path -> path.equals(dir) || path.startsWith(dir + "/") || dir.isEmpty());
+        versions.keySet().removeIf(path -> path.equals(dir) || path.startsWith(dir + "/") || dir.isEmpty());
+        keys.entrySet().removeIf(entry -> {
+            String path = entry.getValue();
+            if (path.equals(dir) || path.startsWith(dir + "/") || dir.isEmpty()) {
+                entry.getKey().cancel();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * @return the information string of a file, as it's listed.
+     */
+    private static String info(String name, BasicFileAttributes attrs) {
+        return name + Operation.SEPARATOR + attrs.lastModifiedTime().toMillis() + Operation.SEPARATOR + attrs.isDirectory();
+    }
+}
@@ -0,0 +1,134 @@
+package model;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads of the system tasks that block on I/O: the {@link
+ * model.RemoteSender RemoteSenders} and their data streams, the workers that
+ * receive the file data and directory information, and the workers of the local
+ * {@link model.Operation Operations}. The kind of threads is chosen
+ * with <code>threads</code> in the configuration file:
+ * <blockquote>
+ * <b>platform</b>: usual (operating system) threads.
+ * <b>virtual</b>: virtual threads, so the amount of nodes and concurrent transfers
+ * isn't limited by the operating system threads. They need Java 21 or newer; with
+ * an older Java version, platform threads are used.
+ * </blockquote>
+ * The tasks code is the same in both modes: it just blocks as usual.
+ */
+
+public class Execution {
+    /**
+     * Time in seconds an idle platform worker thread waits for more work before
+     * ending.
+     */
+    private static final long WORKER_KEEP_ALIVE = 60;
+
+    /**
+     * The kind of threads created.
+     */
+    private Mode mode;
+
+    /**
+     * Factory of virtual threads. <code>null</code> in <code>PLATFORM</code> mode.
+     */
+    private ThreadFactory virtualThreads;
+
+    /**
+     * Creates the threads of the specified kind.
+     * @param mode the kind of threads. If it's <code>VIRTUAL</code> and this Java
+     * version has no virtual threads, it's <code>PLATFORM</code>.
+     */
+    public Execution(Mode mode) {
+        if (mode == Mode.VIRTUAL) {
+            try {
+                // Thread.ofVirtual().factory(), only in Java 21 or newer
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                virtualThreads = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Warning: Virtual threads need Java 21 or newer. Using platform threads.");
+                mode = Mode.PLATFORM;
+            }
+        }
+        this.mode = mode;
+    }
+
+    /**
+     * Starts a task in a new thread. The thread doesn't keep the application running.
+     * @param name the thread name.
+     * @param task the task.
+     * @return the started thread.
+     */
+    public Thread start(String name, Runnable task) {
+        Thread thread = newThread(task);
+        thread.setName(name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Creates an executor that runs every task in a thread, without a limit of
+     * concurrent tasks. In <code>PLATFORM</code> mode the idle threads are reused
+     * for a while; virtual threads are never reused.
+     * @param name the name of the threads.
+     * @return the executor.
+     */
+    public ExecutorService newWorkers(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, mode == Mode.VIRTUAL ? 0 : WORKER_KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<>(), task -> {
+            Thread worker = newThread(task);
+            worker.setName(name + " " + count.incrementAndGet());
+            return worker;
+        });
+    }
+
+    /**
+     * Creates an executor that runs up to an amount of tasks concurrently. The rest
+     * wait in submission order.
+     * @param name the name of the threads.
+     * @param threads the maximum amount of concurrent tasks.
+     * @return the executor.
+     */
+    public ExecutorService newWorkers(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, WORKER_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread worker = newThread(task);
+            worker.setName(name + " " + count.incrementAndGet());
+            return worker;
+        });
+        workers.allowCoreThreadTimeOut(true);
+        return workers;
+    }
+
+    /**
+     * @return the kind of threads created.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Creates a (not started) daemon thread of the configured kind.
+     */
+    private Thread newThread(Runnable task) {
+        if (mode == Mode.VIRTUAL) return virtualThreads.newThread(task);
+
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Kinds of threads.
+     */
+    public enum Mode {
+        PLATFORM,
+        VIRTUAL
+    }
+}
@@ -0,0 +1,215 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+
+/**
+ * Deletes and walks directory trees in parallel, with a <code>ForkJoinPool</code>:
+ * every directory is a task, and directories with many entries are split in several
+ * tasks. Directories are read with a <code>DirectoryStream</code>, and symbolic links
+ * are never followed (a link to a directory is deleted, not its target's content).
+ * <p>
+ * Unlike <code>File.delete()</code>, the result tells how many entries were deleted
+ * and how many couldn't be.
+ */
+
+public class FileTree {
+    /**
+     * Maximum amount of entries of a directory processed by a single task.
+     */
+    private static final int ENTRIES_PER_TASK = 512;
+
+    /**
+     * The threads doing the work.
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * Creates an instance that works with the specified amount of threads.
+     * @param parallelism the amount of threads.
+     */
+    public FileTree(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Deletes a file, or a directory with all its content.
+     * @param path the file or directory.
+     * @return the amount of deleted and failed entries, the path itself included.
+     * Both are 0 if the path doesn't exist.
+     */
+    public Count delete(Path path) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return new Count();
+        }
+
+        Count count = attrs.isDirectory() ? pool.invoke(new Directory(path, true, null)) : new Count();
+        count.add(deleteEntry(path));
+        return count;
+    }
+
+    /**
+     * Visits all the entries inside a directory (not the directory itself), from
+     * several threads at the same time.
+     * @param dir the directory.
+     * @param visitor called for every entry with its path and attributes. It has to
+     * be thread safe.
+     * @return the amount of visited entries, and of the entries that couldn't be read.
+     */
+    public Count walk(Path dir, BiConsumer<Path, BasicFileAttributes> visitor) {
+        return pool.invoke(new Directory(dir, false, visitor));
+    }
+
+    /**
+     * Deletes a single entry.
+     * @param path the entry. If it's a directory, it has to be empty.
+     * @return the count of the deleted or failed entry.
+     */
+    private static Count deleteEntry(Path path) {
+        Count count = new Count();
+        try {
+            Files.delete(path);
+            count.done++;
+        } catch (NoSuchFileException e) {
+            // Already deleted by somebody else
+        } catch (IOException e) {
+            count.failed++;
+        }
+        return count;
+    }
+
+    /**
+     * The task of deleting or visiting the content of a directory, or a part of it.
+     */
+    private static class Directory extends RecursiveTask<Count> {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The directory.
+         */
+        private Path dir;
+
+        /**
+         * <code>true</code> to delete the entries, <code>false</code> to visit them.
+         */
+        private boolean delete;
+
+        private BiConsumer<Path, BasicFileAttributes> visitor;
+
+        /**
+         * The part of the entries of the directory for this task, or <code>null</code>
+         * if the directory hasn't been read yet.
+         */
+        private List<Path> entries;
+
+        private Directory(Path dir, boolean delete, BiConsumer<Path, BasicFileAttributes> visitor) {
+            this.dir = dir;
+            this.delete = delete;
+            this.visitor = visitor;
+        }
+
+        private Directory(Directory parent, List<Path> entries) {
+            this(parent.dir, parent.delete, parent.visitor);
+            this.entries = entries;
+        }
+
+        @Override
+        protected Count compute() {
+            Count count = new Count();
+            if (entries == null) {
+                entries = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                    for (Path entry : stream) entries.add(entry);
+                } catch (IOException e) {
+                    count.failed++;
+                    return count;
+                }
+            }
+
+            // Big directories are split
+            ArrayList<RecursiveTask<Count>> subtasks = new ArrayList<>();
+            List<Path> own = entries;
+            if (entries.size() > ENTRIES_PER_TASK) {
+                own = entries.subList(0, ENTRIES_PER_TASK);
+                for (int i = ENTRIES_PER_TASK; i < entries.size(); i += ENTRIES_PER_TASK) {
+                    subtasks.add(new Directory(this, entries.subList(i, Math.min(i + ENTRIES_PER_TASK, entries.size()))));
+                }
+            }
+
+            ArrayList<Path> dirs = new ArrayList<>();
+            for (Path entry : own) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    continue;
+                } catch (IOException e) {
+                    count.failed++;
+                    continue;
+                }
+
+                if (attrs.isDirectory()) {
+                    subtasks.add(new Directory(entry, delete, visitor));
+                    dirs.add(entry);
+                }
+                if (!delete) {
+                    visitor.accept(entry, attrs);
+                    count.done++;
+                }
+                else if (!attrs.isDirectory()) {
+                    count.add(deleteEntry(entry));
+                }
+            }
+
+            invokeAll(subtasks);
+            for (RecursiveTask<Count> subtask : subtasks) count.add(subtask.join());
+
+            // The subdirectories are deleted once they're empty
+            if (delete) {
+                for (Path subdir : dirs) count.add(deleteEntry(subdir));
+            }
+            return count;
+        }
+    }
+
+    /**
+     * The result of a deletion or a walk: the amount of entries deleted or visited,
+     * and the amount of entries that failed.
+     */
+    public static class Count {
+        private long done;
+        private long failed;
+
+        private void add(Count count) {
+            done += count.done;
+            failed += count.failed;
+        }
+
+        /**
+         * @return the amount of entries deleted or visited.
+         */
+        public long getDone() {
+            return done;
+        }
+
+        /**
+         * @return the amount of entries that couldn't be deleted or read.
+         */
+        public long getFailed() {
+            return failed;
+        }
+    }
+}
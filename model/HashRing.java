@@ -0,0 +1,79 @@
+package model;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A consistent hashing ring of the remote nodes, used by the {@link
+ * model.Replication Replication} to choose where a file is sent from its name. Every
+ * node has <code>virtual_nodes</code> (from the configuration file) points in the
+ * ring, and a file goes to the nodes of the first points after the hash of its name.
+ * <p>
+ * The points of a node only depend on its name, so adding or removing a node only
+ * moves the files of its points, and the virtual nodes spread the files evenly.
+ */
+
+public class HashRing {
+    /**
+     * The node of every point, by its position in the ring.
+     */
+    private TreeMap<Long, String> ring;
+
+    /**
+     * Amount of different nodes in the ring.
+     */
+    private int size;
+
+    /**
+     * Creates the ring of the specified nodes.
+     * @param nodes the names of the nodes.
+     * @param virtualNodes the amount of points of every node.
+     */
+    public HashRing(List<String> nodes, int virtualNodes) {
+        ring = new TreeMap<>();
+        for (String node : nodes) {
+            for (int i = 0; i < Math.max(virtualNodes, 1); i++) ring.put(hash(node + "#" + i), node);
+        }
+        size = (int) nodes.stream().distinct().count();
+    }
+
+    /**
+     * Gets the nodes of a file, in the order of the ring.
+     * @param key the name of the file.
+     * @return every node once, starting by the one of the first point after the
+     * hash of the name.
+     */
+    public ArrayList<String> nodes(String key) {
+        ArrayList<String> nodes = new ArrayList<>();
+        if (ring.isEmpty()) return nodes;
+
+        long position = hash(key);
+        for (Map<Long, String> part : List.of(ring.tailMap(position, true), ring.headMap(position, false))) {
+            for (String node : part.values()) {
+                if (!nodes.contains(node)) nodes.add(node);
+                if (nodes.size() == size) return nodes;
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the position in the ring of a string: the first 8 bytes of its MD5.
+     */
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long position = 0;
+            for (int i = 0; i < 8; i++) position = (position << 8) | (digest[i] & 0xFF);
+            return position;
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+
+/**
+ * The directory listings received from the remote nodes, so going back to a remote
+ * directory doesn't request it again. A listing is used as it is for <code>
+ * listing_ttl</code> seconds (from the configuration file); after that, it's
+ * requested with its version stamp, so if the directory didn't change, the remote
+ * node only replies it wasn't modified.
+ * <p>
+ * The cache keeps up to <code>listing_cache</code> files (from the configuration
+ * file) in total; when there are more, the least recently used listings are removed.
+ * The listings of a remote node are removed when it disconnects, and the listings of
+ * a directory when this node changes it (see {@link #invalidate(String, String)}) or
+ * the remote node notifies it changed.
+ */
+
+public class ListingCache {
+    /**
+     * The listings, by node and directory, from the least to the most recently used.
+     */
+    private LinkedHashMap<String, Listing> listings;
+
+    /**
+     * Maximum amount of files of all the listings.
+     */
+    private int maxFiles;
+
+    /**
+     * Amount of files of all the listings.
+     */
+    private int files;
+
+    /**
+     * Time in milliseconds a listing is used without asking the remote node.
+     */
+    private long ttl;
+
+    /**
+     * Mutex for the listings.
+     */
+    private Semaphore mutex;
+
+    /**
+     * Creates an empty cache.
+     * @param maxFiles maximum amount of files of all the listings.
+     * @param ttl time in milliseconds a listing is used without asking the remote node.
+     */
+    public ListingCache(int maxFiles, long ttl) {
+        this.maxFiles = maxFiles;
+        this.ttl = ttl;
+        listings = new LinkedHashMap<>(16, 0.75f, true);
+        mutex = new Semaphore(1, true);
+    }
+
+    /**
+     * Gets the listing of a directory.
+     * @param node the node of the directory.
+     * @param path the path of the directory.
+     * @return a copy of the listing, or <code>null</code> if it isn't cached.
+     */
+    public Listing get(String node, String path) {
+        Listing copy = null;
+        mutex.acquireUninterruptibly();
+            Listing listing = listings.get(key(node, path));
+            if (listing != null) copy = new Listing(listing);
+        mutex.release();
+        return copy;
+    }
+
+    /**
+     * Adds a part of the listing of a directory, as it's received. The first part
+     * replaces the cached listing; the next ones are added to it if they are the
+     * continuation of the same version.
+     * @param node the node of the directory.
+     * @param path the path of the directory.
+     * @param part the information string of the files.
+     * @param offset the position of the first file of the part in the directory.
+     * @param total the amount of files in the directory.
+     * @param version the version stamp of the directory, 0 if unknown.
+     */
+    public void put(String node, String path, ArrayList<String> part, int offset, int total, long version) {
+        String key = key(node, path);
+        mutex.acquireUninterruptibly();
+            Listing listing = listings.get(key);
+            if (offset == 0) {
+                remove(key);
+                listing = new Listing(node, PathScheduler.normalize(path), version, total);
+                listings.put(key, listing);
+            }
+            else if (listing == null || listing.version != version || listing.files.size() != offset) {
+                // Can't be joined to the cached part
+                remove(key);
+                listing = null;
+            }
+
+            if (listing != null) {
+                listing.files.addAll(part);
+                listing.total = total;
+                listing.time = System.currentTimeMillis();
+                files += part.size();
+                evict();
+            }
+        mutex.release();
+    }
+
+    /**
+     * Renews the time of a cached listing, when the remote node replied the directory
+     * wasn't modified.
+     * @param node the node of the directory.
+     * @param path the path of the directory.
+     * @param version the version stamp of the directory.
+     * @return a copy of the listing, or <code>null</code> if it isn't cached with that
+     * version stamp.
+     */
+    public Listing renew(String node, String path, long version) {
+        Listing copy = null;
+        mutex.acquireUninterruptibly();
+            Listing listing = listings.get(key(node, path));
+            if (listing != null && listing.version == version) {
+                listing.time = System.currentTimeMillis();
+                copy = new Listing(listing);
+            }
+        mutex.release();
+        return copy;
+    }
+
+    /**
+     * Removes the listings of a directory that changed: the listing of the directory
+     * itself, of the directories inside it and of its parent directory.
+     * @param node the node of the directory.
+     * @param path the path of the directory.
+     */
+    public void invalidate(String node, String path) {
+        String dir = PathScheduler.normalize(path);
+        int separator = dir.lastIndexOf('/');
+        String parent = separator < 0 ? "" : dir.substring(0, separator);
+
+        mutex.acquireUninterruptibly();
+            removeIf(listing -> listing.node.equals(node)
+                    && (dir.isEmpty() || listing.path.equals(dir) || listing.path.startsWith(dir + "/") || listing.path.equals(parent)));
+        mutex.release();
+    }
+
+    /**
+     * Removes the listings a change of a file or directory affects: the listing of
+     * its parent directory, and its own listing if it's a directory.
+     * @param node the node of the file or directory.
+     * @param path the path of the file or directory.
+     */
+    public void invalidateEntry(String node, String path) {
+        String entry = PathScheduler.normalize(path);
+        int separator = entry.lastIndexOf('/');
+
+        mutex.acquireUninterruptibly();
+            remove(key(node, entry));
+            if (!entry.isEmpty()) remove(key(node, separator < 0 ? "" : entry.substring(0, separator)));
+        mutex.release();
+    }
+
+    /**
+     * Removes all the listings of a node.
+     * @param node the node.
+     */
+    public void invalidate(String node) {
+        mutex.acquireUninterruptibly();
+            removeIf(listing -> listing.node.equals(node));
+        mutex.release();
+    }
+
+    /**
+     * Removes the least recently used listings until the amount of files is within
+     * the limit. The mutex has to be acquired.
+     */
+    private void evict() {
+        Iterator<Listing> iterator = listings.values().iterator();
+        while (files > maxFiles && iterator.hasNext()) {
+            files -= iterator.next().files.size();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes a listing. The mutex has to be acquired.
+     */
+    private void remove(String key) {
+        Listing listing = listings.remove(key);
+        if (listing != null) files -= listing.files.size();
+    }
+
+    /**
+     * Removes the listings that match a condition. The mutex has to be acquired.
+     */
+    private void removeIf(Predicate<Listing> condition) {
+        Iterator<Map.Entry<String, Listing>> iterator = listings.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Listing listing = iterator.next().getValue();
+            if (condition.test(listing)) {
+                files -= listing.files.size();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the key of the listing of a directory.
+     */
+    private static String key(String node, String path) {
+        return node + "\0" + PathScheduler.normalize(path);
+    }
+
+    /**
+     * The cached listing of a directory: the files received, in order, from the
+     * first one.
+     */
+    public class Listing {
+        private String node;
+        private String path;
+        private long version;
+        private int total;
+        private ArrayList<String> files;
+
+        /**
+         * When it was received or renewed, in milliseconds.
+         */
+        private long time;
+
+        private Listing(String node, String path, long version, int total) {
+            this.node = node;
+            this.path = path;
+            this.version = version;
+            this.total = total;
+            files = new ArrayList<>();
+        }
+
+        private Listing(Listing listing) {
+            this(listing.node, listing.path, listing.version, listing.total);
+            files.addAll(listing.files);
+            time = listing.time;
+        }
+
+        /**
+         * @return the information string of the received files.
+         */
+        public ArrayList<String> getFiles() {
+            return files;
+        }
+
+        /**
+         * @return the amount of files in the directory.
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return the version stamp of the directory, 0 if unknown.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return <code>true</code> if the listing can be used without asking the
+         * remote node.
+         */
+        public boolean isFresh() {
+            return System.currentTimeMillis() - time < ttl;
+        }
+    }
+}
@@ -1,5 +1,12 @@
 package model;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
 /**
  * Class that represents a "System Operation" (see documentation). The operations are
  * the instructions for interact with the user and remote nodes. A "local operation"
@@ -13,7 +20,9 @@ package model;
  * <b>Send file,
  * <b>Delete file or directory,
  * <b>Create directory,
- * <b>List directory content
+ * <b>List directory content,
+ * <b>Notify file changes,
+ * <b>Ping
  * </blockquote>
  * For more information see documentation/System Operations
  * <p>
@@ -21,55 +30,320 @@ package model;
  * CONFIRM</code> and <code>FAIL</code> Operation Types, as <code>Status</code> enum
  * are no longer needed due to the elimination of Operation replies.
  * The <code>msg</code> field has been renamed to <code>param</code>.
- * 
+ * <p>
+ * The <code>param</code> field has been replaced by the typed fields <code>source
+ * </code>, <code>target</code>, <code>path</code> and <code>mode</code>, so the
+ * parameters are no longer joined and split with a separator. An Operation is
+ * encoded in binary form (see {@link #encode()}) both in the {@link model.Queue
+ * Operation Queues} and when it's sent to a remote node, so paths can contain any
+ * character.
+ * <p>
+ * A <code>LISTDIR</code>, or a <code>TRANSFER</code> or <code>SEND</code> of
+ * directory information, can ask for a single page of the listing with <code>offset
+ * </code> and <code>limit</code>, and tell the <code>version</code> stamp of the
+ * listing it already has (see {@link model.DirectoryIndex#getVersion(String)}), so
+ * the listing isn't sent again if the directory didn't change.
+ * <p>
+ * A <code>NOTIFY</code> carries the {@link Change changes} of the files of the
+ * source node to a node subscribed to them. Without changes, it subscribes the
+ * source node to the changes of the target node.
+ * <p>
+ * A <code>PING</code> is answered right away by the target node, so the source node
+ * measures the round trip time of the connection. It's never queued.
+ * <p>
+ * The Operations sent through a connection are numbered with their <code>sequence
+ * </code>, and the reply to a <code>PING</code> tells the last one received, so the
+ * {@link model.RemoteSender RemoteSender} knows which ones arrived.
  */
 
 public class Operation {
+    /**
+     * Separator of the fields in the file information strings of a directory
+     * listing (filename, last modified time and if it's a directory).
+     */
+    public static final String SEPARATOR = ":";
+
+    /**
+     * Flags marking which optional fields are present in the encoded Operation.
+     */
+    private static final int HAS_SOURCE = 1, HAS_TARGET = 2, HAS_PATH = 4, HAS_MODE = 8, HAS_PAGE = 16, HAS_VERSION = 32, HAS_CHANGES = 64, HAS_SEQUENCE = 128;
+
+    /**
+     * Maximum size in bytes of an encoded Operation, as the length of a frame is
+     * written in two bytes. It's also the maximum amount of changes.
+     */
+    public static final int MAX_LENGTH = 0xFFFF;
+
     /**
      * The type of the operation.
      */
     private Type type;
 
     /**
-     * Additional message, if needed by the type of the operation. For example the
-     * nodes involved. In other words, the Operation parameters.
+     * The node where the data comes from: the node that sends the file or
+     * directory information in <code>SEND</code> and <code>TRANSFER</code>
+     * Operations. <code>null</code> in other types.
      */
-    private String param;
+    private String source;
 
-    public static final String SEPARATOR = ":";
+    /**
+     * The node where the Operation takes effect: the receiver of the data in
+     * <code>SEND</code> and <code>TRANSFER</code> Operations, or the node
+     * where the path is in other types.
+     */
+    private String target;
+
+    /**
+     * The <code>systemDirectory root</code> relative path of the file or directory.
+     */
+    private String path;
+
+    /**
+     * What is sent in <code>SEND</code> and <code>TRANSFER</code> Operations.
+     * <code>null</code> in other types.
+     */
+    private Mode mode;
 
-    public static final String SEND_DATA = "data";
-    public static final String SEND_INFO = "info";
+    /**
+     * The position of the first directory entry to list.
+     */
+    private int offset;
+
+    /**
+     * The maximum amount of directory entries to list. 0 for all of them.
+     */
+    private int limit;
+
+    /**
+     * The version stamp of the directory listing the requester already has. 0 if it
+     * has none.
+     */
+    private long version;
 
     /**
-     * Constructs an instance of Operation specifing all atributes separately
-     * @param local this local node name.
-     * @param remote remote node name. "local" in case of local operations.
-     * @param counter operation serial number.
+     * The changes of the files notified by a <code>NOTIFY</code> Operation. Empty for
+     * a subscription, <code>null</code> in the other Operations.
+     */
+    private ArrayList<Change> changes;
+
+    /**
+     * The number of this Operation in the connection it's sent through. 0 if it
+     * isn't numbered.
+     */
+    private long sequence;
+
+    /**
+     * Constructs a <code>SEND</code> or <code>TRANSFER</code> Operation.
+     * @param type the type of the operation.
+     * @param source the node that sends the data.
+     * @param target the node that receives the data.
+     * @param path the path of the file or directory to send.
+     * @param mode what is sent: the file data or the directory information.
+     */
+    public Operation(Type type, String source, String target, String path, Mode mode) {
+        this(type, source, target, path, mode, 0, 0);
+    }
+
+    /**
+     * Constructs an Operation that lists a page of a directory: a <code>LISTDIR
+     * </code>, or a <code>SEND</code> or <code>TRANSFER</code> of directory
+     * information.
+     * @param type the type of the operation.
+     * @param source the node that sends the directory information (<code>null</code>
+     * in <code>LISTDIR</code>).
+     * @param target the node that receives the directory information, or where the
+     * directory is in <code>LISTDIR</code>.
+     * @param path the path of the directory.
+     * @param mode <code>INFO</code> (<code>null</code> in <code>LISTDIR</code>).
+     * @param offset the position of the first entry to list.
+     * @param limit the maximum amount of entries to list, 0 for all of them.
+     */
+    public Operation(Type type, String source, String target, String path, Mode mode, int offset, int limit) {
+        this(type, source, target, path, mode, offset, limit, 0);
+    }
+
+    /**
+     * Constructs an Operation that lists a page of a directory only if it changed
+     * since the requester got the listing with the specified version stamp.
      * @param type the type of the operation.
-     * @param param the additional information.
-     * @param status the current status.
+     * @param source the node that sends the directory information (<code>null</code>
+     * in <code>LISTDIR</code>).
+     * @param target the node that receives the directory information, or where the
+     * directory is in <code>LISTDIR</code>.
+     * @param path the path of the directory.
+     * @param mode <code>INFO</code> (<code>null</code> in <code>LISTDIR</code>).
+     * @param offset the position of the first entry to list.
+     * @param limit the maximum amount of entries to list, 0 for all of them.
+     * @param version the version stamp of the listing the requester has, 0 if none.
      */
-    public Operation(Type type, String param) {
+    public Operation(Type type, String source, String target, String path, Mode mode, int offset, int limit, long version) {
         this.type = type;
-        this.param = param;
+        this.source = source;
+        this.target = target;
+        this.path = path;
+        this.mode = mode;
+        this.offset = offset;
+        this.limit = limit;
+        this.version = version;
     }
 
     /**
-     * Constructs an instance of Operation specifing all atributes as a comma separated
-     * values.
-     * @param csv the string that represents this operation. This string is structured
-     * as overrided <code>{@link #toString()}</code> method does.
+     * Constructs a <code>DELETE</code>, <code>MKDIR</code> or <code>LISTDIR</code>
+     * Operation.
+     * @param type the type of the operation.
+     * @param target the node where the path is.
+     * @param path the path of the file or directory.
+     */
+    public Operation(Type type, String target, String path) {
+        this(type, null, target, path, null);
+    }
+
+    /**
+     * Constructs a <code>NOTIFY</code> Operation.
+     * @param source the node whose files changed, or the subscribing node.
+     * @param target the subscribed node, or the node to subscribe to.
+     * @param changes the changes of the files. Empty to subscribe.
+     */
+    public Operation(String source, String target, ArrayList<Change> changes) {
+        this(Type.NOTIFY, source, target, null, null);
+        this.changes = changes;
+    }
+
+    /**
+     * Constructs an instance of Operation from the old text form, where the type and
+     * the parameters were comma separated, and the parameters were separated by
+     * <code>SEPARATOR</code>. Only needed to read old queue files.
+     * @param csv the old text form of the Operation.
+     */
+    public static Operation parseLegacy(String csv) {
+        String[] parts = csv.split(",", 2);
+        Type type = Type.valueOf(parts[0]);
+        String[] param = parts[1].split(SEPARATOR);
+
+        switch (type) {
+            case SEND:
+                return new Operation(type, null, param[0], param[1], Mode.valueOf(param[2].toUpperCase()));
+            case TRANSFER:
+                return new Operation(type, param[0], param[1], param[2], Mode.valueOf(param[3].toUpperCase()));
+            case LISTDIR:
+                return new Operation(type, null, param[0]);
+            default:
+                return new Operation(type, param[0], param[1]);
+        }
+    }
+
+    /**
+     * Encodes this Operation in its binary form: the type, a byte of flags marking
+     * the present fields, and then the present fields. Without a sequence, room is
+     * left for the one set when it's sent, so a queued Operation can always be sent.
+     * @return the encoded Operation.
+     * @throws IOException - if the Operation is longer than <code>MAX_LENGTH</code>
+     * bytes, or has more than <code>MAX_LENGTH</code> changes.
      */
-    public Operation(String csv) {
-        String[] parts = csv.split(",");
-        type = Type.valueOf(parts[0]);
-        param = parts[1];
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        boolean paged = offset != 0 || limit != 0;
+        int flags = (source != null ? HAS_SOURCE : 0) | (target != null ? HAS_TARGET : 0)
+                  | (path != null ? HAS_PATH : 0) | (mode != null ? HAS_MODE : 0) | (paged ? HAS_PAGE : 0)
+                  | (version != 0 ? HAS_VERSION : 0) | (changes != null ? HAS_CHANGES : 0) | (sequence != 0 ? HAS_SEQUENCE : 0);
+
+        out.writeByte(type.ordinal());
+        out.writeByte(flags);
+        if (source != null) out.writeUTF(source);
+        if (target != null) out.writeUTF(target);
+        if (path != null) out.writeUTF(path);
+        if (mode != null) out.writeByte(mode.ordinal());
+        if (paged) {
+            out.writeInt(offset);
+            out.writeInt(limit);
+        }
+        if (version != 0) out.writeLong(version);
+        if (changes != null) {
+            if (changes.size() > MAX_LENGTH) throw new IOException("Too many changes in " + this);
+            out.writeShort(changes.size());
+            for (Change change : changes) {
+                out.writeByte(change.kind.ordinal());
+                out.writeUTF(change.path);
+            }
+        }
+        if (sequence != 0) out.writeLong(sequence);
+
+        if (bytes.size() + (sequence == 0 ? 8 : 0) > MAX_LENGTH) throw new IOException("Operation too long: " + this);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes an Operation from its binary form.
+     * @param data the encoded Operation, as {@link #encode()} generates it.
+     * @return the decoded Operation.
+     * @throws IOException - if the data isn't a valid encoded Operation.
+     */
+    public static Operation decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            Type type = Type.values()[in.readUnsignedByte()];
+            int flags = in.readUnsignedByte();
+            String source = (flags & HAS_SOURCE) != 0 ? in.readUTF() : null;
+            String target = (flags & HAS_TARGET) != 0 ? in.readUTF() : null;
+            String path = (flags & HAS_PATH) != 0 ? in.readUTF() : null;
+            Mode mode = (flags & HAS_MODE) != 0 ? Mode.values()[in.readUnsignedByte()] : null;
+            int offset = (flags & HAS_PAGE) != 0 ? in.readInt() : 0;
+            int limit = (flags & HAS_PAGE) != 0 ? in.readInt() : 0;
+            long version = (flags & HAS_VERSION) != 0 ? in.readLong() : 0;
+            Operation op = new Operation(type, source, target, path, mode, offset, limit, version);
+            if ((flags & HAS_CHANGES) != 0) {
+                int count = in.readUnsignedShort();
+                op.changes = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) op.changes.add(new Change(Change.Kind.values()[in.readUnsignedByte()], in.readUTF()));
+            }
+            if ((flags & HAS_SEQUENCE) != 0) op.sequence = in.readLong();
+            return op;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Invalid encoded Operation");
+        }
+    }
+
+    /**
+     * Writes this Operation to a stream, as a length-prefixed frame.
+     * @param out the stream where the Operation is written.
+     * @throws IOException - if there's a problem with the stream, or the Operation
+     * is too long.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        byte[] data = encode();
+        out.writeShort(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Reads an Operation from a stream, written as {@link #write(DataOutputStream)}
+     * does.
+     * @param in the stream where the Operation is read from.
+     * @return the read Operation.
+     * @throws IOException - if there's a problem with the stream, or the data isn't
+     * a valid encoded Operation.
+     */
+    public static Operation read(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readUnsignedShort()];
+        in.readFully(data);
+        return decode(data);
     }
 
     @Override
     public String toString() {
-        return type + "," + param;
+        return type + "[" + (source != null ? source + " -> " : "") + target + ", " + path + (mode != null ? ", " + mode : "")
+                + (offset != 0 || limit != 0 ? ", " + offset + "+" + limit : "") + (version != 0 ? ", v" + version : "")
+                + (changes != null ? ", " + changes.size() + " changes" : "") + "]";
+    }
+
+    /**
+     * @return the node this Operation has to be passed to: the node that has the
+     * data in <code>TRANSFER</code> Operations, and the <code>{@link #target}</code>
+     * node in other types.
+     */
+    public String getNode() {
+        return type == Type.TRANSFER ? source : target;
     }
 
     /**
@@ -80,10 +354,74 @@ public class Operation {
     }
 
     /**
-     * @return this Operation instance's <code>{@link #param}</code>.
+     * @return this Operation instance's <code>{@link #source}</code>.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return this Operation instance's <code>{@link #target}</code>.
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * @return this Operation instance's <code>{@link #path}</code>.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return this Operation instance's <code>{@link #mode}</code>.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return this Operation instance's <code>{@link #offset}</code>.
      */
-    public String getParam() {
-        return param;
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return this Operation instance's <code>{@link #limit}</code>.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return this Operation instance's <code>{@link #version}</code>.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return this Operation instance's <code>{@link #changes}</code>.
+     */
+    public ArrayList<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return this Operation instance's <code>{@link #sequence}</code>.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Numbers this Operation before sending it through a connection.
+     * @param sequence the number of the Operation in the connection.
+     */
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
     }
 
     /**
@@ -94,6 +432,64 @@ public class Operation {
         SEND,
         DELETE,
         MKDIR,
-        LISTDIR
+        LISTDIR,
+        NOTIFY,
+        PING
+    }
+
+    /**
+     * What is sent by a <code>SEND</code> or <code>TRANSFER</code> Operation.
+     */
+    public enum Mode {
+        /**
+         * The file data.
+         */
+        DATA,
+        /**
+         * The directory content information.
+         */
+        INFO
+    }
+
+    /**
+     * A change of a file or directory, notified by a <code>NOTIFY</code> Operation.
+     */
+    public static class Change {
+        private Kind kind;
+        private String path;
+
+        /**
+         * @param kind what happened to the file or directory.
+         * @param path the <code>systemDirectory root</code> relative path of the file
+         * or directory.
+         */
+        public Change(Kind kind, String path) {
+            this.kind = kind;
+            this.path = path;
+        }
+
+        /**
+         * @return what happened to the file or directory.
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the <code>systemDirectory root</code> relative path of the file or
+         * directory.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Kinds of changes.
+         */
+        public enum Kind {
+            CREATED,
+            DELETED,
+            MODIFIED
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,81 @@
+package model;
+
+import java.util.HashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A set of mutexes, one for every path currently in use. Threads working with the
+ * same path are excluded, while threads working with different paths continue
+ * concurrently. The mutex of a path only exists while some thread is using or
+ * waiting for it.
+ */
+
+public class PathLocks {
+    /**
+     * The mutexes of the paths in use. The key is the path.
+     */
+    private HashMap<String, Lock> locks;
+
+    /**
+     * Mutex for the <code>locks</code> map.
+     */
+    private Semaphore mutex;
+
+    public PathLocks() {
+        locks = new HashMap<>();
+        mutex = new Semaphore(1, true);
+    }
+
+    /**
+     * Waits until no other thread is using the specified path, and then takes it.
+     * @param path the path to use.
+     * @throws InterruptedException - if the thread gets interrumpted while waiting.
+     */
+    public void acquire(String path) throws InterruptedException {
+        Lock lock;
+        mutex.acquire();
+            lock = locks.get(path);
+            if (lock == null) locks.put(path, lock = new Lock());
+            lock.users++;
+        mutex.release();
+
+        try {
+            lock.sem.acquire();
+        } catch (InterruptedException e) {
+            leave(path, lock);
+            throw e;
+        }
+    }
+
+    /**
+     * Leaves the specified path, previously taken with {@link #acquire(String)}.
+     * @param path the path in use.
+     */
+    public void release(String path) {
+        Lock lock;
+        mutex.acquireUninterruptibly();
+            lock = locks.get(path);
+        mutex.release();
+
+        lock.sem.release();
+        leave(path, lock);
+    }
+
+    /**
+     * Removes a thread from the users of a path mutex, and removes the mutex when
+     * it has no users.
+     */
+    private void leave(String path, Lock lock) {
+        mutex.acquireUninterruptibly();
+            if (--lock.users == 0) locks.remove(path);
+        mutex.release();
+    }
+
+    /**
+     * The mutex of a path, and the count of threads using or waiting for it.
+     */
+    private static class Lock {
+        private Semaphore sem = new Semaphore(1, true);
+        private int users;
+    }
+}
@@ -0,0 +1,144 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs tasks that work with a path of the file system in worker threads, keeping the
+ * order only among the tasks whose paths are related: a task waits for the tasks
+ * submitted before it with the same path, a parent directory of its path or a path
+ * inside it. Tasks with unrelated paths run concurrently.
+ * <p>
+ * For example, a <code>DELETE</code> of <code>a/b</code> waits for a previous
+ * <code>MKDIR</code> of <code>a/b/c</code> and makes a following <code>LISTDIR
+ * </code> of <code>a</code> wait, but doesn't delay a <code>LISTDIR</code> of <code>
+ * d</code>.
+ */
+
+public class PathScheduler {
+    /**
+     * The worker threads running the tasks.
+     */
+    private ExecutorService workers;
+
+    /**
+     * The submitted tasks that haven't finished, in submission order.
+     */
+    private LinkedList<Task> active;
+
+    /**
+     * Mutex for the <code>active</code> tasks list.
+     */
+    private Semaphore mutex;
+
+    /**
+     * Creates a scheduler that runs the tasks in the specified workers.
+     * @param workers the worker threads.
+     */
+    public PathScheduler(ExecutorService workers) {
+        this.workers = workers;
+        active = new LinkedList<>();
+        mutex = new Semaphore(1, true);
+    }
+
+    /**
+     * Submits a task. It runs when all the tasks submitted before it with related
+     * paths have finished.
+     * @param path the <code>systemDirectory root</code> relative path the task works
+     * with.
+     * @param runnable the task.
+     */
+    public void submit(String path, Runnable runnable) {
+        Task task = new Task(normalize(path), runnable);
+        boolean ready;
+
+        mutex.acquireUninterruptibly();
+            for (Task previous : active) {
+                if (related(previous.path, task.path)) {
+                    previous.followers.add(task);
+                    task.pending++;
+                }
+            }
+            active.add(task);
+            ready = task.pending == 0;
+        mutex.release();
+
+        if (ready) workers.execute(task);
+    }
+
+    /**
+     * Removes a finished task, and runs the tasks that were only waiting for it.
+     * @param task the finished task.
+     */
+    private void finish(Task task) {
+        ArrayList<Task> ready = new ArrayList<>();
+
+        mutex.acquireUninterruptibly();
+            active.remove(task);
+            for (Task follower : task.followers) {
+                if (--follower.pending == 0) ready.add(follower);
+            }
+        mutex.release();
+
+        for (Task follower : ready) workers.execute(follower);
+    }
+
+    /**
+     * Converts a path to a form that can be compared: without <code>"."</code>
+     * elements, repeated separators or a separator at the end.
+     * @param path the path.
+     * @return the normalized path. Empty for the root directory.
+     */
+    static String normalize(String path) {
+        StringBuilder normalized = new StringBuilder();
+        for (String element : (path == null ? "" : path.replace('\\', '/')).split("/")) {
+            if (element.isEmpty() || element.equals(".")) continue;
+            if (normalized.length() > 0) normalized.append('/');
+            normalized.append(element);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * @return <code>true</code> if the normalized paths are the same, or one of them
+     * is inside the other.
+     */
+    private static boolean related(String a, String b) {
+        if (a.length() > b.length()) return related(b, a);
+        return a.isEmpty() || b.equals(a) || b.startsWith(a) && b.charAt(a.length()) == '/';
+    }
+
+    /**
+     * A submitted task, with the tasks that have to wait for it.
+     */
+    private class Task implements Runnable {
+        private String path;
+        private Runnable runnable;
+
+        /**
+         * The tasks submitted after this one with related paths.
+         */
+        private ArrayList<Task> followers = new ArrayList<>();
+
+        /**
+         * The amount of tasks this one is waiting for.
+         */
+        private int pending;
+
+        private Task(String path, Runnable runnable) {
+            this.path = path;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            try {
+                runnable.run();
+            } finally {
+                finish(this);
+            }
+        }
+    }
+}
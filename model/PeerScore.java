@@ -0,0 +1,157 @@
+package model;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * The rolling measures of the connection with a remote node, used to choose which
+ * replica a file is requested to (see {@link model.ReadRouter ReadRouter}):
+ * <blockquote>
+ * <b>Round trip time</b>: from the <code>PING</code> {@link model.Operation
+ * Operations} and the connection handshakes.
+ * <b>Throughput</b>: from the files sent to and received from the remote node.
+ * <b>Fetch time</b>: from the files requested to the remote node, from the request
+ * until the file is received, with its deviation.
+ * </blockquote>
+ * Every measure is an exponentially weighted moving average, so the recent samples
+ * count the most and a node that gets slower loses its place soon.
+ */
+
+public class PeerScore {
+    /**
+     * Weight of a new sample in the averages.
+     */
+    private static final double ALPHA = 0.2;
+
+    /**
+     * Minimum size in bytes of a transferred file to be a throughput sample. The time
+     * of smaller ones is mostly the round trip time.
+     */
+    private static final long MIN_TRANSFER_SAMPLE = 256 * 1024;
+
+    /**
+     * Average round trip time, in nanoseconds. 0 if there are no samples.
+     */
+    private double rtt;
+
+    /**
+     * Average throughput, in bytes per second. 0 if there are no samples.
+     */
+    private double throughput;
+
+    /**
+     * Average fetch time and its mean deviation, in nanoseconds. 0 if there are no
+     * samples.
+     */
+    private double fetch, fetchDeviation;
+
+    /**
+     * Mutex for the measures.
+     */
+    private Semaphore mutex;
+
+    /**
+     * Creates the score of a remote node without samples.
+     */
+    public PeerScore() {
+        mutex = new Semaphore(1, true);
+    }
+
+    /**
+     * Adds a round trip time sample.
+     * @param nanos the round trip time, in nanoseconds.
+     */
+    public void rtt(long nanos) {
+        mutex.acquireUninterruptibly();
+            rtt = average(rtt, nanos);
+        mutex.release();
+    }
+
+    /**
+     * Adds a throughput sample, if the transfer was big enough.
+     * @param bytes the amount of transferred bytes.
+     * @param nanos the time the transfer took, in nanoseconds.
+     */
+    public void transfer(long bytes, long nanos) {
+        if (bytes < MIN_TRANSFER_SAMPLE || nanos <= 0) return;
+
+        mutex.acquireUninterruptibly();
+            throughput = average(throughput, bytes * 1e9 / nanos);
+        mutex.release();
+    }
+
+    /**
+     * Adds a fetch time sample.
+     * @param nanos the time from the request until the file was received, in
+     * nanoseconds.
+     */
+    public void fetch(long nanos) {
+        mutex.acquireUninterruptibly();
+            if (fetch == 0) {
+                fetch = nanos;
+                fetchDeviation = nanos / 2.0;
+            }
+            else {
+                fetchDeviation = (1 - ALPHA) * fetchDeviation + ALPHA * Math.abs(nanos - fetch);
+                fetch = (1 - ALPHA) * fetch + ALPHA * nanos;
+            }
+        mutex.release();
+    }
+
+    /**
+     * Estimates the time to get a file from the remote node: the round trip time and
+     * the time to transfer its data. A node without samples costs the most.
+     * @param bytes the size of the file.
+     * @return the estimated time, in nanoseconds.
+     */
+    public double cost(long bytes) {
+        double cost;
+        mutex.acquireUninterruptibly();
+            if (rtt == 0 && throughput == 0) cost = Double.MAX_VALUE;
+            else cost = rtt + (throughput > 0 ? bytes * 1e9 / throughput : 0);
+        mutex.release();
+        return cost;
+    }
+
+    /**
+     * Gets how long a request can take before a second one is worth sending to
+     * another replica: the average fetch time plus four times its deviation, so only
+     * the slowest requests are repeated.
+     * @param fallback the time to use when there are no fetch samples, in
+     * milliseconds.
+     * @return the time, in milliseconds.
+     */
+    public long hedgeDelay(long fallback) {
+        long delay;
+        mutex.acquireUninterruptibly();
+            delay = fetch == 0 ? fallback : (long) ((fetch + 4 * fetchDeviation) / 1e6);
+        mutex.release();
+        return Math.max(delay, 1);
+    }
+
+    /**
+     * @return the average round trip time, in nanoseconds. 0 if there are no samples.
+     */
+    public long getRtt() {
+        mutex.acquireUninterruptibly();
+            long value = (long) rtt;
+        mutex.release();
+        return value;
+    }
+
+    /**
+     * @return the average throughput, in bytes per second. 0 if there are no samples.
+     */
+    public long getThroughput() {
+        mutex.acquireUninterruptibly();
+            long value = (long) throughput;
+        mutex.release();
+        return value;
+    }
+
+    /**
+     * @return the new value of an average with a sample.
+     */
+    private static double average(double current, double sample) {
+        return current == 0 ? sample : (1 - ALPHA) * current + ALPHA * sample;
+    }
+}
@@ -1,7 +1,17 @@
 package model;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 /**
  * Class that represents the resource of an "Operation Queue".
@@ -14,19 +24,57 @@ import java.util.concurrent.Semaphore;
  * <p>
  * <b>Katsushika/2020/06/11:</b> <code>changeStatus()</code> method is no longer needed
  * due to the elimination of Operation replies.
+ * <p>
+ * The queue is stored as an append-only log split in <b>segment</b> files
+ * (<code>&lt;path&gt;-&lt;number&gt;.seg</code>). Every Operation is appended as a
+ * length-prefixed record at the end of the last segment, and a separate <b>head</b>
+ * file (<code>&lt;path&gt;.head</code>) keeps the segment and offset of the next
+ * Operation to be obtained. Neither adding nor obtaining an Operation rewrites the
+ * queue, and the segments that were completely consumed are deleted in background.
+ * <p>
+ * The log is only a journal: the pending Operations are also kept in memory, so
+ * they're obtained without reading the files. The log is read only once, when the
+ * queue is opened, to recover the Operations that were pending when the system
+ * stopped. As in the Producer/Consumer problem, a second <code>Semaphore</code>
+ * counts the pending Operations, so consumers can wait for the next one with
+ * {@link #take()} instead of checking the queue periodically.
+ * <p>
+ * Adding is done by <b>group commit</b>: the Operations added at the same time by
+ * different threads are written to the log together, by the first of them, and the
+ * other ones only wait for that write. How safe a written Operation is depends on
+ * the queue {@link Durability}. Every record carries its CRC32, so a record that was
+ * only partially written when the system stopped is discarded when the log is read,
+ * and a record damaged later in an older segment is skipped.
+ * <p>
+ * A Subordinated queue can also {@link #deliver(long, TimeUnit) deliver} its
+ * Operations without removing them: the head only moves after them when they're
+ * {@link #acknowledge(int) acknowledged}, so the ones the remote node didn't get
+ * are still in the log if the system stops, and they can be {@link #rewind()
+ * delivered again} if the connection is lost. The Operations of a queue are either
+ * delivered or obtained, never both.
  */
 
 public class Queue {
     /**
-     * The absolute path to where is located the queue this instance represents.
+     * Maximum size in bytes of a segment file. When the last segment reaches this
+     * size, a new one is started.
      */
-    private String path;
+    private static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Size in bytes of the header of every record: the record length and its CRC32.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Background thread deleting the fully consumed segments of every queue.
+     */
+    private static Compactor compactor;
 
     /**
-     * A {@link model.FileHandler FileHandler} instance for reading and writing to
-     * the queue file.
+     * The absolute path to where is located the queue this instance represents.
      */
-    private FileHandler file;
+    private String path;
 
     /**
      * The <code>Semaphore</code> to coordinate the process accessing the same queue.
@@ -36,77 +84,620 @@ public class Queue {
     private Semaphore sem;
 
     /**
-     * Creates a new {@link model.Operation Operation} queue.
+     * The <code>Semaphore</code> counting the Operations in the queue. Consumers
+     * acquire a permit before obtaining an Operation, and every added Operation
+     * releases one.
+     */
+    private Semaphore items;
+
+    /**
+     * The pending Operations, in the same order they are in the log.
+     */
+    private ArrayDeque<Entry> pending;
+
+    /**
+     * The delivered Operations not acknowledged yet, in the same order they are in
+     * the log. They're before the pending ones.
+     */
+    private ArrayDeque<Entry> delivered;
+
+    /**
+     * The added Operations not written to the log yet. They're written together by
+     * the next thread that commits.
+     */
+    private ArrayList<Entry> staged;
+
+    /**
+     * The <code>Semaphore</code> allowing only one thread at time to write the
+     * staged Operations to the log.
+     */
+    private Semaphore commit;
+
+    /**
+     * Count of Operations added, and count of the ones already written to the log.
+     */
+    private long appended, committed;
+
+    /**
+     * When the written Operations are forced to the storage device.
+     */
+    private Durability durability;
+
+    /**
+     * The file where the head position (segment and offset) is persisted.
+     */
+    private RandomAccessFile head;
+
+    /**
+     * Segment number and offset of the next record to read.
+     */
+    private long headSegment, headOffset;
+
+    /**
+     * Segment number and size of the last segment, where records are appended.
+     */
+    private long tailSegment, tailOffset;
+
+    /**
+     * Open channel of the last segment.
+     */
+    private FileChannel writer;
+
+    /**
+     * Creates a new {@link model.Operation Operation} queue, with {@link
+     * Durability#BATCH BATCH} durability.
      * @param path the location of the queue file.
      */
     public Queue(String path) {
+        this(path, Durability.BATCH);
+    }
+
+    /**
+     * Creates a new {@link model.Operation Operation} queue.
+     * @param path the location of the queue file.
+     * @param durability when the added Operations are forced to the storage device.
+     */
+    public Queue(String path, Durability durability) {
         this.path = path;
-        file = new FileHandler();
+        this.durability = durability;
         sem = new Semaphore(1, true);
+        items = new Semaphore(0, true);
+        commit = new Semaphore(1, true);
+        pending = new ArrayDeque<>();
+        delivered = new ArrayDeque<>();
+        staged = new ArrayList<>();
     }
 
     /**
-     * Obtains the next {@link model.Operation Operation} in the secuence of the queue.
+     * Obtains the next {@link model.Operation Operation} in the secuence of the queue,
+     * without waiting.
      * @return the {@link model.Operation Operation} at the start of the queue, or
-     * <code>null</code> if the queue file doesn't exists, or there's no more Operations.
+     * <code>null</code> if there's no more Operations.
      * @throws InterruptedException - if the thread accessing the resource gets
      * interrumpted.
-     * @throws IOException - if there's a problem with the queue file.
+     * @throws IOException - if there's a problem with the queue files.
      */
     public Operation getNext() throws InterruptedException, IOException {
-        // Block access
-        sem.acquire();
-            // If the queue doesn't exist or is empty
-            if (!file.open(path, "r")) {
-                sem.release();
-                return null;
-            };
+        open();
+        if (!items.tryAcquire()) return null;
+        return remove();
+    }
 
-            String aux = file.readline();
-            if (aux == null || aux.isEmpty()) {
-                sem.release();
-                return null;
-            }
+    /**
+     * Obtains the next {@link model.Operation Operation} in the secuence of the queue,
+     * waiting until there's one.
+     * @return the {@link model.Operation Operation} at the start of the queue.
+     * @throws InterruptedException - if the thread gets interrumpted while waiting.
+     * @throws IOException - if there's a problem with the queue files.
+     */
+    public Operation take() throws InterruptedException, IOException {
+        open();
+        items.acquire();
+        return remove();
+    }
 
-            // Otherwise, the queue exists and has Operations
-            Operation next = new Operation(aux);
+    /**
+     * Obtains the next {@link model.Operation Operation} in the secuence of the queue,
+     * waiting up to the specified time until there's one.
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the <code>timeout</code> argument.
+     * @return the {@link model.Operation Operation} at the start of the queue, or
+     * <code>null</code> if the time elapsed before there was one.
+     * @throws InterruptedException - if the thread gets interrumpted while waiting.
+     * @throws IOException - if there's a problem with the queue files.
+     */
+    public Operation poll(long timeout, TimeUnit unit) throws InterruptedException, IOException {
+        open();
+        if (!items.tryAcquire(timeout, unit)) return null;
+        return remove();
+    }
 
-            // The returned Operation is deleted from the queue
-            String surplus = file.read();
-            file.close();
+    /**
+     * Obtains the next {@link model.Operation Operation} in the secuence of the queue,
+     * waiting up to the specified time until there's one, but keeps it in the log
+     * until it's {@link #acknowledge(int) acknowledged}.
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the <code>timeout</code> argument.
+     * @return the {@link model.Operation Operation} after the last delivered one, or
+     * <code>null</code> if the time elapsed before there was one.
+     * @throws InterruptedException - if the thread gets interrumpted while waiting.
+     * @throws IOException - if there's a problem with the queue files.
+     */
+    public Operation deliver(long timeout, TimeUnit unit) throws InterruptedException, IOException {
+        open();
+        if (!items.tryAcquire(timeout, unit)) return null;
 
-            file.open(path, "w");
-            file.write(surplus);
-            file.close();
+        sem.acquireUninterruptibly();
+            Entry next = pending.remove();
+            delivered.add(next);
         sem.release();
+        return next.op;
+    }
+
+    /**
+     * Removes the first delivered {@link model.Operation Operations}, and moves the
+     * head of the log after them.
+     * @param count the amount of Operations to remove, in delivery order.
+     * @throws IOException - if there's a problem with the head file.
+     */
+    public void acknowledge(int count) throws IOException {
+        if (count <= 0) return;
+
+        sem.acquireUninterruptibly();
+        try {
+            Entry last = null;
+            for (int i = 0; i < count && !delivered.isEmpty(); i++) last = delivered.remove();
+            if (last != null) moveHead(last);
+        } finally {
+            sem.release();
+        }
+    }
 
-        return next;
+    /**
+     * Puts back the delivered {@link model.Operation Operations} not acknowledged,
+     * so they're delivered again, in the same order.
+     */
+    public void rewind() {
+        int count;
+        sem.acquireUninterruptibly();
+            count = delivered.size();
+            while (!delivered.isEmpty()) pending.addFirst(delivered.removeLast());
+        sem.release();
+        items.release(count);
     }
 
     /**
-     * Appends the specified {@link model.Operation Operation} at the end of the 
-     * queue file. If the file doesn't exist yet, then it's first created, and 
-     * then the operation added.
+     * Appends the specified {@link model.Operation Operation} at the end of the
+     * queue. If the queue files don't exist yet, then they're first created, and
+     * then the operation added. When this method returns, the Operation is written
+     * to the log as the queue {@link Durability} establishes.
      * @param op the {@link model.Operation Operation} instance to be appended.
      * @throws InterruptedException - if the thread accessing the resource gets
      * interrumpted.
-     * @throws IOException - if there's a problem with the queue file.
+     * @throws IOException - if there's a problem with the queue files.
      */
     public void add(Operation op) throws InterruptedException, IOException {
+        open();
+
+        Entry entry = new Entry(op, op.encode());
+        long ticket;
+
         // Block access
         sem.acquire();
-            // If the queue exists and has other Operations
-            StringBuilder content = new StringBuilder();
-            if (file.open(path, "r")) {
-                content.append(file.read());
-                file.close();
+        try {
+            staged.add(entry);
+            ticket = ++appended;
+        } finally {
+            sem.release();
+        }
+
+        commit(ticket);
+    }
+
+    /**
+     * Writes to the log all the staged Operations, unless the one with the specified
+     * ticket was already written by another thread while this one was waiting.
+     * @param ticket the number of the Operation that has to be written.
+     * @throws InterruptedException - if the thread accessing the resource gets
+     * interrumpted.
+     * @throws IOException - if there's a problem with the queue files.
+     */
+    private void commit(long ticket) throws InterruptedException, IOException {
+        commit.acquire();
+        try {
+            if (committed >= ticket) return;
+
+            // Takes all the Operations staged until now
+            ArrayList<Entry> batch;
+            long last;
+            sem.acquireUninterruptibly();
+                batch = staged;
+                last = appended;
+                staged = new ArrayList<>();
+            sem.release();
+
+            try {
+                write(batch);
+            } catch (IOException e) {
+                // They're staged again, so the next thread will retry
+                sem.acquireUninterruptibly();
+                    batch.addAll(staged);
+                    staged = batch;
+                sem.release();
+                throw e;
             }
 
-            // Then, add new Operation to the end
-            content.append(op.toString());
-            file.open(path, "w");
-            file.write(content.toString());
+            sem.acquireUninterruptibly();
+                pending.addAll(batch);
+                committed = last;
+            sem.release();
+            items.release(batch.size());
+        } finally {
+            commit.release();
+        }
+    }
+
+    /**
+     * Removes the first pending {@link model.Operation Operation} and moves the
+     * head of the log after it. The caller must already hold an
+     * <code>items</code> permit.
+     * @return the removed {@link model.Operation Operation}.
+     * @throws InterruptedException - if the thread accessing the resource gets
+     * interrumpted.
+     * @throws IOException - if there's a problem with the head file.
+     */
+    private Operation remove() throws InterruptedException, IOException {
+        // Block access
+        sem.acquireUninterruptibly();
+        try {
+            Entry next = pending.remove();
+            moveHead(next);
+            return next.op;
+        } finally {
+            sem.release();
+        }
+    }
+
+    /**
+     * Moves the head of the log after the specified entry, and compacts the segments
+     * left behind. The <code>sem</code> has to be acquired.
+     * @param entry the last obtained entry.
+     * @throws IOException - if there's a problem with the head file.
+     */
+    private void moveHead(Entry entry) throws IOException {
+        // The segments left behind were fully consumed
+        long consumed = headSegment;
+        headSegment = entry.segment;
+        headOffset = entry.end;
+        saveHead();
+        for (; consumed < headSegment; consumed++) compact(segmentFile(consumed));
+    }
+
+    /**
+     * Opens the queue files the first time the queue is accessed. Recovers the head
+     * position and the pending Operations from the log, and migrates the Operations
+     * of an old text queue file, if there's one.
+     * @throws InterruptedException - if the thread accessing the resource gets
+     * interrumpted.
+     * @throws IOException - if there's a problem with the queue files.
+     */
+    private void open() throws InterruptedException, IOException {
+        // Block access
+        sem.acquire();
+        try {
+            if (head != null) return;
+
+            head = new RandomAccessFile(path + ".head", "rw");
+            if (head.length() >= 16) {
+                headSegment = head.readLong();
+                headOffset = head.readLong();
+            }
+            else {
+                headSegment = 1;
+                headOffset = 0;
+            }
+
+            // Reads the pending records of every segment, up to the last one
+            tailSegment = headSegment;
+            tailOffset = headOffset;
+            while (true) {
+                File segment = segmentFile(tailSegment);
+                boolean sealed = segmentFile(tailSegment + 1).exists();
+                if (segment.exists()) {
+                    writer = FileChannel.open(segment.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    tailOffset = replay(writer, tailSegment, tailOffset, sealed);
+                }
+                if (!sealed) break;
+                if (writer != null) writer.close();
+                tailSegment++;
+                tailOffset = 0;
+            }
+            if (writer == null) writer = FileChannel.open(segmentFile(tailSegment).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // A record can be left incomplete if the system stopped while writing it
+            writer.truncate(tailOffset);
+
+            migrate();
+            items.release(pending.size());
+        } finally {
+            sem.release();
+        }
+    }
+
+    /**
+     * Adds to the pending Operations all the complete and valid records of a segment.
+     * In the last segment, an invalid record is one the system was writing when it
+     * stopped, so it ends the log. A segment followed by another one was completely
+     * written, so an invalid record there was damaged afterwards: it's skipped up to
+     * the next valid record, and the rest of the segment is still read.
+     * @param channel the segment channel.
+     * @param segment the segment number.
+     * @param offset the position of the first record to read.
+     * @param sealed <code>true</code> if it isn't the last segment.
+     * @return the position after the last complete record.
+     * @throws IOException - if there's a problem with the segment file.
+     */
+    private long replay(FileChannel channel, long segment, long offset, boolean sealed) throws IOException {
+        while (true) {
+            byte[] record = readRecord(channel, offset);
+            if (record == null) {
+                if (!sealed || offset >= channel.size()) break;
+
+                // Finds the next valid record
+                long next = offset + 1;
+                while (next < channel.size() && (record = readRecord(channel, next)) == null) next++;
+                System.out.println("Error: Queue segment " + segmentFile(segment) + " damaged, "
+                        + (next - offset) + " bytes skipped at byte " + offset);
+                offset = next;
+                if (record == null) break;
+            }
+
+            offset += HEADER_SIZE + record.length;
+            Entry entry = new Entry(Operation.decode(record), null);
+            entry.segment = segment;
+            entry.end = offset;
+            pending.add(entry);
+        }
+        return offset;
+    }
+
+    /**
+     * Reads a record of a segment.
+     * @param channel the segment channel.
+     * @param offset the position of the record.
+     * @return the record data, or <code>null</code> if there isn't a complete record
+     * with a matching CRC32 at that position.
+     * @throws IOException - if there's a problem with the segment file.
+     */
+    private static byte[] readRecord(FileChannel channel, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(channel, header, offset)) return null;
+        int size = header.getInt(0);
+        if (size <= 0 || offset + HEADER_SIZE + size > channel.size()) return null;
+
+        ByteBuffer record = ByteBuffer.allocate(size);
+        readFully(channel, record, offset + HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(record.array());
+        if ((int) crc.getValue() != header.getInt(4)) return null;
+        return record.array();
+    }
+
+    /**
+     * Appends the content of an old text queue file (one Operation per line) to
+     * the log, and removes it.
+     * @throws IOException - if there's a problem with the queue files.
+     */
+    private void migrate() throws IOException {
+        File old = new File(path);
+        if (!old.isFile()) return;
+
+        ArrayList<Entry> batch = new ArrayList<>();
+        FileHandler file = new FileHandler();
+        if (file.open(path, "r")) {
+            String line;
+            while ((line = file.readline()) != null) {
+                if (line.isEmpty()) continue;
+                Operation op = Operation.parseLegacy(line);
+                batch.add(new Entry(op, op.encode()));
+            }
             file.close();
-        sem.release();
+        }
+        write(batch);
+        pending.addAll(batch);
+        old.delete();
+    }
+
+    /**
+     * Writes the records of the specified entries at the end of the log, starting a
+     * new segment when the last one is full, and forces them to the storage device
+     * as the queue {@link Durability} establishes. The position of every entry
+     * record is set.
+     * @param batch the entries to write.
+     * @throws IOException - if there's a problem with the queue files.
+     */
+    private void write(ArrayList<Entry> batch) throws IOException {
+        int size = 0;
+        for (Entry entry : batch) size += HEADER_SIZE + entry.record.length;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        long firstSegment = tailSegment, firstOffset = tailOffset;
+
+        try {
+            for (Entry entry : batch) {
+                if (tailOffset + buffer.position() >= SEGMENT_SIZE) {
+                    flush(buffer);
+                    writer.close();
+                    tailSegment++;
+                    tailOffset = 0;
+                    writer = FileChannel.open(segmentFile(tailSegment).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+
+                crc.reset();
+                crc.update(entry.record);
+                buffer.putInt(entry.record.length).putInt((int) crc.getValue()).put(entry.record);
+                entry.segment = tailSegment;
+                entry.end = tailOffset + buffer.position();
+
+                if (durability == Durability.ALWAYS) {
+                    flush(buffer);
+                    writer.force(false);
+                }
+            }
+
+            flush(buffer);
+            if (durability == Durability.BATCH) writer.force(false);
+        } catch (IOException e) {
+            discard(firstSegment, firstOffset);
+            throw e;
+        }
+
+        // The records are kept until then, so a failed batch can be written again
+        for (Entry entry : batch) entry.record = null;
+    }
+
+    /**
+     * Removes from the log the part of a batch written before a failure, so the log
+     * ends where it ended before the batch, and the batch can be written again
+     * without repeating any record. If the last segment can't be opened again, it's
+     * tried again on the next write, which fails until then.
+     * @param segment the last segment before the batch.
+     * @param offset the size of that segment before the batch.
+     */
+    private void discard(long segment, long offset) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // It's opened again
+        }
+        for (long number = tailSegment; number > segment; number--) segmentFile(number).delete();
+        tailSegment = segment;
+        tailOffset = offset;
+
+        try {
+            writer = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writer.truncate(offset);
+        } catch (IOException e) {
+            System.out.println("Error: Cannot open the queue segment " + segmentFile(segment));
+        }
+    }
+
+    /**
+     * Writes the buffer content at the end of the last segment, and clears it.
+     * @param buffer the buffer to write.
+     * @throws IOException - if there's a problem with the segment file.
+     */
+    private void flush(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) tailOffset += writer.write(buffer, tailOffset);
+        buffer.clear();
+    }
+
+    /**
+     * Persists the current head position.
+     * @throws IOException - if there's a problem with the head file.
+     */
+    private void saveHead() throws IOException {
+        head.seek(0);
+        head.writeLong(headSegment);
+        head.writeLong(headOffset);
+        if (durability == Durability.ALWAYS) head.getFD().sync();
+    }
+
+    /**
+     * Fills the buffer with the channel content from the specified position.
+     * @return <code>true</code> if the buffer was filled, <code>false</code> if the
+     * end of the file was reached before.
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count == -1) return false;
+            position += count;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * @param number the segment number.
+     * @return the segment file with the specified number.
+     */
+    private File segmentFile(long number) {
+        return new File(String.format("%s-%010d.seg", path, number));
+    }
+
+    /**
+     * Passes a fully consumed segment to the background {@link Compactor}.
+     * @param segment the segment file to delete.
+     */
+    private static synchronized void compact(File segment) {
+        if (compactor == null) {
+            compactor = new Compactor();
+            compactor.start();
+        }
+        compactor.segments.add(segment);
+    }
+
+    /**
+     * Queue durability modes. They establish when the written Operations are forced
+     * to the storage device, and so which ones can be lost if the whole computer
+     * stops (if only the system stops, the operating system still writes them).
+     */
+    public enum Durability {
+        /**
+         * The log is never forced. Operations written in the last seconds can be lost.
+         */
+        NONE,
+        /**
+         * The log is forced once per group of Operations added at the same time. No
+         * Operation is lost once {@link Queue#add(Operation) add()} returns.
+         */
+        BATCH,
+        /**
+         * The log is forced after every Operation, and the head after every
+         * Operation obtained, so an obtained Operation is never obtained again.
+         */
+        ALWAYS
+    }
+
+    /**
+     * A pending {@link model.Operation Operation} and the position right after its
+     * record, where the head moves when it's obtained.
+     */
+    private static class Entry {
+        private Operation op;
+        private byte[] record;
+        private long segment, end;
+
+        public Entry(Operation op, byte[] record) {
+            this.op = op;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Background <code>Thread</code> that deletes the segments every queue has
+     * already consumed, so obtaining Operations never waits for the file system.
+     */
+    private static class Compactor extends Thread {
+        /**
+         * Segments waiting to be deleted.
+         */
+        private LinkedBlockingQueue<File> segments = new LinkedBlockingQueue<>();
+
+        public Compactor() {
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    segments.take().delete();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
     }
-}
\ No newline at end of file
+}
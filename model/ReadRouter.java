@@ -0,0 +1,287 @@
+package model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses which node a file is requested to. A <code>TRANSFER</code> of a file the
+ * {@link model.Replication Replication} knows the replicas of is requested to the
+ * connected replica with the best {@link model.PeerScore PeerScore}: the one
+ * expected to send it the soonest.
+ * <p>
+ * With <code>hedging</code> (from the configuration file), a file requested to this
+ * node that takes longer than usual to arrive (more than the average fetch time of
+ * the chosen replica plus four times its deviation, or <code>hedge_delay</code>
+ * milliseconds while there are no samples) is requested to the next best replica
+ * too, and the first one that arrives is used. If the other replica didn't start
+ * sending its copy yet, the copy is dropped when it starts: this node tells it the
+ * file is already complete, so no data is sent. A copy that was already being sent
+ * is received anyway, and replaces the first one with the same content.
+ */
+
+public class ReadRouter implements Runnable {
+    /**
+     * Size in bytes of the file used to compare the replicas, since the size of the
+     * requested file isn't known.
+     */
+    private static final long REFERENCE_SIZE = 1024 * 1024;
+
+    /**
+     * Maximum amount of requested files waiting to arrive. The oldest ones are
+     * forgotten, in case they never arrive.
+     */
+    private static final int MAX_PENDING_READS = 1024;
+
+    /**
+     * This system {@link model.CloudCore core}.
+     */
+    private CloudCore core;
+
+    /**
+     * <code>true</code> if the slow requests are repeated to another replica.
+     */
+    private boolean hedging;
+
+    /**
+     * Time in milliseconds a request waits before being repeated, while the chosen
+     * replica has no fetch time samples.
+     */
+    private long hedgeDelay;
+
+    /**
+     * The requested files waiting to arrive, by path.
+     */
+    private LinkedHashMap<String, Read> reads;
+
+    /**
+     * The copies of the repeated requests that aren't needed anymore, as the
+     * replica name and the file name, because the other copy already arrived.
+     */
+    private LinkedHashSet<String> late;
+
+    /**
+     * The requests waiting to be repeated, by when they are.
+     */
+    private DelayQueue<Read> hedges;
+
+    /**
+     * Mutex for the requested files.
+     */
+    private Semaphore mutex;
+
+    /**
+     * Creates the router of the file requests.
+     * @param core this system {@link model.CloudCore core}.
+     * @param hedging <code>true</code> to repeat the slow requests to another replica.
+     * @param hedgeDelay time in milliseconds a request waits before being repeated,
+     * while the chosen replica has no fetch time samples.
+     */
+    public ReadRouter(CloudCore core, boolean hedging, long hedgeDelay) {
+        this.core = core;
+        this.hedging = hedging;
+        this.hedgeDelay = hedgeDelay;
+        reads = new LinkedHashMap<>();
+        late = new LinkedHashSet<>();
+        hedges = new DelayQueue<>();
+        mutex = new Semaphore(1, true);
+    }
+
+    /**
+     * Chooses the node a file is requested to.
+     * @param op the <code>TRANSFER</code> {@link model.Operation Operation} of file
+     * data.
+     * @return the Operation to do. It's the same one if the requested file isn't a
+     * replica in its node, or there isn't a better one.
+     */
+    public Operation route(Operation op) {
+        // The requested node goes first, so it's kept if the others aren't better
+        ArrayList<String> candidates = new ArrayList<>();
+        candidates.add(op.getSource());
+        ArrayList<String> replicas = core.getReplication().getReplicas(op.getPath());
+        if (replicas.contains(op.getSource())) {
+            for (String replica : replicas) {
+                if (!replica.equals(op.getSource())) candidates.add(replica);
+            }
+        }
+
+        ArrayList<String> ranked = new ArrayList<>();
+        for (String replica : candidates) {
+            RemoteSender sender = core.getRemoteSender(replica);
+            // The target already has it
+            if (sender != null && sender.isConnected() && !replica.equals(op.getTarget())) ranked.add(replica);
+        }
+        if (ranked.isEmpty()) return op;
+        ranked.sort(Comparator.comparingDouble(replica -> core.getRemoteSender(replica).getScore().cost(REFERENCE_SIZE)));
+
+        String best = ranked.get(0);
+        if (op.getTarget().equals(core.getNodeName())) {
+            long delay = core.getRemoteSender(best).getScore().hedgeDelay(hedgeDelay);
+            Read read = new Read(op.getPath(), best, new ArrayList<>(ranked.subList(1, ranked.size())), delay);
+
+            mutex.acquireUninterruptibly();
+                Read previous = reads.put(read.key, read);
+                if (previous != null) hedges.remove(previous);
+                if (hedging && !read.alternates.isEmpty()) hedges.add(read);
+
+                if (reads.size() > MAX_PENDING_READS) {
+                    Iterator<Read> oldest = reads.values().iterator();
+                    hedges.remove(oldest.next());
+                    oldest.remove();
+                }
+            mutex.release();
+        }
+
+        if (best.equals(op.getSource())) return op;
+        return new Operation(Operation.Type.TRANSFER, best, op.getTarget(), op.getPath(), Operation.Mode.DATA);
+    }
+
+    /**
+     * Completes the oldest request of a file with the received name to the node that
+     * sent it. The time it took is a fetch time sample of the node. If the request
+     * was repeated, the copy of the other replica isn't needed anymore.
+     * @param node the remote node that sent the file.
+     * @param filename the name of the file.
+     */
+    public void received(String node, String filename) {
+        Read read = null;
+        mutex.acquireUninterruptibly();
+            // The late copy, if it was already being sent
+            late.remove(node + "/" + filename);
+
+            for (Read pending : reads.values()) {
+                if (pending.name.equals(filename) && (node.equals(pending.node) || node.equals(pending.hedge))) {
+                    read = pending;
+                    break;
+                }
+            }
+            if (read != null) {
+                reads.remove(read.key);
+                hedges.remove(read);
+                if (read.hedge != null) {
+                    late.add((node.equals(read.node) ? read.hedge : read.node) + "/" + filename);
+                    if (late.size() > MAX_PENDING_READS) {
+                        Iterator<String> oldest = late.iterator();
+                        oldest.next();
+                        oldest.remove();
+                    }
+                }
+            }
+        mutex.release();
+
+        if (read == null) return;
+        PeerScore score = core.getPeerScore(node);
+        if (score != null) score.fetch(System.nanoTime() - (node.equals(read.node) ? read.start : read.hedged));
+    }
+
+    /**
+     * Tells if a file a remote node starts sending is the copy of a repeated request
+     * whose other copy already arrived. Then it's forgotten, as it's dropped.
+     * @param node the remote node.
+     * @param filename the name of the file.
+     * @return <code>true</code> if the file isn't needed.
+     */
+    public boolean isLate(String node, String filename) {
+        mutex.acquireUninterruptibly();
+            boolean dropped = late.remove(node + "/" + filename);
+        mutex.release();
+        return dropped;
+    }
+
+    /**
+     * Repeats the requests that took too long to another replica.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            Read read;
+            try {
+                read = hedges.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            String alternate = null;
+            mutex.acquireUninterruptibly();
+                if (reads.get(read.key) == read && read.hedge == null) {
+                    for (String replica : read.alternates) {
+                        RemoteSender sender = core.getRemoteSender(replica);
+                        if (sender != null && sender.isConnected()) {
+                            alternate = replica;
+                            break;
+                        }
+                    }
+                    read.hedge = alternate;
+                    read.hedged = System.nanoTime();
+                }
+            mutex.release();
+
+            if (alternate != null) {
+                core.getRemoteSender(alternate).addOperation(new Operation(Operation.Type.TRANSFER, alternate, core.getNodeName(), read.path, Operation.Mode.DATA));
+            }
+        }
+    }
+
+    /**
+     * A file requested to this node, waiting to arrive.
+     */
+    private static class Read implements Delayed {
+        private String path;
+        private String name;
+
+        /**
+         * The normalized path, identifying the request.
+         */
+        private String key;
+
+        /**
+         * The replica it was requested to, and when.
+         */
+        private String node;
+        private long start;
+
+        /**
+         * The next best replicas.
+         */
+        private ArrayList<String> alternates;
+
+        /**
+         * When the request is repeated, in <code>System.nanoTime()</code>.
+         */
+        private long deadline;
+
+        /**
+         * The replica the request was repeated to, and when. <code>null</code> if it
+         * wasn't.
+         */
+        private String hedge;
+        private long hedged;
+
+        private Read(String path, String node, ArrayList<String> alternates, long delay) {
+            this.path = path;
+            this.node = node;
+            this.alternates = alternates;
+            name = new File(path).getName();
+            key = PathScheduler.normalize(path);
+            start = System.nanoTime();
+            deadline = start + TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadline, ((Read) other).deadline);
+        }
+    }
+}
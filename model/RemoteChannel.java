@@ -0,0 +1,476 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * A connection to a remote node {@link model.ConnectionPoint ConnectionPoint}, used
+ * by the {@link model.RemoteSender RemoteSender} threads to send {@link
+ * model.Operation Operations} and their data. Every remote node has one
+ * <code>CONTROL</code> channel, for the small Operations and directory information,
+ * and can have several <code>DATA</code> channels for the file data, so sending a
+ * big file doesn't delay the other Operations.
+ * <p>
+ * When connected, the channel sends this node name and its role, so the remote
+ * {@link model.RemoteReceiver RemoteReceiver} knows who is sending and what kind
+ * of channel it is.
+ * <p>
+ * File data is sent in chunks of <code>CHUNK_SIZE</code> bytes, each one followed by
+ * its CRC32C. Before the chunks, the remote node replies from which position the
+ * data has to be sent, so if the connection was lost during a previous try only the
+ * chunks it couldn't verify are sent again. After the last chunk, the remote node
+ * confirms the file was stored.
+ * <p>
+ * A chunk can be sent compressed, with the {@link model.Codec Codec} negotiated when
+ * the channel connects, as the {@link model.Codec.Policy compression Policy}
+ * establishes. The checksum is always of the uncompressed data.
+ * <p>
+ * If the remote node already has a file with the same name, it replies the hashes of
+ * its {@link model.ContentChunker content-defined chunks}. Then the file is split the
+ * same way, and the chunks the remote node already has are sent as a reference to
+ * its position in the old file instead of their data.
+ * <p>
+ * Directory information is sent in batches of <code>INFO_BATCH</code> entries, so the
+ * remote node can show the first entries while the rest are coming, and only the
+ * page of the listing the remote node asked for is sent. If the remote node already
+ * has the current version of the listing, it's only told it wasn't modified.
+ */
+
+public class RemoteChannel {
+    /**
+     * Channel roles.
+     */
+    public static final byte CONTROL = 0, DATA = 1;
+
+    /**
+     * Reply of the remote node when a received file was verified and stored.
+     */
+    public static final byte STORED = 1;
+
+    /**
+     * Reply of the remote node to a <code>PING</code> {@link model.Operation
+     * Operation}, followed by the sequence of the last Operation it received.
+     */
+    public static final byte PONG = 2;
+
+    /**
+     * Kinds of file data chunks.
+     */
+    public static final byte RAW = 0, COMPRESSED = 1, REFERENCE = 2;
+
+    /**
+     * Maximum amount of chunk hashes a remote node can reply.
+     */
+    private static final int MAX_SIGNATURE = 16 * 1024 * 1024;
+
+    /**
+     * Maximum compressed to uncompressed size ratio of the sample chunk for a file
+     * to be compressed, with the <code>ADAPTIVE</code> policy.
+     */
+    private static final double ADAPTIVE_RATIO = 0.9;
+
+    /**
+     * Size in bytes of the file data chunks. The content-defined chunks are never
+     * bigger.
+     */
+    private static final int CHUNK_SIZE = ContentChunker.MAX_SIZE;
+
+    /**
+     * Maximum amount of directory entries sent together.
+     */
+    private static final int INFO_BATCH = 256;
+
+    /**
+     * This system {@link model.CloudCore core}.
+     */
+    private CloudCore core;
+
+    /**
+     * The address of the remote node {@link model.ConnectionPoint ConnectionPoint}.
+     */
+    private InetSocketAddress address;
+
+    /**
+     * This channel role: <code>CONTROL</code> or <code>DATA</code>.
+     */
+    private byte role;
+
+    /**
+     * Socket channel for sending messages and data. <code>null</code> while it's
+     * not connected.
+     */
+    private SocketChannel channel;
+
+    /**
+     * Stream over the socket, for the messages.
+     */
+    private DataOutputStream dout;
+
+    /**
+     * Stream over the socket, for the remote node replies.
+     */
+    private DataInputStream din;
+
+    /**
+     * When the file data is compressed.
+     */
+    private Codec.Policy compression;
+
+    /**
+     * The {@link model.Codec Codec} negotiated with the remote node, or
+     * <code>null</code> if the data isn't compressed.
+     */
+    private Codec codec;
+
+    /**
+     * Buffer for the compressed chunks. Allocated the first time it's needed.
+     */
+    private byte[] packed;
+
+    /**
+     * Buffer where the chunks are read, to get their checksum and send them.
+     * Allocated the first time it's needed, and reused for every chunk.
+     */
+    private ByteBuffer chunk;
+
+    /**
+     * If the chunks of the file being sent are compressed.
+     */
+    private boolean compressing;
+
+    /**
+     * Checksum of the chunks.
+     */
+    private CRC32C crc;
+
+    /**
+     * The measures of the connection with the remote node, updated with the
+     * handshakes, the pings and the sent files.
+     */
+    private PeerScore score;
+
+    /**
+     * Creates a (not connected yet) channel to a remote node.
+     * @param core this system {@link model.CloudCore core}.
+     * @param address the address of the remote node {@link model.ConnectionPoint
+     * ConnectionPoint}.
+     * @param role the channel role: <code>CONTROL</code> or <code>DATA</code>.
+     * @param score the measures of the connection with the remote node.
+     */
+    public RemoteChannel(CloudCore core, InetSocketAddress address, byte role, PeerScore score) {
+        this.core = core;
+        this.address = address;
+        this.role = role;
+        this.score = score;
+        compression = core.getCompression();
+        crc = new CRC32C();
+    }
+
+    /**
+     * Connects to the remote node, and sends this node name and the channel role.
+     * Then negotiates the compression {@link model.Codec Codec}: offers the
+     * supported ones (none if the compression is disabled), and the remote node
+     * replies with the one to use.
+     * @throws IOException - if the remote node couldn't be reached.
+     */
+    public void connect() throws IOException {
+        channel = SocketChannel.open(address);
+        // The small messages wait for replies, so they can't wait to be merged
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        dout = new DataOutputStream(new BufferedOutputStream(channel.socket().getOutputStream()));
+        din = new DataInputStream(new ChannelInputStream(channel));
+        long start = System.nanoTime();
+        dout.writeUTF(core.getNodeName());
+        dout.writeByte(role);
+
+        String[] offered = compression == Codec.Policy.NONE ? new String[0] : Codec.NAMES;
+        dout.writeByte(offered.length);
+        for (String name : offered) dout.writeUTF(name);
+        dout.flush();
+
+        String accepted = din.readUTF();
+        score.rtt(System.nanoTime() - start);
+        codec = accepted.isEmpty() ? null : Codec.create(accepted);
+    }
+
+    /**
+     * Sends a <code>PING</code> {@link model.Operation Operation} and waits for the
+     * reply. The round trip time is a sample of the {@link model.PeerScore
+     * PeerScore}.
+     * @return the sequence of the last Operation the remote node received through
+     * this channel. Since the Operations are received in order, all the previous ones
+     * were received too.
+     * @throws IOException - if there's a problem with the socket.
+     */
+    public long ping() throws IOException {
+        long start = System.nanoTime();
+        new Operation(Operation.Type.PING, core.getNodeName(), null, null, null).write(dout);
+        dout.flush();
+        if (din.readByte() != PONG) throw new IOException("Invalid ping reply");
+        long received = din.readLong();
+        score.rtt(System.nanoTime() - start);
+        return received;
+    }
+
+    /**
+     * @return <code>true</code> if the channel is connected and wasn't closed.
+     */
+    public boolean isOpen() {
+        return channel != null && channel.isOpen();
+    }
+
+    /**
+     * Closes the channel, if it's open.
+     */
+    public void close() {
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Sends an {@link model.Operation Operation} to the remote node and, if it's a
+     * <code>SEND</code> Operation, the requested file data or directory information.
+     * A <code>SEND</code> Operation of a file or directory that doesn't exist isn't
+     * sent.
+     * @param op the Operation to send.
+     * @return <code>false</code> if it's a <code>SEND</code> Operation that wasn't
+     * sent, <code>true</code> otherwise (for file data, the remote node stored it).
+     * @throws IOException - if there's a problem with the socket or the file.
+     * @throws InterruptedException - if the thread gets interrumpted while waiting
+     * for a <code>DELETE</code> to end.
+     */
+    public boolean send(Operation op) throws IOException, InterruptedException {
+        if (op.getType() != Operation.Type.SEND) {
+            //Sends the operation. It's all the remote node needs
+            op.write(dout);
+            dout.flush();
+            return true;
+        }
+
+        // Blocks system until sending finnishes
+        core.requestSend();
+        try {
+            File f = new File(core.getSystemRootDirectory() + "/" + op.getPath());
+
+            // If the requested data is the file data
+            if (op.getMode() == Operation.Mode.DATA) {
+                if (f.exists() && f.isFile()) {
+                    op.write(dout);
+                    sendData(f);
+                }
+                else {
+                    System.out.println("Error: Couldn't find \"" + op.getPath() + "\" to send.");
+                    return false;
+                }
+            }
+            // Else, the requested data is directory info
+            else {
+                // The version first: the listing can only be newer
+                long version = core.getDirectoryIndex().getVersion(op.getPath());
+                ArrayList<String> filesInfo = core.getDirectoryIndex().list(op.getPath());
+                if (filesInfo != null) {
+                    op.write(dout);
+                    sendInfo(filesInfo, version, op);
+                }
+                else {
+                    System.out.println("Error: Couldn't find \"" + op.getPath() + "\" to list.");
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            // Sending has finnished
+            core.endSend();
+        }
+    }
+
+    /**
+     * Sends the name, size, last modified time and data of a file. The data is sent
+     * in chunks, from the position the remote node replies, or as the changes from
+     * the old version of the file the remote node has.
+     * @param f the file to send.
+     * @throws IOException - if there's a problem with the socket or the file, or the
+     * remote node didn't store the file.
+     */
+    private void sendData(File f) throws IOException {
+        try (FileChannel file = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = file.size();
+            //Sends filename, file size, last modified and chunk size
+            dout.writeUTF(f.getName());
+            dout.writeLong(size);
+            dout.writeLong(f.lastModified());
+            dout.writeInt(CHUNK_SIZE);
+            dout.flush();
+
+            //The remote node replies where to start, and the chunks it already has
+            long resumed = din.readLong();
+            if (resumed < 0 || resumed > size) throw new IOException("Invalid resume position");
+            HashMap<ByteBuffer, Long> basis = readSignature();
+
+            //Sends file data by chunks, each one followed by its checksum
+            long start = System.nanoTime();
+            compressing = codec != null;
+            if (compressing && packed == null) packed = new byte[CHUNK_SIZE];
+            long reused = 0;
+            if (basis.isEmpty()) {
+                // Read instead of mapped: a mapping keeps the file open until it's
+                // collected, and on Windows it can't be deleted or replaced meanwhile
+                if (chunk == null) chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+                for (long position = resumed; position < size; position += CHUNK_SIZE) {
+                    int length = (int) Math.min(CHUNK_SIZE, size - position);
+                    chunk.clear().limit(length);
+                    while (chunk.hasRemaining()) {
+                        if (file.read(chunk, position + chunk.position()) == -1) throw new IOException("File truncated while sending");
+                    }
+                    sendChunk(chunk.flip(), position == resumed);
+                }
+            }
+            else {
+                ContentChunker chunker = new ContentChunker(file);
+                boolean sample = true;
+                while (chunker.next()) {
+                    Long offset = basis.get(ByteBuffer.wrap(chunker.getHash()));
+                    if (offset != null) {
+                        // The remote node has this chunk, it only needs where
+                        ByteBuffer data = chunker.getData();
+                        crc.reset();
+                        crc.update(data);
+                        dout.writeByte(REFERENCE);
+                        dout.writeInt(chunker.getLength());
+                        dout.writeLong(offset);
+                        dout.writeInt((int) crc.getValue());
+                        reused += chunker.getLength();
+                    }
+                    else {
+                        sendChunk(chunker.getData(), sample);
+                        sample = false;
+                    }
+                }
+                dout.flush();
+            }
+
+            if (din.readByte() != STORED) throw new IOException("File not stored");
+            score.transfer(size - resumed - reused, System.nanoTime() - start);
+            core.putMessage("Sended: \"" + f.getName() + "\""
+                    + (resumed > 0 ? " (resumed at byte " + resumed + ")" : "")
+                    + (reused > 0 ? " (" + reused + " of " + size + " bytes already in the remote node)" : ""));
+        }
+    }
+
+    /**
+     * Reads the hashes of the chunks of the old version of the file the remote node
+     * has, if it has one.
+     * @return the position in the old file of every chunk, by its hash. Empty if the
+     * remote node doesn't have the file.
+     * @throws IOException - if there's a problem with the socket.
+     */
+    private HashMap<ByteBuffer, Long> readSignature() throws IOException {
+        int count = din.readInt();
+        if (count < 0 || count > MAX_SIGNATURE) throw new IOException("Invalid chunk hashes");
+
+        HashMap<ByteBuffer, Long> basis = new HashMap<>(count * 2);
+        long offset = 0;
+        for (int i = 0; i < count; i++) {
+            int length = din.readInt();
+            byte[] hash = new byte[ContentChunker.HASH_SIZE];
+            din.readFully(hash);
+            basis.putIfAbsent(ByteBuffer.wrap(hash), offset);
+            offset += length;
+        }
+        return basis;
+    }
+
+    /**
+     * Sends a chunk of the file data: its length, the data (compressed if the
+     * {@link model.Codec.Policy compression Policy} establishes it) and its checksum.
+     * The sent data is the one the checksum is computed from, never read again from
+     * the file, so it matches even if the file changes meanwhile.
+     * @param data the chunk data.
+     * @param sample <code>true</code> if it's the first chunk sent of the file, used
+     * to decide if the file is compressed with the <code>ADAPTIVE</code> policy.
+     * @throws IOException - if there's a problem with the socket.
+     */
+    private void sendChunk(ByteBuffer data, boolean sample) throws IOException {
+        int length = data.remaining();
+        crc.reset();
+        crc.update(data);
+
+        int compressed = -1;
+        if (compressing) {
+            data.rewind();
+            compressed = codec.compress(data, packed);
+            if (compression == Codec.Policy.ADAPTIVE && sample && (compressed < 0 || compressed > length * ADAPTIVE_RATIO)) {
+                compressing = false;
+            }
+        }
+
+        if (compressing && compressed >= 0) {
+            dout.writeByte(COMPRESSED);
+            dout.writeInt(length);
+            dout.writeInt(compressed);
+            dout.write(packed, 0, compressed);
+        }
+        else {
+            dout.writeByte(RAW);
+            dout.writeInt(length);
+            dout.flush();
+            data.rewind();
+            while (data.hasRemaining()) channel.write(data);
+        }
+        dout.writeInt((int) crc.getValue());
+        dout.flush();
+    }
+
+    /**
+     * Sends the information of a page of the files in a directory: the version stamp
+     * of the directory, the total amount of files and the position of the first sent
+     * one, and then the entries in batches, each one preceded by its size. An empty
+     * batch ends the listing. If the remote node has this version of the listing,
+     * the amount of files is -1 and nothing else is sent.
+     * @param filesInfo the information string of every file, as the {@link
+     * model.DirectoryIndex DirectoryIndex} lists it.
+     * @param version the version stamp of the directory, 0 if unknown.
+     * @param op the <code>SEND</code> Operation, with the requested page and the
+     * version of the listing the remote node has.
+     * @throws IOException - if there's a problem with the socket.
+     */
+    private void sendInfo(ArrayList<String> filesInfo, long version, Operation op) throws IOException {
+        dout.writeLong(version);
+        if (version != 0 && version == op.getVersion()) {
+            // Not modified
+            dout.writeInt(-1);
+            dout.flush();
+            return;
+        }
+
+        int offset = op.getOffset(), limit = op.getLimit();
+        int start = Math.min(Math.max(offset, 0), filesInfo.size());
+        int end = limit > 0 ? (int) Math.min((long) start + limit, filesInfo.size()) : filesInfo.size();
+
+        dout.writeInt(filesInfo.size());
+        dout.writeInt(start);
+        for (int i = start; i < end; i += INFO_BATCH) {
+            int batch = Math.min(INFO_BATCH, end - i);
+            dout.writeInt(batch);
+            for (int j = i; j < i + batch; j++) dout.writeUTF(filesInfo.get(j));
+            dout.flush();
+        }
+        dout.writeInt(0);
+        dout.flush();
+    }
+}
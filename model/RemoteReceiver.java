@@ -1,15 +1,22 @@
 package model;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.Socket;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32C;
 
 import model.Operation.Type;
 
@@ -27,138 +34,527 @@ import model.Operation.Type;
  * needed due to the elimination of {@link model.Operation Operation} replies.
  * Also, {@link model.Operation Operation} constructors only requires Operation {@link 
  * model.Operation.Type Type} and parameters.
+ * <p>
+ * RemoteReceiver is no longer a <code>Thread</code>: it's the state of an incoming
+ * connection, and the {@link model.ConnectionPoint ConnectionPoint} event loop reads
+ * its messages without blocking as they arrive, so an idle connection doesn't need a
+ * thread. When a {@link #hasMessage() complete message} arrives, it's processed by a
+ * worker thread (see {@link #run()}), with the channel in blocking mode, along with
+ * the file data or directory information that follows a <code>SEND</code>
+ * Operation, and then the connection is given back to the event loop.
  */
 
-public class RemoteReceiver extends Thread {
+public class RemoteReceiver implements Runnable {
+    /**
+     * Maximum size in bytes of the file data chunks a remote node can send.
+     */
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Amount of bytes received between progress savings.
+     */
+    private static final long PROGRESS_INTERVAL = 16 * 1024 * 1024;
+
     /**
      * This system {@link model.CloudCore core}.
      */
     private CloudCore core;
 
     /**
-     * The name of the remote node this thread is receiving from.
+     * The {@link model.ConnectionPoint ConnectionPoint} that accepted the connection.
+     */
+    private ConnectionPoint connectionPoint;
+
+    /**
+     * The name of the remote node this connection is receiving from. <code>null
+     * </code> until the remote node sends it.
      */
     private String remoteNodeName;
 
     /**
-     * Socket for receiving data from other nodes.
+     * Socket channel for receiving data from other nodes.
+     */
+    private SocketChannel channel;
+
+    /**
+     * The role of the remote node channel this connection is receiving from: {@link
+     * model.RemoteChannel#CONTROL CONTROL} or {@link model.RemoteChannel#DATA DATA}.
+     */
+    private byte role;
+
+    /**
+     * Stream over the socket channel, for reading both the messages and the
+     * incoming file data.
      */
-    private Socket receiver;
+    private ChannelInputStream input;
 
     /**
-     * Semaphore for receiver's sychronization. Only one file or dir data can
-     * be received at time.
+     * Stream for the messages read from the socket.
      */
-    private Semaphore mutex;
+    private DataInputStream din;
 
     /**
-     * Creates an instance of this thread to manage incoming messages and data.
+     * Stream for the replies to the remote node. Only used while the channel is in
+     * blocking mode.
+     */
+    private DataOutputStream dout;
+
+    /**
+     * The {@link model.Codec Codec} negotiated with the remote node, or
+     * <code>null</code> if the data isn't compressed.
+     */
+    private Codec codec;
+
+    /**
+     * Buffer for the compressed chunks. Allocated the first time it's needed.
+     */
+    private byte[] packed;
+
+    /**
+     * The sequence of the last numbered Operation received through this connection.
+     */
+    private long sequence;
+
+    /**
+     * Creates the state of an incoming connection, to manage its messages and data.
      * 
-     * @param core     this system {@link model.CloudCore core}.
-     * @param receiver the socket created by the {@link model.ConnectionPoint
-     *                 ConnectionPoint}.
+     * @param core             this system {@link model.CloudCore core}.
+     * @param connectionPoint  the {@link model.ConnectionPoint ConnectionPoint}
+     *                         that accepted the connection.
+     * @param channel          the socket channel accepted by the ConnectionPoint.
      */
-    public RemoteReceiver(CloudCore core, Socket receiver) {
+    public RemoteReceiver(CloudCore core, ConnectionPoint connectionPoint, SocketChannel channel) {
         this.core = core;
-        this.receiver = receiver;
+        this.connectionPoint = connectionPoint;
+        this.channel = channel;
+        input = new ChannelInputStream(channel);
+        din = new DataInputStream(input);
+        dout = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * Reads the data the remote node has sent, without blocking.
+     * @return the amount of bytes read, or -1 if the remote node closed the
+     * connection.
+     * @throws IOException - if there's a problem with the socket.
+     */
+    public int read() throws IOException {
+        return input.readAvailable();
     }
 
-    public void setMutex(Semaphore mutex) {
-        this.mutex = mutex;
+    /**
+     * Checks, without blocking, if a complete message was already received: the
+     * remote node name, role and offered {@link model.Codec Codecs} when the
+     * connection starts, and then the {@link model.Operation Operations}. Nothing is
+     * processed here, so the {@link model.ConnectionPoint ConnectionPoint} event loop
+     * never waits for the disk, the core or the socket.
+     * @return <code>true</code> if there's a complete message, and the connection has
+     * to be given to a worker thread (with {@link #run()}). <code>false</code> if more
+     * data is needed to continue.
+     * @throws IOException - if a message is invalid.
+     */
+    public boolean hasMessage() throws IOException {
+        if (remoteNodeName == null) return isHelloBuffered();
+        // Operations are preceded by their length
+        return input.isBuffered(2) && input.isBuffered(2 + input.peekUnsignedShort(0));
     }
 
+    /**
+     * Processes the complete messages already received, and the file data or
+     * directory information that follows a <code>SEND</code> Operation. Runs in a
+     * worker thread, with the channel in blocking mode. When it's done, the
+     * connection is given back to the {@link model.ConnectionPoint ConnectionPoint}.
+     */
     @Override
     public void run() {
-        DataInputStream din;
-        File f;
-        BufferedOutputStream bf;
-        byte[] b = new byte[4046];
-        long file_size;
-        int count;
+        try {
+            while (hasMessage()) {
+                if (remoteNodeName == null) readHello();
+                else process(Operation.read(din));
+            }
+            connectionPoint.resume(this);
+        } catch (IOException | InterruptedException e) {
+            disconnect();
+        }
+    }
 
+    /**
+     * Processes an {@link model.Operation Operation} received from the remote node:
+     * the ones this node has to do are put in the {@link model.Queue Master Queue}.
+     * @param op the Operation.
+     * @throws IOException - if there's a problem with the socket or the files, or the
+     * Operation couldn't be put in the Master Queue.
+     * @throws InterruptedException - if the thread gets interrumpted.
+     */
+    private void process(Operation op) throws IOException, InterruptedException {
+        switch(op.getType()){
+            case LISTDIR:
+                break;
 
-        try {
-            din = new DataInputStream(new BufferedInputStream(receiver.getInputStream()));
-            // Gets the remote node name (from actually the remote node name)
-            remoteNodeName = din.readUTF();
-            while (true) {
-                switch(Operation.Type.valueOf(din.readUTF())){ //Reads operation
-                    case LISTDIR:
-                        break;
-    
-                    case DELETE:
-                        core.addOperation(new Operation(Type.DELETE, din.readUTF()));
-                        break;
-                    case MKDIR:
-                        core.addOperation(new Operation(Type.MKDIR, din.readUTF()));
-                        break;
-                    case TRANSFER:
-                        String[] params = din.readUTF().split(Operation.SEPARATOR);
-                        core.addOperation(new Operation(Type.SEND, params[1] + Operation.SEPARATOR + params[2] + Operation.SEPARATOR + params[3]));
-                        break;
-                    case SEND:
-                        // Blocks the other receiving threads
-                        mutex.acquire();
-
-                        // This node's requested data
-                        String receiving = din.readUTF();
-
-                        // If is going to receive file data
-                        if (receiving.equals(Operation.SEND_DATA)) {
-                            // Receives a file and save it into the received files directory
-                            core.checkReceivedDirectories();
-                            String filename = din.readUTF(); // Reads the file name
-                            f = new File(core.getReceivedFilesDirectory() + '/' + filename);
-                            bf = new BufferedOutputStream(new FileOutputStream(f));
-                            //Reads file size
-                            file_size = din.readLong(); 
-                            //saves file by chunks
-                            while (file_size > 0 && (count = din.read(b, 0, (int) Math.min(file_size, b.length))) != -1){
-                                bf.write(b, 0, count);
-                                bf.flush();
-                                file_size -= count;
-                            }
-                            //Reads file last modified
-                            f.setLastModified(din.readLong());
-                            bf.close();
-
-                            core.putMessage("Received: \"" + filename + "\"");
-                        }
-                        // Else, the incoming data is a remote directory content
-                        else {
-                            // Files list size
-                            int size = din.readInt();
-
-                            ArrayList<String> remoteFilesInfo = new ArrayList<>();
-                            for (int i = 0; i < size; i++) {
-                                remoteFilesInfo.add(din.readUTF());
-                            }
-
-                            // Then, passes the list to the core
-                            core.listdir(remoteNodeName, remoteFilesInfo);
-                        }
-                        // Note: What if the requested dir/file wasn't available?
-                        // Need add confirmation of existence
-
-                        // File received
-                        mutex.release();
-                        break;
+            case DELETE:
+            case MKDIR:
+                core.enqueue(op);
+                break;
+            case TRANSFER:
+                // This node has the data: it has to send it
+                core.enqueue(new Operation(Type.SEND, op.getSource(), op.getTarget(), op.getPath(), op.getMode(), op.getOffset(), op.getLimit(), op.getVersion()));
+                break;
+            case NOTIFY:
+                // Without changes, the remote node subscribes to this node changes
+                if (op.getChanges() == null || op.getChanges().isEmpty()) core.subscribe(op.getSource());
+                else core.changesNotified(op.getSource(), op.getChanges());
+                break;
+            case PING:
+                // Every previous Operation was already processed
+                dout.writeByte(RemoteChannel.PONG);
+                dout.writeLong(sequence);
+                dout.flush();
+                break;
+            case SEND:
+                receive(op);
+                break;
+        }
+        // Only acknowledged when it's done: if it fails, the connection is closed
+        if (op.getSequence() != 0) sequence = op.getSequence();
+    }
+
+    /**
+     * Checks if the first message of the connection was completely received: the
+     * remote node name, the channel role and the offered {@link model.Codec Codecs}.
+     * @return <code>true</code> if the message is complete.
+     * @throws IOException - if the message is invalid.
+     */
+    private boolean isHelloBuffered() throws IOException {
+        // Name, role and Codecs count
+        if (!input.isBuffered(2)) return false;
+        int length = 2 + input.peekUnsignedShort(0) + 2;
+        if (!input.isBuffered(length)) return false;
+        int count = input.peekUnsignedByte(length - 1);
+
+        // Codec names
+        for (int i = 0; i < count; i++) {
+            if (!input.isBuffered(length + 2)) return false;
+            length += 2 + input.peekUnsignedShort(length);
+        }
+        return input.isBuffered(length);
+    }
+
+    /**
+     * Processes the first message of the connection. Replies with the first Codec
+     * supported (an empty name if none).
+     * @throws IOException - if there's a problem with the socket.
+     */
+    private void readHello() throws IOException {
+        // Gets the remote node name (from actually the remote node name)
+        String name = din.readUTF();
+        role = din.readByte();
+        int count = din.readUnsignedByte();
+        for (int i = 0; i < count; i++) {
+            String codecName = din.readUTF();
+            if (codec == null) codec = Codec.create(codecName);
+        }
+
+        dout.writeUTF(codec != null ? codec.getName() : "");
+        dout.flush();
+        remoteNodeName = name;
+    }
+
+    /**
+     * Receives the file data or directory information of a <code>SEND</code>
+     * Operation.
+     * @param op the Operation.
+     * @throws IOException - if there's a problem with the socket or the files.
+     * @throws InterruptedException - if the thread gets interrumpted.
+     */
+    private void receive(Operation op) throws IOException, InterruptedException {
+        // If is going to receive file data
+        if (op.getMode() == Operation.Mode.DATA) {
+            // Receives a file and save it into the received files directory
+            core.checkReceivedDirectories();
+            String filename = din.readUTF(); // Reads the file name
+            long fileSize = din.readLong(); //Reads file size
+            long lastModified = din.readLong(); //Reads file last modified
+            int chunkSize = din.readInt(); //Reads data chunk size
+
+            if (core.isLateCopy(remoteNodeName, filename)) {
+                // The other copy already arrived: it's complete, without data
+                dout.writeLong(fileSize);
+                dout.writeInt(0);
+                dout.writeByte(RemoteChannel.STORED);
+                dout.flush();
+                return;
+            }
+
+            // Blocks the other threads receiving the same file
+            core.requestReceive(filename);
+            try {
+                receiveFile(filename, fileSize, lastModified, chunkSize);
+            } finally {
+                // File received
+                core.endReceive(filename);
+            }
+
+            core.putMessage("Received: \"" + filename + "\"");
+            core.fileReceived(remoteNodeName, filename);
+        }
+        // Else, the incoming data is a remote directory content
+        else {
+            // Version stamp, files list size and position of the first sent file
+            long version = din.readLong();
+            int total = din.readInt();
+            if (total < 0) {
+                // This node already has the listing
+                core.listdirNotModified(remoteNodeName, op.getPath(), version);
+            }
+            else {
+                int offset = din.readInt();
+
+                // Passes every batch to the core as it arrives
+                int received = 0;
+                int size;
+                while ((size = din.readInt()) > 0) {
+                    ArrayList<String> remoteFilesInfo = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        remoteFilesInfo.add(din.readUTF());
+                    }
+                    core.listdir(remoteNodeName, op.getPath(), remoteFilesInfo, offset + received, total, version);
+                    received += size;
                 }
+                // An empty listing is passed too, so the GUI is updated
+                if (received == 0) core.listdir(remoteNodeName, op.getPath(), new ArrayList<>(), offset, total, version);
+            }
+        }
+        // Note: What if the requested dir/file wasn't available?
+        // Need add confirmation of existence
+    }
+
+    /**
+     * Closes the connection. If it was the remote node control channel, the remote
+     * node is considered disconnected.
+     */
+    public void disconnect() {
+        try {
+            channel.close();
+            // Only the control channel tells if the remote node is still connected
+            if (remoteNodeName != null && role == RemoteChannel.CONTROL) {
+                // Disconnects the sender
+                core.reconnect(remoteNodeName);
+                core.nodeStatus(remoteNodeName, false);
             }
-        } catch (FileNotFoundException e) {
-            // But, why?
-        } catch (IOException e) {
-            if (receiver.isConnected())
-                try {
-                    // Disconnects the sender
-                    core.reconnect(remoteNodeName);
-                    core.nodeStatus(remoteNodeName, false);
-                    receiver.close();
-                } catch (IOException | InterruptedException e1) {
-                    
+        } catch (IOException | InterruptedException e) {
+            
+        }
+    }
+
+    /**
+     * @return the socket channel of this connection.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Receives the data of a file. The data is received in chunks, and every chunk is
+     * verified with its CRC32C before being written to a temporary file, preallocated
+     * with the announced size. The position up to where the data was verified is
+     * saved periodically, and also when the receiving fails, so the next try of the
+     * same file (same name, size and last modified time) from the same node continues
+     * from there. When it's complete, the file is moved to the received files
+     * directory, so a partially received file is never visible there.
+     * <p>
+     * If the receiving starts from the beginning and there's already a file with the
+     * same name in the received files directory (or else in the root directory), the
+     * hashes of its chunks are sent, so the chunks that didn't change are copied from
+     * it instead of being received.
+     * @param filename the name of the file.
+     * @param size the announced size of the file.
+     * @param lastModified the file last modified time.
+     * @param chunkSize the maximum size of the data chunks.
+     * @throws IOException - if there's a problem with the socket or the files, or a
+     * chunk is corrupted.
+     */
+    private void receiveFile(String filename, long size, long lastModified, int chunkSize) throws IOException {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) throw new IOException("Invalid chunk size");
+
+        File partial = new File(core.getPartialFilesDirectory() + '/' + remoteNodeName + "-" + filename);
+        File progress = new File(partial.getPath() + ".progress");
+        File f = new File(core.getReceivedFilesDirectory() + '/' + filename);
+
+        // Tells the sender where to start
+        long position = resumePosition(partial, progress, size, lastModified);
+        dout.writeLong(position);
+
+        // And the chunks of the old version of the file, if there's one
+        File old = f.isFile() ? f : new File(core.getSystemRootDirectory() + '/' + filename);
+        boolean delta = position == 0 && old.isFile() && old.length() > 0;
+        try (RandomAccessFile file = new RandomAccessFile(partial, "rw");
+             FileChannel basis = delta ? FileChannel.open(old.toPath(), StandardOpenOption.READ) : null) {
+            writeSignature(basis);
+            dout.flush();
+
+            if (position == 0) file.setLength(size);
+            FileChannel channel = file.getChannel();
+            ByteBuffer chunk = ByteBuffer.allocateDirect((int) Math.min(chunkSize, Math.max(size, 1)));
+            CRC32C crc = new CRC32C();
+            long saved = position;
+            long start = System.nanoTime(), received = 0;
+
+            try {
+                while (position < size) {
+                    byte kind = din.readByte();
+                    int length = din.readInt();
+                    if (length <= 0 || length > chunk.capacity() || length > size - position) throw new IOException("Invalid chunk length");
+
+                    chunk.clear().limit(length);
+                    if (kind == RemoteChannel.COMPRESSED) {
+                        readCompressed(chunk, chunkSize);
+                    }
+                    else if (kind == RemoteChannel.REFERENCE) {
+                        readBasis(basis, din.readLong(), chunk);
+                        received -= length;
+                    }
+                    else {
+                        input.readFully(chunk);
+                    }
+                    received += length;
+
+                    chunk.flip();
+                    crc.reset();
+                    crc.update(chunk);
+                    if ((int) crc.getValue() != din.readInt()) throw new IOException("Corrupted chunk at byte " + position);
+
+                    chunk.flip();
+                    long at = position;
+                    while (chunk.hasRemaining()) at += channel.write(chunk, at);
+                    position += length;
+
+                    if (position - saved >= PROGRESS_INTERVAL) {
+                        channel.force(false);
+                        saveProgress(progress, size, lastModified, saved = position);
+                    }
                 }
-        } catch (InterruptedException e) {
-            // ??
+            } catch (IOException e) {
+                // Keeps the verified data for the next try
+                channel.force(false);
+                saveProgress(progress, size, lastModified, position);
+                throw e;
+            }
+            channel.force(false);
+
+            PeerScore score = core.getPeerScore(remoteNodeName);
+            if (score != null) score.transfer(received, System.nanoTime() - start);
+        }
+
+        Files.move(partial.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        f.setLastModified(lastModified);
+        progress.delete();
+        core.fileChanged(f.toPath());
+
+        dout.writeByte(RemoteChannel.STORED);
+        dout.flush();
+    }
+
+    /**
+     * Sends the length and hash of every {@link model.ContentChunker content-defined
+     * chunk} of the old version of the file being received.
+     * @param basis the channel of the old file, or <code>null</code> if there isn't
+     * one (then no chunks are sent).
+     * @throws IOException - if there's a problem with the socket or the file.
+     */
+    private void writeSignature(FileChannel basis) throws IOException {
+        if (basis == null) {
+            dout.writeInt(0);
+            return;
+        }
+
+        ArrayList<byte[]> hashes = new ArrayList<>();
+        ArrayList<Integer> lengths = new ArrayList<>();
+        ContentChunker chunker = new ContentChunker(basis);
+        while (chunker.next()) {
+            hashes.add(chunker.getHash());
+            lengths.add(chunker.getLength());
+        }
+
+        dout.writeInt(hashes.size());
+        for (int i = 0; i < hashes.size(); i++) {
+            dout.writeInt(lengths.get(i));
+            dout.write(hashes.get(i));
+        }
+    }
+
+    /**
+     * Copies a chunk the sender referenced from the old version of the file.
+     * @param basis the channel of the old file.
+     * @param offset the position of the chunk in the old file.
+     * @param chunk the buffer where the chunk data is written. It's full after this
+     * call.
+     * @throws IOException - if there's a problem with the file, or the reference is
+     * out of it.
+     */
+    private void readBasis(FileChannel basis, long offset, ByteBuffer chunk) throws IOException {
+        if (basis == null || offset < 0) throw new IOException("Invalid chunk reference");
+        while (chunk.hasRemaining()) {
+            if (basis.read(chunk, offset + chunk.position()) == -1) throw new IOException("Invalid chunk reference");
+        }
+    }
+
+    /**
+     * Reads a compressed chunk and decompresses it.
+     * @param chunk the buffer where the chunk data is written. It has to be full
+     * after decompressing.
+     * @param chunkSize the size of the data chunks.
+     * @throws IOException - if there's a problem with the socket, or the compressed
+     * data is corrupted.
+     */
+    private void readCompressed(ByteBuffer chunk, int chunkSize) throws IOException {
+        if (codec == null) throw new IOException("Compressed chunk without codec");
+        if (packed == null || packed.length < chunkSize) packed = new byte[chunkSize];
+
+        int length = din.readInt();
+        if (length < 0 || length > packed.length) throw new IOException("Invalid compressed chunk");
+        din.readFully(packed, 0, length);
+
+        codec.decompress(packed, length, chunk);
+        if (chunk.hasRemaining()) throw new IOException("Corrupted compressed chunk");
+    }
+
+    /**
+     * Obtains the position up to where a file was already received and verified in a
+     * previous try. If the saved progress is from a different version of the file, the
+     * old partial data is discarded.
+     * @param partial the temporary file.
+     * @param progress the file where the progress is saved.
+     * @param size the announced size of the file.
+     * @param lastModified the file last modified time.
+     * @return the position where the receiving has to continue.
+     */
+    private long resumePosition(File partial, File progress, long size, long lastModified) {
+        if (partial.exists() && progress.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(progress))) {
+                long savedSize = in.readLong(), savedLastModified = in.readLong(), saved = in.readLong();
+                if (savedSize == size && savedLastModified == lastModified && saved <= partial.length()) return saved;
+            } catch (IOException e) {
+                // Unreadable progress, starts again
+            }
+        }
+        partial.delete();
+        progress.delete();
+        return 0;
+    }
+
+    /**
+     * Saves the position up to where a file was received and verified.
+     * @param progress the file where the progress is saved.
+     * @param size the announced size of the file.
+     * @param lastModified the file last modified time.
+     * @param position the position up to where the data is verified and written.
+     * @throws IOException - if there's a problem with the progress file.
+     */
+    private void saveProgress(File progress, long size, long lastModified, long position) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(progress))) {
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeLong(position);
         }
     }
 
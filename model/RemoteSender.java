@@ -1,16 +1,15 @@
 package model;
 
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 
 /**
@@ -20,9 +19,38 @@ import java.io.IOException;
  * try to reconnect until it gets connected again. It receives
  * {@link model.Operation Operations} from the core (in its {@link model.Queue
  * Subordinated Queue}), and manages the corresponding message.
+ * <p>
+ * The messages are sent through a pool of {@link model.RemoteChannel
+ * RemoteChannels}: this thread sends the Operations and the directory information
+ * through the <code>CONTROL</code> channel, and passes the file data to
+ * <code>data_streams</code> (from the configuration file) {@link DataStream}
+ * threads, each one with its own <code>DATA</code> channel.
+ * <p>
+ * The Operations are {@link model.Queue#deliver(long, TimeUnit) delivered} from the
+ * Subordinated Queue, and only removed from it when the remote node got them: the
+ * ones sent through the control channel are numbered, and a <code>PING</code> gets
+ * the number of the last one the remote node received; the file data is confirmed
+ * when the remote node stores it. Up to <code>window</code> (from the configuration
+ * file) Operations are sent without waiting for the confirmation, and if the
+ * connection is lost, the ones not confirmed are sent again when it connects, so
+ * every Operation gets to the remote node at least once.
+ * <p>
+ * RemoteSender and its data streams are <code>Runnable</code> tasks, started by the
+ * core {@link model.Execution Execution} in platform or virtual threads.
  */
 
-public class RemoteSender extends Thread {
+public class RemoteSender implements Runnable {
+    /**
+     * Maximum time in milliseconds to wait for an {@link model.Operation Operation}
+     * before checking again if the socket was closed.
+     */
+    private static final long POLL_TIMEOUT = 500;
+
+    /**
+     * Minimum time in milliseconds between pings, while there's nothing to send.
+     */
+    private static final long PING_INTERVAL = 5000;
+
     /**
      * This system {@link model.CloudCore core}.
      */
@@ -45,9 +73,48 @@ public class RemoteSender extends Thread {
     private int remotePort;
 
     /**
-     * Socket for sending messages and data.
+     * The channel for the {@link model.Operation Operations} and the directory
+     * information.
+     */
+    private RemoteChannel control;
+
+    /**
+     * The threads sending file data, each one through its own channel.
+     */
+    private DataStream[] dataStreams;
+
+    /**
+     * The <code>SEND</code> {@link model.Operation Operations} of file data, waiting
+     * for a free data channel.
+     */
+    private LinkedBlockingQueue<Delivery> dataOperations;
+
+    /**
+     * The delivered {@link model.Operation Operations} the remote node didn't
+     * confirm yet, in delivery order.
+     */
+    private ArrayDeque<Delivery> inFlight;
+
+    /**
+     * Maximum amount of Operations in flight.
+     */
+    private int window;
+
+    /**
+     * The number of the current connection. The deliveries of a lost connection are
+     * ignored by the data streams, since they're delivered again.
+     */
+    private volatile int generation;
+
+    /**
+     * Released when a data stream confirms a delivery.
      */
-    private Socket sender;
+    private Semaphore progress;
+
+    /**
+     * The measures of the connection with the remote node.
+     */
+    private PeerScore score;
 
     /**
      * Subordinated {@link model.Queue Queue} this thread is managing. The
@@ -84,120 +151,85 @@ public class RemoteSender extends Thread {
         remoteNodeName = remoteNode.getString("name");
         remoteAddress = remoteNode.getString("address");
         remotePort = remoteNode.getInt("port");
+
+        InetSocketAddress address = new InetSocketAddress(remoteAddress, remotePort);
+        score = new PeerScore();
+        control = new RemoteChannel(core, address, RemoteChannel.CONTROL, score);
+        dataOperations = new LinkedBlockingQueue<>();
+        inFlight = new ArrayDeque<>();
+        window = Math.max(core.getWindow(), 1);
+        progress = new Semaphore(0);
+        dataStreams = new DataStream[core.getDataStreams()];
+        for (int i = 0; i < dataStreams.length; i++) {
+            dataStreams[i] = new DataStream(new RemoteChannel(core, address, RemoteChannel.DATA, score));
+        }
+
+        // Initialize this subordinated queue
+        initQueue();
     }
 
     @Override
     public void run() {
-        // Initialize this subordinated queue
-        initQueue();
+        Delivery delivery;
+
+        if (new InetSocketAddress(remoteAddress, remotePort).isUnresolved()) return; //El archivo de configuracion esta mal
 
-        byte[] b = new byte[4096];
-        int count;
-        File f;
-        BufferedInputStream bf;
-        Operation op;
-        DataOutputStream dout;
+        for (int i = 0; i < dataStreams.length; i++) {
+            core.getExecution().start("DataStream " + remoteNodeName + " " + i, dataStreams[i]);
+        }
 
         while (true) {
             try {
-                sender = new Socket(remoteAddress, remotePort);
-                sender.shutdownInput();// This socket will be specifically used to send data
-                dout = new DataOutputStream(new BufferedOutputStream(sender.getOutputStream()));
-                dout.writeUTF(core.getNodeName());
-                dout.flush();
+                control.connect();
+                // Whatever the last connection didn't confirm is sent again, however
+                // it ended: the numbering starts over
+                rewind();
+                if (core.isSubscribing()) control.send(new Operation(core.getNodeName(), remoteNodeName, new ArrayList<>()));
 
                 core.nodeStatus(remoteNodeName, true);
-                while (!sender.isClosed()) {
-                    if ((op = getNextOperation()) != null) {
-                        //Sends the operation type name
-                        dout.writeUTF(op.getType().name());
-                        dout.flush();
-                        switch (op.getType()){
-                            case LISTDIR:
-                                break;
-
-                            case SEND:
-                                // Blocks system until sending finnishes
-                                core.requestSend();
-
-                                String requested = op.getParam().split(Operation.SEPARATOR)[2];
-                                String path = core.getSystemRootDirectory() + "/" + op.getParam().split(Operation.SEPARATOR)[1];
-                                f = new File(path);
-
-                                // Sends what was requested
-                                dout.writeUTF(requested);
-                                
-                                // If the requested data is the file data
-                                if (requested.equals(Operation.SEND_DATA)) {
-                                    if (f.exists() && f.isFile()){
-                                        bf = new BufferedInputStream(new FileInputStream(f));
-                                        //Sends filename
-                                        dout.writeUTF(f.getName());
-                                        dout.flush();
-                                        //Sends file size
-                                        dout.writeLong(f.length());
-                                        dout.flush();
-                                        //Sends file data by chunks
-                                        while ((count = bf.read(b)) != -1) {
-                                            dout.write(b, 0, count);
-                                            dout.flush();
-                                        }
-                                        //Sends file last modified
-                                        dout.writeLong(f.lastModified());
-                                        dout.flush();
-                                        bf.close();
-
-                                        core.putMessage("Sended: \"" + f.getName() + "\"");
-                                    }
-                                    else {
-                                        // The file doesn't exists, or is directory, but
-                                        // what to do?
-                                    }
-                                }
-                                // Else, the requested data is directory info
-                                else {
-                                    if (f.exists() && f.isDirectory()) {
-                                        ArrayList<String> filesInfo = new ArrayList<>();
-
-                                        for (File file : f.listFiles()){
-                                            // Structure: Filename/Last Modified Time (in millis)/true if directory, false otherwise
-                                            filesInfo.add(file.getName() + Operation.SEPARATOR + file.lastModified() + Operation.SEPARATOR + file.isDirectory());
-                                        }
-
-                                        // Sends one by one
-                                        dout.writeInt(filesInfo.size());
-                                        dout.flush();
-                                        for (int i = 0; i < filesInfo.size(); i++) {
-                                            dout.writeUTF(filesInfo.get(i));
-                                            dout.flush();
-                                        }
-                                    }
-                                    else {
-                                        System.out.println("Error?");
-                                    }
-                                }
-
-                                // Sending has finnished
-                                core.endSend();
-                                
-                                break;
-                            case DELETE:
-                            case MKDIR:
-                            case TRANSFER: 
-                                dout.writeUTF(op.getParam());
-                                dout.flush();
-                                break;
+                long sequence = 0, pinged = System.currentTimeMillis();
+                while (control.isOpen()) {
+                    acknowledge();
+                    if (inFlight.size() < window && (delivery = getNextOperation()) != null) {
+                        Operation op = delivery.op;
+                        inFlight.add(delivery);
+                        // File data goes through the first free data channel
+                        if (dataStreams.length > 0 && op.getType() == Operation.Type.SEND && op.getMode() == Operation.Mode.DATA) {
+                            dataOperations.add(delivery);
+                        }
+                        else {
+                            op.setSequence(++sequence);
+                            boolean done = control.send(op);
+                            sent(op, done);
+                            // A SEND that wasn't sent has nothing to confirm
+                            delivery.sequence = op.getSequence();
+                            delivery.done = !done || op.getType() == Operation.Type.SEND && op.getMode() == Operation.Mode.DATA;
+                        }
+                    }
+                    // The window is full, or there's nothing else to send: asks what arrived
+                    else if (awaitingSequence()) {
+                        long received = control.ping();
+                        pinged = System.currentTimeMillis();
+                        for (Delivery sent : inFlight) {
+                            if (sent.sequence != 0 && sent.sequence <= received) sent.done = true;
                         }
                     }
+                    // Only file data in flight
+                    else if (inFlight.size() >= window) {
+                        progress.tryAcquire(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                        progress.drainPermits();
+                    }
+                    // Keeps the round trip time up to date while idle
+                    else if (System.currentTimeMillis() - pinged >= PING_INTERVAL) {
+                        control.ping();
+                        pinged = System.currentTimeMillis();
+                    }
                 }
-            } catch (UnknownHostException e) {
-                break; //El archivo de configuracion esta mal
             } catch (IOException e) {
                 try{
-                    if (sender != null && sender.isConnected())
-                        sender.close();
+                    control.close();
                     Thread.sleep(500);
-                }catch (InterruptedException | IOException e1) {
+                }catch (InterruptedException e1) {
                     //Error?
                 }
             } catch (InterruptedException e) {
@@ -206,13 +238,79 @@ public class RemoteSender extends Thread {
         }
     }
 
+    /**
+     * Removes from the Subordinated Queue the first delivered Operations the remote
+     * node confirmed.
+     * @throws IOException - if there's a problem with the queue files.
+     */
+    private void acknowledge() throws IOException {
+        int count = 0;
+        while (!inFlight.isEmpty() && inFlight.peek().done) {
+            inFlight.remove();
+            count++;
+        }
+        subQueue.acknowledge(count);
+    }
+
+    /**
+     * @return <code>true</code> if there are Operations sent through the control
+     * channel that the remote node didn't confirm yet.
+     */
+    private boolean awaitingSequence() {
+        for (Delivery delivery : inFlight) {
+            if (!delivery.done && delivery.sequence != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the Operations in flight of the previous connection, so they're
+     * delivered again from the Subordinated Queue.
+     */
+    private void rewind() {
+        generation++;
+        dataOperations.clear();
+        inFlight.clear();
+        subQueue.rewind();
+    }
+
+    /**
+     * Removes from the {@link model.ListingCache ListingCache} the listings of the
+     * remote node directories a sent {@link model.Operation Operation} changes, and
+     * tells the {@link model.Replication Replication} which files the remote node
+     * stored or deleted.
+     * @param op the sent Operation.
+     * @param done <code>false</code> if it's a <code>SEND</code> Operation that
+     * couldn't be sent.
+     */
+    private void sent(Operation op, boolean done) {
+        switch (op.getType()) {
+            case SEND:
+                // The file is stored in the received files directory
+                if (op.getMode() == Operation.Mode.DATA) {
+                    if (done) core.getListingCache().invalidate(remoteNodeName, "recv/" + new File(op.getPath()).getName());
+                    core.getReplication().stored(remoteNodeName, op.getPath(), done);
+                }
+                break;
+            case DELETE:
+                core.getReplication().deleted(remoteNodeName, op.getPath());
+                core.getListingCache().invalidate(remoteNodeName, op.getPath());
+                break;
+            case MKDIR:
+                core.getListingCache().invalidate(remoteNodeName, op.getPath());
+                break;
+            default:
+                break;
+        }
+    }
+
     /**
      * Configurates this RemoteSender Thread's {@link model.Queue Subordinated
      * Queue}.
      */
     private void initQueue() {
         String queueFileName = remoteNodeName + ".q";
-        subQueue = new Queue(core.getSystemQueuesDirectory() + "/" + queueFileName);
+        subQueue = new Queue(core.getSystemQueuesDirectory() + "/" + queueFileName, core.getQueueDurability());
     }
 
     // Receive an Operation and append it to this RemoteSender's Subordinated Queue
@@ -238,13 +336,18 @@ public class RemoteSender extends Thread {
     }
 
     /**
-     * Gets the next operation in the queue this thread is managing.
-     * @return the next {@link model.Operation Operation} in the secuence of this 
-     * {@link model.Queue Subordinated Queue}.
+     * Gets the next operation in the queue this thread is managing. Waits up to
+     * <code>POLL_TIMEOUT</code> milliseconds for it, so the connection state is
+     * still checked periodically while there's nothing to send. It stays in the
+     * queue until the remote node confirms it.
+     * @return the delivery of the next {@link model.Operation Operation} in the
+     * secuence of this {@link model.Queue Subordinated Queue}, or <code>null</code>
+     * if there was none.
      */
-    private Operation getNextOperation() {
+    private Delivery getNextOperation() {
         try {
-            return subQueue.getNext();
+            Operation op = subQueue.deliver(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+            return op != null ? new Delivery(op, generation) : null;
         } catch (InterruptedException ie) {
             System.out.println("Fatal Error: Cannot access to" + remoteNodeName + " Subordinated Queue");
         } catch (IOException ioe) {
@@ -256,12 +359,111 @@ public class RemoteSender extends Thread {
     }
 
     /**
-     * Closes this thread's socket to try reconnection. This method
+     * @return <code>true</code> if the remote node is connected.
+     */
+    public boolean isConnected() {
+        return control.isOpen();
+    }
+
+    /**
+     * @return the {@link model.PeerScore PeerScore} of the connection with the
+     * remote node.
+     */
+    public PeerScore getScore() {
+        return score;
+    }
+
+    /**
+     * Closes this thread's sockets to try reconnection. This method
      * will be called when de {@link model.RemoteReceiver RemoteReceiver}
      * thread detects that the remote node has gone disconnected.
      * @throws IOException
      */
     public void reconnect() throws IOException {
-        sender.close();
+        control.close();
+        for (DataStream stream : dataStreams) stream.channel.close();
+    }
+
+    /**
+     * A <code>Thread</code> sending file data to the remote node through its own
+     * {@link model.RemoteChannel RemoteChannel}. All the data streams of a
+     * RemoteSender take the Operations from the same <code>dataOperations</code>
+     * queue, so a file is sent by the first free one.
+     */
+    private class DataStream implements Runnable {
+        /**
+         * The data channel of this stream.
+         */
+        private RemoteChannel channel;
+
+        public DataStream(RemoteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            Delivery delivery;
+
+            while (true) {
+                try {
+                    channel.connect();
+                    while (channel.isOpen()) {
+                        if ((delivery = dataOperations.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS)) != null) {
+                            // Delivered again after the connection was lost
+                            if (delivery.generation != generation) continue;
+
+                            boolean done;
+                            try {
+                                done = channel.send(delivery.op);
+                            } catch (IOException e) {
+                                // Another stream will try again
+                                if (delivery.generation == generation) dataOperations.add(delivery);
+                                throw e;
+                            }
+                            sent(delivery.op, done);
+                            delivery.done = true;
+                            progress.release();
+                        }
+                    }
+                } catch (IOException e) {
+                    try {
+                        channel.close();
+                        Thread.sleep(500);
+                    } catch (InterruptedException e1) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A delivered {@link model.Operation Operation}, waiting for the remote node to
+     * confirm it.
+     */
+    private static class Delivery {
+        private Operation op;
+
+        /**
+         * The number of the connection it was delivered in.
+         */
+        private int generation;
+
+        /**
+         * Its number in the control channel. 0 if it wasn't sent through it.
+         */
+        private long sequence;
+
+        /**
+         * <code>true</code> when the remote node confirmed it.
+         */
+        private volatile boolean done;
+
+        private Delivery(Operation op, int generation) {
+            this.op = op;
+            this.generation = generation;
+        }
     }
 }
\ No newline at end of file
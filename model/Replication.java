@@ -0,0 +1,420 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+
+/**
+ * Keeps <code>replication</code> (from the configuration file) copies of the files
+ * this node sends. A file sent to a remote node is also sent to other remote nodes,
+ * chosen by the {@link Placement Placement} policy, and the sending is complete when
+ * <code>write_quorum</code> of them (the majority if it's 0) confirmed it was stored.
+ * <p>
+ * With the <code>hash</code> placement, the node the user chose isn't used: all the
+ * nodes of a file are chosen from its name with a {@link model.HashRing HashRing} of
+ * the remote nodes, so the files are spread evenly among them.
+ * <p>
+ * The remote nodes store the received files in their <code>recv</code> directory,
+ * so every copy has the same path. This node remembers which nodes stored every
+ * file (in the <code>systemDirectory sysfiles</code> directory, so it's kept after
+ * a restart), and a <code>TRANSFER</code> of one of them can be done by any of its
+ * replicas: the {@link model.ReadRouter ReadRouter} chooses the best connected one.
+ * <p>
+ * The replicas are saved once per <code>CHECK_INTERVAL</code>, only if they changed,
+ * so sending many files doesn't rewrite them after every reply (if the system stops
+ * before, the <code>TRANSFER</code> of the last stored files just goes to the chosen
+ * node). The nodes that didn't reply after <code>write_timeout</code> seconds (from
+ * the configuration file) are counted as failed, so the user is told if the quorum
+ * wasn't reached; if they reply later, they're still known as replicas.
+ */
+
+public class Replication implements Runnable {
+    /**
+     * Time in milliseconds between the checks of the late replies, and the saves of
+     * the replicas.
+     */
+    private static final long CHECK_INTERVAL = 1000;
+
+    /**
+     * This system {@link model.CloudCore core}.
+     */
+    private CloudCore core;
+
+    /**
+     * Amount of copies of every sent file.
+     */
+    private int factor;
+
+    /**
+     * Amount of stored copies for a sending to be complete. 0 for the majority.
+     */
+    private int quorum;
+
+    /**
+     * How the nodes of the copies are chosen.
+     */
+    private Placement placement;
+
+    /**
+     * Time in milliseconds the replicas of a sent file have to reply.
+     */
+    private long writeTimeout;
+
+    /**
+     * The names of all the remote nodes, in the configuration file order.
+     */
+    private ArrayList<String> nodes;
+
+    /**
+     * The ring of the remote nodes, for the <code>HASH</code> placement.
+     */
+    private HashRing ring;
+
+    /**
+     * The file where the replicas are saved.
+     */
+    private File replicasFile;
+
+    /**
+     * The nodes that stored every file, by its path in the remote nodes.
+     */
+    private HashMap<String, LinkedHashSet<String>> replicas;
+
+    /**
+     * The files being sent, by their path in the remote nodes.
+     */
+    private HashMap<String, Write> writes;
+
+    /**
+     * <code>true</code> if the replicas changed since they were saved.
+     */
+    private boolean modified;
+
+    /**
+     * Mutex for the replicas and the writes.
+     */
+    private Semaphore mutex;
+
+    /**
+     * Creates the replication of this node files, with the saved replicas.
+     * @param core this system {@link model.CloudCore core}.
+     * @param nodes the names of all the remote nodes.
+     * @param factor amount of copies of every sent file.
+     * @param quorum amount of stored copies for a sending to be complete, 0 for the
+     * majority.
+     * @param placement how the nodes of the copies are chosen.
+     * @param virtualNodes amount of points of every node in the ring of the <code>
+     * HASH</code> placement.
+     * @param writeTimeout time in milliseconds the replicas of a sent file have to
+     * reply.
+     */
+    public Replication(CloudCore core, List<String> nodes, int factor, int quorum, Placement placement, int virtualNodes, long writeTimeout) {
+        this.core = core;
+        this.nodes = new ArrayList<>(nodes);
+        this.factor = Math.max(factor, 1);
+        this.quorum = Math.max(quorum, 0);
+        this.placement = placement;
+        this.writeTimeout = writeTimeout;
+        if (placement == Placement.HASH) ring = new HashRing(nodes, virtualNodes);
+        replicasFile = new File(core.getSystemFilesDirectory() + "/replicas");
+        replicas = new HashMap<>();
+        writes = new HashMap<>();
+        mutex = new Semaphore(1, true);
+        load();
+    }
+
+    /**
+     * @return <code>true</code> if the sent files are copied to more than one node,
+     * or their node is chosen by the ring.
+     */
+    public boolean isEnabled() {
+        return factor > 1 || placement == Placement.HASH;
+    }
+
+    /**
+     * Chooses the nodes where a file is sent. The node the user chose is always the
+     * first one (except with the <code>HASH</code> placement), and then the connected
+     * nodes go before the disconnected ones (those get the file when they connect
+     * again).
+     * @param target the node the user chose.
+     * @param path the <code>systemDirectory root</code> relative path of the file.
+     * @param connected tells if a remote node is connected.
+     * @return the nodes, up to <code>replication</code> of them. Empty if the chosen
+     * node isn't a remote node.
+     */
+    public ArrayList<String> place(String target, String path, Predicate<String> connected) {
+        ArrayList<String> candidates = new ArrayList<>();
+        ArrayList<String> chosen = new ArrayList<>();
+        if (placement == Placement.HASH) {
+            // The next node of the ring takes the place of a disconnected one
+            candidates = ring.nodes(new File(path).getName());
+        }
+        else {
+            int start = nodes.indexOf(target);
+            if (start == -1) {
+                System.out.println("Error: \"" + target + "\" isn't a remote node.");
+                return chosen;
+            }
+            for (int i = 1; i < nodes.size(); i++) candidates.add(nodes.get((start + i) % nodes.size()));
+            if (placement == Placement.RANDOM) Collections.shuffle(candidates);
+            chosen.add(target);
+        }
+
+        for (String node : candidates) {
+            if (chosen.size() < factor && connected.test(node)) chosen.add(node);
+        }
+        for (String node : candidates) {
+            if (chosen.size() < factor && !chosen.contains(node)) chosen.add(node);
+        }
+        if (chosen.size() < factor) {
+            System.out.println("Warning: Only " + chosen.size() + " nodes for " + factor + " copies.");
+        }
+        return chosen;
+    }
+
+    /**
+     * Starts tracking the sending of a file to its replicas. The replicas of an older
+     * version of the file are forgotten.
+     * @param path the <code>systemDirectory root</code> relative path of the file.
+     * @param nodes the nodes where it's sent.
+     */
+    public void begin(String path, ArrayList<String> nodes) {
+        String name = new File(path).getName();
+        int required = quorum > 0 ? Math.min(quorum, nodes.size()) : nodes.size() / 2 + 1;
+
+        mutex.acquireUninterruptibly();
+            writes.put(key(path), new Write(name, nodes, required, System.currentTimeMillis() + writeTimeout));
+            if (replicas.remove(key(path)) != null) modified = true;
+        mutex.release();
+    }
+
+    /**
+     * Counts the reply of a replica. When the quorum is reached, the sending is
+     * complete; if it can't be reached anymore, the user is told.
+     * @param node the remote node.
+     * @param path the <code>systemDirectory root</code> relative path of the sent file.
+     * @param stored <code>true</code> if the remote node stored the file.
+     */
+    public void stored(String node, String path, boolean stored) {
+        String message = null, error = null;
+
+        mutex.acquireUninterruptibly();
+            // Also after the write timed out: the node has the file anyway
+            if (stored && isEnabled()) modified |= replicas.computeIfAbsent(key(path), k -> new LinkedHashSet<>()).add(node);
+
+            Write write = writes.get(key(path));
+            if (write != null && write.nodes.remove(node)) {
+                if (stored) write.stored++;
+                else write.failed++;
+
+                int total = write.stored + write.failed + write.nodes.size();
+                if (!write.reported && write.stored >= write.required) {
+                    write.reported = true;
+                    // A single copy is already told by its sending
+                    if (total > 1) message = "Replicated: \"" + write.name + "\" (stored in " + write.stored + " of " + total + " nodes)";
+                }
+                else if (!write.reported && write.stored + write.nodes.size() < write.required) {
+                    write.reported = true;
+                    error = "Error: \"" + write.name + "\" was stored in only " + write.stored + " of " + total + " nodes.";
+                }
+                if (write.nodes.isEmpty()) writes.remove(key(path));
+            }
+        mutex.release();
+
+        if (message != null) core.putMessage(message);
+        if (error != null) core.putError(error);
+    }
+
+    /**
+     * Every <code>CHECK_INTERVAL</code>, ends the writes whose replicas didn't reply
+     * in time, and saves the replicas if they changed.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(CHECK_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            ArrayList<String> errors = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            mutex.acquireUninterruptibly();
+                Iterator<Write> pending = writes.values().iterator();
+                while (pending.hasNext()) {
+                    Write write = pending.next();
+                    if (now < write.deadline) continue;
+
+                    int total = write.stored + write.failed + write.nodes.size();
+                    if (!write.reported && write.stored < write.required) {
+                        errors.add("Error: \"" + write.name + "\" was stored in only " + write.stored + " of " + total
+                                + " nodes (no reply from " + String.join(", ", write.nodes) + ").");
+                    }
+                    pending.remove();
+                }
+
+                if (modified) {
+                    save();
+                    modified = false;
+                }
+            mutex.release();
+
+            for (String error : errors) core.putError(error);
+        }
+    }
+
+    /**
+     * Forgets the replicas a remote node deleted.
+     * @param node the remote node.
+     * @param path the path of the deleted file or directory in the remote node.
+     */
+    public void deleted(String node, String path) {
+        String deleted = PathScheduler.normalize(path);
+
+        mutex.acquireUninterruptibly();
+            boolean changed = false;
+            for (Map.Entry<String, LinkedHashSet<String>> entry : replicas.entrySet()) {
+                String file = entry.getKey();
+                if (deleted.isEmpty() || file.equals(deleted) || file.startsWith(deleted + "/")) changed |= entry.getValue().remove(node);
+            }
+            if (changed) {
+                replicas.values().removeIf(LinkedHashSet::isEmpty);
+                modified = true;
+            }
+        mutex.release();
+    }
+
+    /**
+     * Gets the nodes that stored a file.
+     * @param path the path of the file in the remote nodes.
+     * @return the nodes. Empty if the file isn't a replica.
+     */
+    public ArrayList<String> getReplicas(String path) {
+        ArrayList<String> nodes = new ArrayList<>();
+        mutex.acquireUninterruptibly();
+            LinkedHashSet<String> stored = replicas.get(PathScheduler.normalize(path));
+            if (stored != null) nodes.addAll(stored);
+        mutex.release();
+        return nodes;
+    }
+
+    /**
+     * @return the path in the remote nodes of a sent file.
+     */
+    private static String key(String path) {
+        return "recv/" + new File(path).getName();
+    }
+
+    /**
+     * Reads the saved replicas.
+     */
+    private void load() {
+        if (!replicasFile.exists()) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(replicasFile)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                LinkedHashSet<String> nodes = new LinkedHashSet<>();
+                for (int j = in.readInt(); j > 0; j--) nodes.add(in.readUTF());
+                replicas.put(path, nodes);
+            }
+        } catch (IOException e) {
+            System.out.println("Warning: Cannot read the replicas. Transfers will use the chosen node.");
+            replicas.clear();
+        }
+    }
+
+    /**
+     * Saves the replicas. They are written apart and then replace the saved ones, so
+     * they're never left half written. The mutex has to be acquired.
+     */
+    private void save() {
+        File temp = new File(replicasFile.getPath() + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+                out.writeInt(replicas.size());
+                for (Map.Entry<String, LinkedHashSet<String>> entry : replicas.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (String node : entry.getValue()) out.writeUTF(node);
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temp.toPath(), replicasFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Error: Cannot save the replicas.");
+        }
+    }
+
+    /**
+     * The sending of a file to its replicas.
+     */
+    private static class Write {
+        private String name;
+
+        /**
+         * The nodes that didn't reply yet.
+         */
+        private ArrayList<String> nodes;
+
+        private int required;
+        private int stored;
+        private int failed;
+
+        /**
+         * <code>true</code> when the user was told the result.
+         */
+        private boolean reported;
+
+        /**
+         * When the nodes that didn't reply are counted as failed.
+         */
+        private long deadline;
+
+        private Write(String name, ArrayList<String> nodes, int required, long deadline) {
+            this.name = name;
+            this.nodes = new ArrayList<>(nodes);
+            this.required = required;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * How the nodes of the copies are chosen, after the node the user chose.
+     */
+    public enum Placement {
+        /**
+         * The next remote nodes, in the configuration file order.
+         */
+        ORDERED,
+        /**
+         * Random remote nodes.
+         */
+        RANDOM,
+        /**
+         * The nodes of the file name in a {@link model.HashRing HashRing}, instead of
+         * the node the user chose.
+         */
+        HASH
+    }
+}
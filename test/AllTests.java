@@ -0,0 +1,29 @@
+package test;
+
+/**
+ * Runs every test class, as described in {@link test.Tests Tests}.
+ */
+
+public class AllTests {
+    public static void main(String[] args) throws Exception {
+        QueueTest.main(args);
+        OperationTest.main(args);
+        HashRingTest.main(args);
+        ContentChunkerTest.main(args);
+        PathLocksTest.main(args);
+        ExecutionTest.main(args);
+        PathSchedulerTest.main(args);
+        FileTreeTest.main(args);
+        DirectoryIndexTest.main(args);
+        ListingTest.main(args);
+        ListingCacheTest.main(args);
+        ChangeNotifierTest.main(args);
+        BackupTest.main(args);
+        ReplicationTest.main(args);
+        ReadRouterTest.main(args);
+        TransferTest.main(args);
+        DataStreamsTest.main(args);
+        CodecTest.main(args);
+        ConnectionPointTest.main(args);
+    }
+}
@@ -0,0 +1,126 @@
+package test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import model.FileTree;
+
+/**
+ * Tests of the backups: A keeps its backup in B, which first gets the whole root of
+ * A and then only the files that changed, and C can't keep its backup in B because
+ * it isn't one of its <code>backup_nodes</code>.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class BackupTest {
+    private static TestNode a, b;
+    private static Path backup;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Tests.createDirectory("backuptest");
+        try {
+            int port = TestNode.freePort();
+            b = new TestNode("B", dir).set("backup_port", port).set("backup_nodes", new JSONArray().put("A")).start();
+            a = new TestNode("A", dir).set("backup", backupConfig(port));
+
+            Path root = Files.createDirectories(a.getRoot().resolve("d/e"));
+            Files.write(a.getRoot().resolve("f1"), TransferTest.random(300000, 1));
+            Files.write(root.resolve("f2"), "hello".getBytes("UTF-8"));
+            Files.createDirectories(a.getRoot().resolve("gone"));
+            Files.write(a.getRoot().resolve("gone/x"), "x".getBytes("UTF-8"));
+            a.start();
+            backup = Paths.get(waitBackupDirectory(), "A");
+
+            Tests.run("copiesRoot", BackupTest::copiesRoot);
+            Tests.run("sendsModifiedFile", BackupTest::sendsModifiedFile);
+            Tests.run("deletesRemovedDirectory", BackupTest::deletesRemovedDirectory);
+            Tests.run("refusesUnknownNode", () -> refusesUnknownNode(dir, port));
+            System.out.println("BackupTest: all tests passed");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    /**
+     * The first backup has every file and directory.
+     */
+    private static void copiesRoot() throws Exception {
+        Tests.waitFor(() -> hasMessage("Backup: 3 files sent"), "the first backup");
+        checkSame("f1");
+        checkSame("d/e/f2");
+        checkSame("gone/x");
+        Tests.check(Files.isDirectory(backup.resolve("recv")), "the received files directory");
+    }
+
+    private static void sendsModifiedFile() throws Exception {
+        a.getMessages().clear();
+        Files.write(a.getRoot().resolve("d/e/f2"), "hello world".getBytes("UTF-8"));
+        Tests.waitFor(() -> hasMessage("Backup: 1 files sent (11 bytes), 0 deleted"), "only the modified file sent");
+        checkSame("d/e/f2");
+    }
+
+    private static void deletesRemovedDirectory() throws Exception {
+        a.getMessages().clear();
+        new FileTree(1).delete(a.getRoot().resolve("gone"));
+        Tests.waitFor(() -> hasMessage("Backup: 0 files sent (0 bytes), 1 deleted"), "only the directory deleted");
+        Tests.check(!Files.exists(backup.resolve("gone")), "the directory is deleted");
+        checkSame("f1");
+    }
+
+    /**
+     * A node that isn't in <code>backup_nodes</code> of B doesn't get a backup there.
+     */
+    private static void refusesUnknownNode(Path dir, int port) throws Exception {
+        TestNode c = new TestNode("C", dir).set("backup", backupConfig(port));
+        Files.createDirectories(c.getRoot());
+        Files.write(c.getRoot().resolve("f3"), new byte[10]);
+        c.start();
+
+        Thread.sleep(3000);
+        Tests.check(!hasMessage(c, "Backup:"), "no backup of C");
+        Tests.check(!Files.exists(backup.resolveSibling("C")), "no backup directory of C");
+    }
+
+    /**
+     * Checks that a file of A is the same in its backup.
+     * @param path the root relative path of the file.
+     */
+    private static void checkSame(String path) throws Exception {
+        Tests.check(Arrays.equals(Files.readAllBytes(a.getRoot().resolve(path)), Files.readAllBytes(backup.resolve(path))), "same content of " + path);
+    }
+
+    private static boolean hasMessage(String start) {
+        return hasMessage(a, start);
+    }
+
+    private static boolean hasMessage(TestNode node, String start) {
+        synchronized (node.getMessages()) {
+            for (String message : node.getMessages()) {
+                if (message.startsWith(start)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the backup directory of B, once it's created.
+     */
+    private static String waitBackupDirectory() throws Exception {
+        Tests.waitFor(() -> b.getCore().getBackupDirectory() != null && Files.isDirectory(Paths.get(b.getCore().getBackupDirectory())), "the backup directory of B");
+        return b.getCore().getBackupDirectory();
+    }
+
+    /**
+     * @return the <code>backup</code> configuration of a node that keeps its backup in
+     * B, every second.
+     */
+    private static JSONObject backupConfig(int port) {
+        return new JSONObject().put("address", "127.0.0.1").put("port", port).put("updt", 1).put("init_mode", "overwrite");
+    }
+}
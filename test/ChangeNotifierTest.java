@@ -0,0 +1,76 @@
+package test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.json.JSONObject;
+
+import model.Operation;
+
+/**
+ * Tests of the change notifications between two nodes: A subscribes to the changes
+ * of B when it connects, and gets the directories of B that change, however they
+ * change, and its cached listings of them are removed.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class ChangeNotifierTest {
+    private static TestNode a, b;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Tests.createDirectory("changenotifiertest");
+        try {
+            TestNode[] nodes = TestNode.start(dir, new JSONObject(), "A", "B");
+            a = nodes[0];
+            b = nodes[1];
+            Files.createDirectories(b.getRoot().resolve("docs"));
+            Tests.waitFor(() -> a.getChanges().contains("B:"), "the new directory notified");
+
+            Tests.run("notifiesCreatedFile", ChangeNotifierTest::notifiesCreatedFile);
+            Tests.run("notifiesModifiedFile", ChangeNotifierTest::notifiesModifiedFile);
+            Tests.run("notifiesDeletedFile", ChangeNotifierTest::notifiesDeletedFile);
+            Tests.run("notifiesOperations", ChangeNotifierTest::notifiesOperations);
+            System.out.println("ChangeNotifierTest: all tests passed");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    private static void notifiesCreatedFile() throws Exception {
+        checkNotified(() -> Files.write(b.getRoot().resolve("docs/file.txt"), new byte[1]));
+    }
+
+    private static void notifiesModifiedFile() throws Exception {
+        checkNotified(() -> Files.write(b.getRoot().resolve("docs/file.txt"), new byte[2]));
+    }
+
+    private static void notifiesDeletedFile() throws Exception {
+        checkNotified(() -> Files.delete(b.getRoot().resolve("docs/file.txt")));
+    }
+
+    /**
+     * The changes made by the Operations of other nodes are notified too.
+     */
+    private static void notifiesOperations() throws Exception {
+        checkNotified(() -> a.getCore().addOperation(new Operation(Operation.Type.MKDIR, "B", "./docs/made")));
+        Tests.check(Files.isDirectory(b.getRoot().resolve("docs/made")), "the directory is created");
+    }
+
+    /**
+     * Lists the <code>docs</code> directory of B in A, changes it, and checks that A
+     * is notified and its cached listing is removed.
+     * @param change the change of the directory.
+     */
+    private static void checkNotified(Tests.Test change) throws Exception {
+        a.getListings().clear();
+        a.getCore().addOperation(new Operation(Operation.Type.TRANSFER, "B", "A", "./docs", Operation.Mode.INFO));
+        a.waitListing("B", "./docs");
+        Tests.check(a.getCore().getListingCache().get("B", "./docs") != null, "the listing is cached");
+
+        a.getChanges().clear();
+        change.run();
+        Tests.waitFor(() -> a.getChanges().contains("B:docs"), "the change notified");
+        Tests.check(a.getCore().getListingCache().get("B", "./docs") == null, "the cached listing is removed");
+    }
+}
@@ -0,0 +1,143 @@
+package test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.json.JSONObject;
+
+import model.Codec;
+
+/**
+ * Tests of the {@link model.Codec Codecs}: the data gets back the same after
+ * compressing and decompressing it, with the same instance used many times, and the
+ * data that doesn't fit or is corrupted is detected. Also tests sending files
+ * between two nodes with every compression policy.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class CodecTest {
+    public static void main(String[] args) throws Exception {
+        Tests.run("createsEveryCodec", CodecTest::createsEveryCodec);
+        Tests.run("restoresData", CodecTest::restoresData);
+        Tests.run("reusesInstance", CodecTest::reusesInstance);
+        Tests.run("reportsNoFit", CodecTest::reportsNoFit);
+        Tests.run("rejectsCorruptedData", CodecTest::rejectsCorruptedData);
+        Tests.run("sendsAlwaysCompressed", () -> sendsCompressed("always"));
+        Tests.run("sendsAdaptiveCompressed", () -> sendsCompressed("adaptive"));
+        System.out.println("CodecTest: all tests passed");
+    }
+
+    private static void createsEveryCodec() {
+        for (String name : Codec.NAMES) {
+            Codec codec = Codec.create(name);
+            Tests.check(codec != null && codec.getName().equals(name), "codec " + name);
+        }
+        Tests.check(Codec.create("unknown") == null, "no unknown codec");
+    }
+
+    /**
+     * Text gets smaller, and random data fits in a bit more than its size. Both are
+     * restored from heap and direct buffers.
+     */
+    private static void restoresData() throws Exception {
+        for (String name : Codec.NAMES) {
+            byte[] text = text(256 * 1024);
+            int length = checkRestored(Codec.create(name), ByteBuffer.wrap(text), text.length);
+            Tests.check(length < text.length / 2, name + " compresses text");
+
+            byte[] random = TransferTest.random(256 * 1024, 1);
+            ByteBuffer direct = ByteBuffer.allocateDirect(random.length).put(random);
+            checkRestored(Codec.create(name), direct.flip(), random.length + 1024);
+        }
+    }
+
+    /**
+     * The same instance compresses and decompresses many chunks, of different sizes.
+     */
+    private static void reusesInstance() throws Exception {
+        for (String name : Codec.NAMES) {
+            Codec codec = Codec.create(name);
+            for (int i = 1; i <= 20; i++) {
+                byte[] data = i % 2 == 0 ? text(i * 5000) : TransferTest.random(i * 5000, i);
+                checkRestored(codec, ByteBuffer.wrap(data), data.length + 1024);
+            }
+        }
+    }
+
+    private static void reportsNoFit() {
+        for (String name : Codec.NAMES) {
+            byte[] random = TransferTest.random(64 * 1024, 2);
+            Tests.check(Codec.create(name).compress(ByteBuffer.wrap(random), new byte[1000]) == -1, name + " reports no fit");
+        }
+    }
+
+    private static void rejectsCorruptedData() {
+        for (String name : Codec.NAMES) {
+            byte[] corrupted = new byte[100];
+            Arrays.fill(corrupted, (byte) 0xFF);
+            try {
+                Codec.create(name).decompress(corrupted, corrupted.length, ByteBuffer.allocate(1000));
+                throw new AssertionError(name + " rejects corrupted data");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * Sends text and random files between two nodes with a compression policy.
+     * @param compression the policy, as in the configuration file.
+     */
+    private static void sendsCompressed(String compression) throws Exception {
+        Path dir = Tests.createDirectory("codectest");
+        try {
+            TestNode[] nodes = TestNode.start(dir, new JSONObject().put("compression", compression), "A", "B");
+            TestNode a = nodes[0], b = nodes[1];
+
+            byte[][] contents = { text(5 * 1024 * 1024 + 17), TransferTest.random(3 * 1024 * 1024, 3), text(10) };
+            for (int i = 0; i < contents.length; i++) {
+                Files.write(a.getRoot().resolve("file" + i), contents[i]);
+                TransferTest.send(a, b, "./file" + i);
+            }
+            for (int i = 0; i < contents.length; i++) {
+                b.waitMessage("Received: \"file" + i + "\"");
+                Tests.check(Arrays.equals(contents[i], Files.readAllBytes(b.getReceived().resolve("file" + i))), "same content of file" + i);
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    /**
+     * Compresses and decompresses the remaining data of a buffer, and checks that
+     * it's the same.
+     * @param codec the codec.
+     * @param data the data.
+     * @param capacity the space for the compressed data.
+     * @return the compressed data length.
+     */
+    private static int checkRestored(Codec codec, ByteBuffer data, int capacity) throws IOException {
+        byte[] packed = new byte[capacity];
+        int length = codec.compress(data.duplicate(), packed);
+        Tests.check(length > 0, codec.getName() + " compresses");
+
+        ByteBuffer restored = ByteBuffer.allocateDirect(data.remaining());
+        codec.decompress(packed, length, restored);
+        Tests.check(!restored.hasRemaining(), codec.getName() + " restores every byte");
+        Tests.check(restored.flip().equals(data), codec.getName() + " restores the same data");
+        return length;
+    }
+
+    /**
+     * @return text of the specified size.
+     */
+    private static byte[] text(int size) {
+        StringBuilder text = new StringBuilder(size + 100);
+        for (int i = 0; text.length() < size; i++) text.append("Line ").append(i).append(" of the file.\n");
+        return text.substring(0, size).getBytes();
+    }
+}
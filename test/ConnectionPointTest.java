@@ -0,0 +1,165 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import model.CloudCore;
+import model.Codec;
+import model.ConnectionPoint;
+import model.Operation;
+import model.RemoteChannel;
+
+/**
+ * Tests of the {@link model.ConnectionPoint ConnectionPoint} event loop, with raw
+ * connections to a node: the messages are processed however they're split in the
+ * socket, many connections are served by a few workers, and a connection with an
+ * invalid message is closed.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class ConnectionPointTest {
+    /**
+     * Amount of worker threads of the node.
+     */
+    private static final int WORKERS = 4;
+
+    private static TestNode node;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Tests.createDirectory("connectionpointtest");
+        try {
+            node = new TestNode("B", dir).set("receive_workers", WORKERS).start();
+            Tests.waitFor(ConnectionPointTest::isListening, "the node listening");
+
+            Tests.run("readsSplitMessages", ConnectionPointTest::readsSplitMessages);
+            Tests.run("readsJoinedMessages", ConnectionPointTest::readsJoinedMessages);
+            Tests.run("closesInvalidConnection", ConnectionPointTest::closesInvalidConnection);
+            System.out.println("ConnectionPointTest: all tests passed");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    /**
+     * Many connections, each one sending its first message and an Operation in two
+     * halves, one connection after the other.
+     */
+    private static void readsSplitMessages() throws Exception {
+        ArrayList<Socket> sockets = new ArrayList<>();
+        ArrayList<byte[]> messages = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                sockets.add(new Socket("127.0.0.1", node.getPort()));
+                byte[] message = concat(hello("P" + i), operation(new Operation(Operation.Type.MKDIR, "B", "./split" + i)));
+                messages.add(message);
+                sockets.get(i).getOutputStream().write(message, 0, message.length / 2);
+                sockets.get(i).getOutputStream().flush();
+            }
+            for (int i = 0; i < sockets.size(); i++) {
+                byte[] message = messages.get(i);
+                sockets.get(i).getOutputStream().write(message, message.length / 2, message.length - message.length / 2);
+                sockets.get(i).getOutputStream().flush();
+            }
+
+            for (Socket socket : sockets) {
+                Tests.check(new DataInputStream(socket.getInputStream()).readUTF().equals(Codec.NAMES[0]), "the codec reply");
+            }
+            for (int i = 0; i < sockets.size(); i++) {
+                Path created = node.getRoot().resolve("split" + i);
+                Tests.waitFor(() -> Files.isDirectory(created), "the directory " + created.getFileName());
+            }
+            Tests.check(countWorkers() <= WORKERS, countWorkers() + " workers");
+        } finally {
+            for (Socket socket : sockets) socket.close();
+        }
+    }
+
+    /**
+     * Many Operations sent at once, in the same write.
+     */
+    private static void readsJoinedMessages() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", node.getPort())) {
+            ByteArrayOutputStream messages = new ByteArrayOutputStream();
+            messages.write(hello("Q"));
+            for (int i = 0; i < 50; i++) messages.write(operation(new Operation(Operation.Type.MKDIR, "B", "./joined" + i)));
+            socket.getOutputStream().write(messages.toByteArray());
+            socket.getOutputStream().flush();
+
+            for (int i = 0; i < 50; i++) {
+                Path created = node.getRoot().resolve("joined" + i);
+                Tests.waitFor(() -> Files.isDirectory(created), "the directory " + created.getFileName());
+            }
+        }
+    }
+
+    private static void closesInvalidConnection() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", node.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(hello("R"));
+            out.write(new byte[] { 0, 4, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF });
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            in.readUTF();
+            Tests.check(in.read() == -1, "the connection is closed");
+        }
+    }
+
+    /**
+     * @param name the name of the connected node.
+     * @return the first message of a data channel connection.
+     */
+    private static byte[] hello(String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(name);
+        out.writeByte(RemoteChannel.DATA);
+        out.writeByte(Codec.NAMES.length);
+        for (String codec : Codec.NAMES) out.writeUTF(codec);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] operation(Operation op) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        op.write(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] all = new byte[first.length + second.length];
+        System.arraycopy(first, 0, all, 0, first.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        return all;
+    }
+
+    /**
+     * @return the most worker threads the node had at the same time. Only of this
+     * node, since the nodes of the other tests keep running.
+     */
+    private static int countWorkers() throws Exception {
+        Field point = CloudCore.class.getDeclaredField("connectionPointThread");
+        point.setAccessible(true);
+        Field workers = ConnectionPoint.class.getDeclaredField("workers");
+        workers.setAccessible(true);
+        return ((ThreadPoolExecutor) workers.get(point.get(node.getCore()))).getLargestPoolSize();
+    }
+
+    private static boolean isListening() {
+        try {
+            new Socket("127.0.0.1", node.getPort()).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
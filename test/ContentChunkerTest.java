@@ -0,0 +1,149 @@
+package test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import model.ContentChunker;
+
+/**
+ * Tests of the {@link model.ContentChunker ContentChunker}: the chunks cover the
+ * whole file within the size limits, their hashes match their data, and inserting
+ * bytes in a file only changes the chunks around the insertion.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class ContentChunkerTest {
+    public static void main(String[] args) throws Exception {
+        Tests.run("coversRandomFile", ContentChunkerTest::coversRandomFile);
+        Tests.run("coversUniformFile", ContentChunkerTest::coversUniformFile);
+        Tests.run("emptyFile", ContentChunkerTest::emptyFile);
+        Tests.run("keepsChunksAfterInsertion", ContentChunkerTest::keepsChunksAfterInsertion);
+        System.out.println("ContentChunkerTest: all tests passed");
+    }
+
+    /**
+     * A file bigger than the chunker window is split in contiguous chunks of allowed
+     * sizes, identified by the hash of their data.
+     */
+    private static void coversRandomFile() throws Exception {
+        byte[] data = random(10 * 1024 * 1024 + 123, 1);
+        ArrayList<Chunk> chunks = chunk(data);
+        Tests.check(chunks.size() > 1, "more than one chunk");
+        checkCovers(chunks, data.length);
+    }
+
+    /**
+     * Content without boundaries is split in chunks of the maximum size.
+     */
+    private static void coversUniformFile() throws Exception {
+        byte[] data = new byte[3 * ContentChunker.MAX_SIZE + 5];
+        ArrayList<Chunk> chunks = chunk(data);
+        checkCovers(chunks, data.length);
+    }
+
+    private static void emptyFile() throws Exception {
+        Tests.check(chunk(new byte[0]).isEmpty(), "no chunks");
+    }
+
+    /**
+     * After inserting bytes in the middle of a file, only a couple of its chunks
+     * aren't in the new version.
+     */
+    private static void keepsChunksAfterInsertion() throws Exception {
+        byte[] data = random(8 * 1024 * 1024, 2);
+        byte[] inserted = new byte[data.length + 100];
+        int at = data.length / 2;
+        System.arraycopy(data, 0, inserted, 0, at);
+        System.arraycopy(random(100, 3), 0, inserted, at, 100);
+        System.arraycopy(data, at, inserted, at + 100, data.length - at);
+
+        HashSet<String> before = hashes(data), after = hashes(inserted);
+        int changed = 0;
+        for (String hash : before) if (!after.contains(hash)) changed++;
+        Tests.check(changed <= 2, changed + " of " + before.size() + " chunks changed");
+    }
+
+    /**
+     * Checks that the chunks are contiguous from the start to the end of the file,
+     * and that only the last one is smaller than the minimum size.
+     * @param chunks the chunks of the file.
+     * @param size the size of the file.
+     */
+    private static void checkCovers(ArrayList<Chunk> chunks, long size) {
+        long position = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            Tests.check(chunk.offset == position, "chunk " + i + " starts where the previous one ends");
+            Tests.check(chunk.length <= ContentChunker.MAX_SIZE, "chunk " + i + " not bigger than the maximum");
+            Tests.check(chunk.length > ContentChunker.MIN_SIZE || i == chunks.size() - 1, "chunk " + i + " not smaller than the minimum");
+            position += chunk.length;
+        }
+        Tests.check(position == size, "chunks cover the file");
+    }
+
+    /**
+     * Splits the data, written to a temporary file, and checks the hash of every
+     * chunk.
+     * @param data the file content.
+     * @return every chunk.
+     */
+    private static ArrayList<Chunk> chunk(byte[] data) throws Exception {
+        ArrayList<Chunk> chunks = new ArrayList<>();
+        Path file = Files.createTempFile("chunkertest", null);
+        try {
+            Files.write(file, data);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ContentChunker chunker = new ContentChunker(channel);
+                while (chunker.next()) {
+                    ByteBuffer chunkData = chunker.getData();
+                    Tests.check(chunkData.remaining() == chunker.getLength(), "data length");
+                    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                    digest.update(chunkData);
+                    byte[] expected = Arrays.copyOf(digest.digest(), ContentChunker.HASH_SIZE);
+                    Tests.check(Arrays.equals(expected, chunker.getHash()), "hash of the chunk at " + chunker.getOffset());
+
+                    chunks.add(new Chunk(chunker.getOffset(), chunker.getLength(), Arrays.toString(chunker.getHash())));
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+        return chunks;
+    }
+
+    /**
+     * @return the hashes of the chunks of the data, as text.
+     */
+    private static HashSet<String> hashes(byte[] data) throws Exception {
+        HashSet<String> hashes = new HashSet<>();
+        for (Chunk chunk : chunk(data)) hashes.add(chunk.hash);
+        return hashes;
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static class Chunk {
+        private long offset;
+        private int length;
+        private String hash;
+
+        private Chunk(long offset, int length, String hash) {
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package test;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.json.JSONObject;
+
+import model.Operation;
+
+/**
+ * Tests of the data streams between two nodes: many files sent at once are all
+ * received, and a small file or a directory listing doesn't wait for a big file
+ * being sent.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class DataStreamsTest {
+    private static TestNode a, b;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Tests.createDirectory("datastreamstest");
+        try {
+            TestNode[] nodes = TestNode.start(dir, new JSONObject().put("compression", "none").put("data_streams", 2), "A", "B");
+            a = nodes[0];
+            b = nodes[1];
+
+            Tests.run("sendsManyFiles", DataStreamsTest::sendsManyFiles);
+            Tests.run("passesBigFile", DataStreamsTest::passesBigFile);
+            System.out.println("DataStreamsTest: all tests passed");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    private static void sendsManyFiles() throws Exception {
+        int count = 50;
+        for (int i = 0; i < count; i++) {
+            Files.write(a.getRoot().resolve("many" + i + ".bin"), TransferTest.random(10000 + i * 1000, i));
+        }
+        for (int i = 0; i < count; i++) TransferTest.send(a, b, "./many" + i + ".bin");
+
+        for (int i = 0; i < count; i++) {
+            b.waitMessage("Received: \"many" + i + ".bin\"");
+            byte[] data = Files.readAllBytes(b.getReceived().resolve("many" + i + ".bin"));
+            Tests.check(Arrays.equals(TransferTest.random(10000 + i * 1000, i), data), "same content of many" + i + ".bin");
+        }
+    }
+
+    /**
+     * While a big file is sent, a small file sent after it and a directory listing
+     * of the remote node arrive first.
+     */
+    private static void passesBigFile() throws Exception {
+        byte[] block = TransferTest.random(1024 * 1024, 7);
+        try (OutputStream out = Files.newOutputStream(a.getRoot().resolve("big.bin"))) {
+            for (int i = 0; i < 200; i++) out.write(block);
+        }
+        Files.write(a.getRoot().resolve("after.txt"), "after".getBytes("UTF-8"));
+
+        TransferTest.send(a, b, "./big.bin");
+        TransferTest.send(a, b, "./after.txt");
+        a.getCore().addOperation(new Operation(Operation.Type.TRANSFER, "B", "A", ".", Operation.Mode.INFO));
+
+        b.waitMessage("Received: \"after.txt\"");
+        a.waitListing("B", ".");
+        Tests.check(!b.getMessages().contains("Received: \"big.bin\""), "the big file is still being sent");
+
+        b.waitMessage("Received: \"big.bin\"");
+        Tests.check(Files.size(b.getReceived().resolve("big.bin")) == 200L * block.length, "the big file is complete");
+    }
+}
@@ -0,0 +1,184 @@
+package test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import model.ChangeNotifier;
+import model.DirectoryIndex;
+import model.FileTree;
+import model.Operation;
+
+/**
+ * Tests of the {@link model.DirectoryIndex DirectoryIndex}: the listings match the
+ * disk before and after the index is built, and they follow the changes told by
+ * this node and the ones seen by the watcher, changing the version stamp of the
+ * directory.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class DirectoryIndexTest {
+    private static Path root;
+    private static DirectoryIndex index;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Tests.createDirectory("directoryindextest");
+        try {
+            root = Files.createDirectories(dir.resolve("root"));
+            Files.createDirectories(root.resolve("a/b"));
+            Files.write(root.resolve("a/one.txt"), new byte[1]);
+            Files.write(root.resolve("a/b/two.txt"), new byte[2]);
+            index = new DirectoryIndex(root, new FileTree(2), new ChangeNotifier(null));
+
+            Tests.run("listsBeforeBuilt", DirectoryIndexTest::listsBeforeBuilt);
+            Thread thread = new Thread(index);
+            thread.setDaemon(true);
+            thread.start();
+            Tests.waitFor(() -> index.getVersion(".") != 0, "the index built");
+
+            Tests.run("listsTree", DirectoryIndexTest::listsTree);
+            Tests.run("followsUpdates", DirectoryIndexTest::followsUpdates);
+            Tests.run("followsWatcher", DirectoryIndexTest::followsWatcher);
+            Tests.run("indexesNewDirectory", DirectoryIndexTest::indexesNewDirectory);
+            Tests.run("forgetsDeletedDirectory", DirectoryIndexTest::forgetsDeletedDirectory);
+            Tests.run("keepsVersionWithoutChanges", DirectoryIndexTest::keepsVersionWithoutChanges);
+            Tests.run("changesVersion", DirectoryIndexTest::changesVersion);
+            thread.interrupt();
+            System.out.println("DirectoryIndexTest: all tests passed");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    /**
+     * Until the index is built, the listings are read from the disk and have no
+     * version stamp.
+     */
+    private static void listsBeforeBuilt() throws Exception {
+        checkListing("./a");
+        Tests.check(index.getVersion("./a") == 0, "no version stamp");
+    }
+
+    /**
+     * The listings of every directory, however their paths are written, with the
+     * name, last modified time and type of every entry.
+     */
+    private static void listsTree() throws Exception {
+        checkListing(".");
+        checkListing("./a");
+        checkListing("a/b/");
+        Tests.check(index.list("./missing") == null, "no listing of a missing directory");
+
+        ArrayList<String> listing = index.list("./a");
+        String expected = "b" + Operation.SEPARATOR + Files.getLastModifiedTime(root.resolve("a/b")).toMillis() + Operation.SEPARATOR + "true";
+        Tests.check(listing.get(0).equals(expected), "information of b: " + listing.get(0));
+    }
+
+    /**
+     * A change told by this node is listed right away.
+     */
+    private static void followsUpdates() throws Exception {
+        Path file = Files.write(root.resolve("a/updated.txt"), new byte[3]);
+        index.update(file);
+        checkListing("./a");
+
+        Files.delete(file);
+        index.update(file);
+        checkListing("./a");
+    }
+
+    /**
+     * A change made by somebody else is listed once the watcher sees it.
+     */
+    private static void followsWatcher() throws Exception {
+        Path file = Files.write(root.resolve("a/b/watched.txt"), new byte[4]);
+        Tests.waitFor(() -> names("./a/b").contains("watched.txt"), "the new file listed");
+        checkListing("./a/b");
+
+        Files.delete(file);
+        Tests.waitFor(() -> !names("./a/b").contains("watched.txt"), "the deleted file not listed");
+    }
+
+    /**
+     * A new directory with content is indexed with it. The directory is made outside
+     * the root and moved in, so the watcher never sees it half made.
+     */
+    private static void indexesNewDirectory() throws Exception {
+        Path dir = Files.createDirectories(root.resolveSibling("new/inner"));
+        Files.write(dir.resolve("three.txt"), new byte[3]);
+        Files.move(root.resolveSibling("new"), root.resolve("new"));
+        index.update(root.resolve("new"));
+        checkListing(".");
+        checkListing("./new");
+        checkListing("./new/inner");
+    }
+
+    private static void forgetsDeletedDirectory() throws Exception {
+        new FileTree(1).delete(root.resolve("new"));
+        index.update(root.resolve("new"));
+        checkListing(".");
+        Tests.check(index.list("./new/inner") == null, "no listing of a deleted directory");
+        Tests.check(index.getVersion("./new/inner") == 0, "no version stamp of a deleted directory");
+    }
+
+    /**
+     * Listing a directory, or telling the index about an entry that didn't change,
+     * keeps its version stamp.
+     */
+    private static void keepsVersionWithoutChanges() throws Exception {
+        long version = index.getVersion("./a");
+        Tests.check(version != 0, "a version stamp");
+        index.list("./a");
+        index.update(root.resolve("a/one.txt"));
+        Tests.check(index.getVersion("a") == version, "the same version stamp");
+    }
+
+    /**
+     * Every change of an entry gives the directory a newer version stamp, and the
+     * other directories keep theirs.
+     */
+    private static void changesVersion() throws Exception {
+        long version = index.getVersion("./a/b"), other = index.getVersion("./a");
+        Path file = Files.write(root.resolve("a/b/versioned.txt"), new byte[1]);
+        index.update(file);
+        long created = index.getVersion("./a/b");
+        Tests.check(created > version, "newer version after creating");
+
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 60000));
+        index.update(file);
+        long modified = index.getVersion("./a/b");
+        Tests.check(modified > created, "newer version after modifying");
+
+        Files.delete(file);
+        index.update(file);
+        Tests.check(index.getVersion("./a/b") > modified, "newer version after deleting");
+        Tests.waitFor(() -> index.getVersion("./a") != other, "the parent directory last modified time changed");
+    }
+
+    /**
+     * Checks that the listing of a directory has every entry in the disk, sorted by
+     * name.
+     * @param path the root relative path of the directory.
+     */
+    private static void checkListing(String path) throws Exception {
+        ArrayList<String> expected = new ArrayList<>();
+        try (Stream<Path> entries = Files.list(root.resolve(path))) {
+            entries.forEach(entry -> expected.add(entry.getFileName().toString()));
+        }
+        expected.sort(null);
+        Tests.check(names(path).equals(expected), "listing of " + path + ": " + names(path) + ", expected " + expected);
+    }
+
+    /**
+     * @return the names of the files listed in a directory.
+     */
+    private static List<String> names(String path) {
+        ArrayList<String> names = new ArrayList<>();
+        for (String info : index.list(path)) names.add(info.split(Operation.SEPARATOR)[0]);
+        return names;
+    }
+}
@@ -0,0 +1,117 @@
+package test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import model.Execution;
+
+/**
+ * Tests of the {@link model.Execution Execution}: the started threads and workers
+ * are named daemon threads, the bounded workers never run more tasks at once than
+ * their limit, and the virtual threads are only used when this Java version has
+ * them.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class ExecutionTest {
+    public static void main(String[] args) throws Exception {
+        Tests.run("startsNamedDaemon", ExecutionTest::startsNamedDaemon);
+        Tests.run("boundsWorkers", ExecutionTest::boundsWorkers);
+        Tests.run("growsUnboundedWorkers", ExecutionTest::growsUnboundedWorkers);
+        Tests.run("usesVirtualThreadsIfAvailable", ExecutionTest::usesVirtualThreadsIfAvailable);
+        System.out.println("ExecutionTest: all tests passed");
+    }
+
+    private static void startsNamedDaemon() throws Exception {
+        Execution execution = new Execution(Execution.Mode.PLATFORM);
+        CountDownLatch ran = new CountDownLatch(1);
+        Thread thread = execution.start("Task", ran::countDown);
+        Tests.check(thread.getName().equals("Task"), "thread name");
+        Tests.check(thread.isDaemon(), "daemon thread");
+        Tests.check(ran.await(5, TimeUnit.SECONDS), "the task runs");
+    }
+
+    /**
+     * More tasks than the limit, all of them waiting until the test ends them: only
+     * the limit runs at once, in threads named after the workers, and the rest run
+     * later.
+     */
+    private static void boundsWorkers() throws Exception {
+        ExecutorService workers = new Execution(Execution.Mode.PLATFORM).newWorkers("Worker", 3);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(10);
+        AtomicInteger running = new AtomicInteger(), maximum = new AtomicInteger();
+        Set<String> names = Collections.synchronizedSet(new HashSet<>());
+        for (int i = 0; i < 10; i++) {
+            workers.execute(() -> {
+                maximum.accumulateAndGet(running.incrementAndGet(), Math::max);
+                names.add(Thread.currentThread().getName() + (Thread.currentThread().isDaemon() ? "" : " (not daemon)"));
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        Tests.waitFor(() -> running.get() == 3, "3 tasks running");
+        Thread.sleep(200);
+        Tests.check(running.get() == 3, "no more than 3 tasks running");
+
+        release.countDown();
+        Tests.check(done.await(5, TimeUnit.SECONDS), "every task runs");
+        Tests.check(maximum.get() == 3, "at most 3 tasks at once, " + maximum.get());
+        Tests.check(names.equals(Set.of("Worker 1", "Worker 2", "Worker 3")), "thread names " + names);
+        workers.shutdown();
+    }
+
+    /**
+     * Without a limit, every task runs at once.
+     */
+    private static void growsUnboundedWorkers() throws Exception {
+        ExecutorService workers = new Execution(Execution.Mode.PLATFORM).newWorkers("Worker");
+        CountDownLatch started = new CountDownLatch(20);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 20; i++) {
+            workers.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+            });
+        }
+        Tests.check(started.await(5, TimeUnit.SECONDS), "every task runs at once");
+        release.countDown();
+        workers.shutdown();
+    }
+
+    /**
+     * In Java 21 or newer the threads are virtual; before, the platform ones are
+     * used instead.
+     */
+    private static void usesVirtualThreadsIfAvailable() throws Exception {
+        Execution execution = new Execution(Execution.Mode.VIRTUAL);
+        boolean available = Runtime.version().feature() >= 21;
+        Tests.check(execution.getMode() == (available ? Execution.Mode.VIRTUAL : Execution.Mode.PLATFORM), "mode " + execution.getMode());
+
+        CountDownLatch ran = new CountDownLatch(1);
+        Thread thread = execution.start("Task", ran::countDown);
+        Tests.check(ran.await(5, TimeUnit.SECONDS), "the task runs");
+        Tests.check(thread.getName().equals("Task"), "thread name");
+        Tests.check(thread.isDaemon(), "daemon thread");
+        if (available) Tests.check((Boolean) Thread.class.getMethod("isVirtual").invoke(thread), "virtual thread");
+
+        ExecutorService workers = execution.newWorkers("Worker", 2);
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) workers.execute(done::countDown);
+        Tests.check(done.await(5, TimeUnit.SECONDS), "the workers run");
+        workers.shutdown();
+    }
+}
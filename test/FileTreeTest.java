@@ -0,0 +1,144 @@
+package test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import model.FileTree;
+
+/**
+ * Tests of the {@link model.FileTree FileTree}: a tree is deleted or walked
+ * completely, including big directories split in several tasks, the counts match
+ * the entries, and symbolic links aren't followed.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class FileTreeTest {
+    private static FileTree fileTree = new FileTree(4);
+
+    public static void main(String[] args) throws Exception {
+        Tests.run("deletesTree", FileTreeTest::deletesTree);
+        Tests.run("deletesFile", FileTreeTest::deletesFile);
+        Tests.run("countsNothingMissing", FileTreeTest::countsNothingMissing);
+        Tests.run("keepsLinkTarget", FileTreeTest::keepsLinkTarget);
+        Tests.run("walksEveryEntry", FileTreeTest::walksEveryEntry);
+        System.out.println("FileTreeTest: all tests passed");
+    }
+
+    private static void deletesTree() throws Exception {
+        Path dir = Tests.createDirectory("filetreetest");
+        try {
+            Path root = dir.resolve("tree");
+            int entries = createTree(root);
+            FileTree.Count count = fileTree.delete(root);
+            Tests.check(count.getDone() == entries + 1 && count.getFailed() == 0, "deleted " + count.getDone() + " of " + (entries + 1) + ", failed " + count.getFailed());
+            Tests.check(!Files.exists(root), "the tree is deleted");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    private static void deletesFile() throws Exception {
+        Path dir = Tests.createDirectory("filetreetest");
+        try {
+            Path file = Files.write(dir.resolve("file.txt"), new byte[10]);
+            FileTree.Count count = fileTree.delete(file);
+            Tests.check(count.getDone() == 1 && count.getFailed() == 0, "one deleted");
+            Tests.check(!Files.exists(file), "the file is deleted");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    private static void countsNothingMissing() throws Exception {
+        Path dir = Tests.createDirectory("filetreetest");
+        try {
+            FileTree.Count count = fileTree.delete(dir.resolve("missing"));
+            Tests.check(count.getDone() == 0 && count.getFailed() == 0, "nothing counted");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    /**
+     * A link to a directory outside the tree is deleted, and the content of the
+     * directory is kept.
+     */
+    private static void keepsLinkTarget() throws Exception {
+        Path dir = Tests.createDirectory("filetreetest");
+        try {
+            Path outside = Files.createDirectories(dir.resolve("outside"));
+            Files.write(outside.resolve("kept.txt"), new byte[10]);
+            Path root = Files.createDirectories(dir.resolve("tree"));
+            try {
+                Files.createSymbolicLink(root.resolve("link"), outside);
+            } catch (UnsupportedOperationException | IOException e) {
+                // Without links in this file system there's nothing to test
+                return;
+            }
+
+            FileTree.Count count = fileTree.delete(root);
+            Tests.check(count.getDone() == 2 && count.getFailed() == 0, "the link and the tree deleted");
+            Tests.check(!Files.exists(root), "the tree is deleted");
+            Tests.check(Files.exists(outside.resolve("kept.txt")), "the link target is kept");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    /**
+     * Every entry is visited once, with its attributes, and the directory itself
+     * isn't.
+     */
+    private static void walksEveryEntry() throws Exception {
+        Path dir = Tests.createDirectory("filetreetest");
+        try {
+            Path root = dir.resolve("tree");
+            int entries = createTree(root);
+            Map<Path, Boolean> visited = new ConcurrentHashMap<>();
+            FileTree.Count count = fileTree.walk(root, (path, attrs) -> {
+                if (visited.put(path, attrs.isDirectory()) != null) throw new AssertionError(path + " visited twice");
+            });
+
+            Tests.check(count.getDone() == entries && count.getFailed() == 0, "visited " + count.getDone() + " of " + entries);
+            Tests.check(visited.size() == entries, "every entry visited");
+            Tests.check(!visited.containsKey(root), "the directory isn't visited");
+            for (Map.Entry<Path, Boolean> entry : visited.entrySet()) {
+                Tests.check(entry.getValue() == Files.isDirectory(entry.getKey()), "attributes of " + entry.getKey());
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    /**
+     * Creates a tree with nested directories and a directory with more entries than
+     * a single task processes.
+     * @param root the directory of the tree.
+     * @return the amount of entries inside the tree.
+     */
+    private static int createTree(Path root) throws Exception {
+        int entries = 0;
+        Path big = Files.createDirectories(root.resolve("big"));
+        entries++;
+        for (int i = 0; i < 1500; i++) {
+            Files.write(big.resolve("file" + i), new byte[i % 10]);
+            entries++;
+        }
+
+        Path nested = root;
+        for (int level = 0; level < 5; level++) {
+            nested = Files.createDirectories(nested.resolve("level" + level));
+            entries++;
+            for (int i = 0; i < 3; i++) {
+                Files.write(nested.resolve("file" + i), new byte[1]);
+                entries++;
+            }
+        }
+        Files.createDirectories(root.resolve("empty"));
+        return entries + 1;
+    }
+}
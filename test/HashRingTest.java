@@ -0,0 +1,91 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import model.HashRing;
+
+/**
+ * Tests of the {@link model.HashRing HashRing} placement: every node appears once
+ * for every key, the placement only depends on the node names, the keys are spread
+ * evenly, and removing a node only moves its own keys.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class HashRingTest {
+    /**
+     * Amount of keys placed by every test.
+     */
+    private static final int KEYS = 30000;
+
+    public static void main(String[] args) throws Exception {
+        Tests.run("listsEveryNodeOnce", HashRingTest::listsEveryNodeOnce);
+        Tests.run("ignoresNodesOrder", HashRingTest::ignoresNodesOrder);
+        Tests.run("spreadsKeysEvenly", HashRingTest::spreadsKeysEvenly);
+        Tests.run("movesOnlyRemovedNodeKeys", HashRingTest::movesOnlyRemovedNodeKeys);
+        Tests.run("emptyRing", HashRingTest::emptyRing);
+        System.out.println("HashRingTest: all tests passed");
+    }
+
+    private static void listsEveryNodeOnce() {
+        HashRing ring = new HashRing(List.of("A", "B", "C", "D"), 128);
+        for (int i = 0; i < KEYS; i++) {
+            ArrayList<String> nodes = ring.nodes(key(i));
+            Tests.check(nodes.size() == 4 && new HashSet<>(nodes).size() == 4, "every node once for " + key(i));
+        }
+
+        // A repeated name is still one node
+        Tests.check(new HashRing(List.of("A", "B", "A"), 16).nodes("x").size() == 2, "repeated node");
+    }
+
+    private static void ignoresNodesOrder() {
+        HashRing ring = new HashRing(List.of("A", "B", "C"), 128);
+        HashRing reordered = new HashRing(List.of("C", "A", "B"), 128);
+        for (int i = 0; i < KEYS; i++) Tests.check(ring.nodes(key(i)).equals(reordered.nodes(key(i))), "same nodes for " + key(i));
+    }
+
+    /**
+     * Every node is the first one of between half and one and a half times its share
+     * of the keys.
+     */
+    private static void spreadsKeysEvenly() {
+        List<String> names = List.of("A", "B", "C", "D", "E");
+        HashRing ring = new HashRing(names, 128);
+        HashMap<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) counts.merge(ring.nodes(key(i)).get(0), 1, Integer::sum);
+
+        int share = KEYS / names.size();
+        for (String name : names) {
+            int count = counts.getOrDefault(name, 0);
+            Tests.check(count > share / 2 && count < share * 3 / 2, name + " has " + count + " keys, expected about " + share);
+        }
+    }
+
+    /**
+     * The keys of the other nodes keep their node, and the order of the remaining
+     * nodes doesn't change.
+     */
+    private static void movesOnlyRemovedNodeKeys() {
+        HashRing ring = new HashRing(List.of("A", "B", "C", "D"), 128);
+        HashRing smaller = new HashRing(List.of("A", "B", "D"), 128);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            ArrayList<String> nodes = ring.nodes(key(i));
+            if (nodes.get(0).equals("C")) moved++;
+            nodes.remove("C");
+            Tests.check(nodes.equals(smaller.nodes(key(i))), "same order without C for " + key(i));
+        }
+        Tests.check(moved > 0, "C had keys");
+    }
+
+    private static void emptyRing() {
+        Tests.check(new HashRing(List.of(), 128).nodes("x").isEmpty(), "no nodes");
+    }
+
+    private static String key(int number) {
+        return "file" + number + ".txt";
+    }
+}
@@ -0,0 +1,156 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import model.ListingCache;
+
+/**
+ * Tests of the {@link model.ListingCache ListingCache}: the parts of a listing are
+ * joined only when they follow each other, the listings expire and are renewed,
+ * the changes remove the affected listings, and the least recently used listings
+ * are removed when there are too many files.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class ListingCacheTest {
+    public static void main(String[] args) throws Exception {
+        Tests.run("joinsParts", ListingCacheTest::joinsParts);
+        Tests.run("dropsUnjoinableParts", ListingCacheTest::dropsUnjoinableParts);
+        Tests.run("expiresAndRenews", ListingCacheTest::expiresAndRenews);
+        Tests.run("invalidatesDirectory", ListingCacheTest::invalidatesDirectory);
+        Tests.run("invalidatesEntry", ListingCacheTest::invalidatesEntry);
+        Tests.run("invalidatesNode", ListingCacheTest::invalidatesNode);
+        Tests.run("evictsLeastRecentlyUsed", ListingCacheTest::evictsLeastRecentlyUsed);
+        System.out.println("ListingCacheTest: all tests passed");
+    }
+
+    /**
+     * The parts of a listing are joined, whatever way the path is written, and a new
+     * first part replaces it.
+     */
+    private static void joinsParts() {
+        ListingCache cache = new ListingCache(1000, 60000);
+        cache.put("B", "./dir", files(0, 3), 0, 5, 7);
+        cache.put("B", "dir/", files(3, 2), 3, 5, 7);
+        ListingCache.Listing listing = cache.get("B", "dir");
+        Tests.check(listing.getFiles().equals(files(0, 5)) && listing.getTotal() == 5 && listing.getVersion() == 7, "the joined listing");
+        Tests.check(listing.isFresh(), "a fresh listing");
+        Tests.check(cache.get("C", "./dir") == null, "no listing of another node");
+
+        cache.put("B", "./dir", files(10, 1), 0, 1, 8);
+        listing = cache.get("B", "./dir");
+        Tests.check(listing.getFiles().equals(files(10, 1)) && listing.getVersion() == 8, "the replaced listing");
+    }
+
+    /**
+     * A part of another version, or that doesn't follow the cached files, removes the
+     * listing.
+     */
+    private static void dropsUnjoinableParts() {
+        ListingCache cache = new ListingCache(1000, 60000);
+        cache.put("B", "./dir", files(0, 3), 0, 6, 7);
+        cache.put("B", "./dir", files(3, 3), 3, 6, 8);
+        Tests.check(cache.get("B", "./dir") == null, "another version");
+
+        cache.put("B", "./dir", files(0, 3), 0, 6, 7);
+        cache.put("B", "./dir", files(4, 2), 4, 6, 7);
+        Tests.check(cache.get("B", "./dir") == null, "a gap");
+
+        cache.put("B", "./other", files(3, 3), 3, 6, 7);
+        Tests.check(cache.get("B", "./other") == null, "no first part");
+    }
+
+    private static void expiresAndRenews() throws Exception {
+        ListingCache cache = new ListingCache(1000, 100);
+        cache.put("B", "./dir", files(0, 3), 0, 3, 7);
+        Thread.sleep(150);
+        Tests.check(!cache.get("B", "./dir").isFresh(), "an expired listing");
+
+        Tests.check(cache.renew("B", "./dir", 6) == null, "not renewed with another version");
+        Tests.check(!cache.get("B", "./dir").isFresh(), "still expired");
+        ListingCache.Listing renewed = cache.renew("B", "./dir", 7);
+        Tests.check(renewed != null && renewed.getFiles().equals(files(0, 3)), "renewed with the same version");
+        Tests.check(cache.get("B", "./dir").isFresh(), "fresh again");
+    }
+
+    /**
+     * A changed directory removes its own listing, the ones inside it and the one of
+     * its parent, and no other.
+     */
+    private static void invalidatesDirectory() {
+        ListingCache cache = filled();
+        cache.invalidate("B", "./a/b");
+        Tests.check(cached(cache).equals(List.of("B:", "B:a/bc", "B:d", "C:a")), "remaining " + cached(cache));
+
+        cache = filled();
+        cache.invalidate("B", ".");
+        Tests.check(cached(cache).equals(List.of("C:a")), "remaining " + cached(cache));
+    }
+
+    /**
+     * A changed entry removes its own listing and the one of its parent.
+     */
+    private static void invalidatesEntry() {
+        ListingCache cache = filled();
+        cache.invalidateEntry("B", "./a/b");
+        Tests.check(cached(cache).equals(List.of("B:", "B:a/b/c", "B:a/bc", "B:d", "C:a")), "remaining " + cached(cache));
+
+        cache = filled();
+        cache.invalidateEntry("B", "./file.txt");
+        Tests.check(cached(cache).equals(List.of("B:a", "B:a/b", "B:a/b/c", "B:a/bc", "B:d", "C:a")), "remaining " + cached(cache));
+    }
+
+    private static void invalidatesNode() {
+        ListingCache cache = filled();
+        cache.invalidate("B");
+        Tests.check(cached(cache).equals(List.of("C:a")), "remaining " + cached(cache));
+    }
+
+    /**
+     * Over the limit of files, the least recently used listings are removed; getting
+     * a listing makes it the most recently used.
+     */
+    private static void evictsLeastRecentlyUsed() {
+        ListingCache cache = new ListingCache(10, 60000);
+        cache.put("B", "./one", files(0, 4), 0, 4, 1);
+        cache.put("B", "./two", files(0, 4), 0, 4, 1);
+        cache.get("B", "./one");
+        cache.put("B", "./three", files(0, 4), 0, 4, 1);
+        Tests.check(cache.get("B", "./two") == null, "the least recently used is removed");
+        Tests.check(cache.get("B", "./one") != null && cache.get("B", "./three") != null, "the others are kept");
+
+        cache.put("B", "./big", files(0, 11), 0, 11, 1);
+        Tests.check(cache.get("B", "./big") == null && cache.get("B", "./one") == null, "a listing bigger than the limit removes everything");
+    }
+
+    /**
+     * @return a cache with listings of several directories of two nodes.
+     */
+    private static ListingCache filled() {
+        ListingCache cache = new ListingCache(1000, 60000);
+        for (String path : List.of(".", "./a", "./a/b", "./a/b/c", "./a/bc", "./d")) cache.put("B", path, files(0, 1), 0, 1, 1);
+        cache.put("C", "./a", files(0, 1), 0, 1, 1);
+        return cache;
+    }
+
+    /**
+     * @return the cached listings of the directories of {@link #filled()}, as
+     * <code>"node:path"</code>.
+     */
+    private static List<String> cached(ListingCache cache) {
+        ArrayList<String> cached = new ArrayList<>();
+        for (String path : List.of("", "a", "a/b", "a/b/c", "a/bc", "d")) {
+            if (cache.get("B", path) != null) cached.add("B:" + path);
+        }
+        if (cache.get("C", "a") != null) cached.add("C:a");
+        return cached;
+    }
+
+    private static ArrayList<String> files(int first, int count) {
+        ArrayList<String> files = new ArrayList<>();
+        for (int i = first; i < first + count; i++) files.add("file" + i + ":0:false");
+        return files;
+    }
+}
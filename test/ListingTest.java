@@ -0,0 +1,181 @@
+package test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+
+import model.Operation;
+
+/**
+ * Tests of the directory listings between two nodes: a big directory is listed in
+ * pages, every page arrives in parts as it's sent, and the parts follow each other
+ * in name order. A listing the requester already has isn't sent again.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class ListingTest {
+    /**
+     * Amount of files of the listed directory.
+     */
+    private static final int FILES = 2500;
+
+    private static TestNode a, b;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Tests.createDirectory("listingtest");
+        try {
+            TestNode[] nodes = TestNode.start(dir, new JSONObject(), "A", "B");
+            a = nodes[0];
+            b = nodes[1];
+            Path many = Files.createDirectories(b.getRoot().resolve("many"));
+            for (int i = 0; i < FILES; i++) Files.write(many.resolve(String.format("file%05d", i)), new byte[0]);
+
+            Tests.run("listsFirstPage", ListingTest::listsFirstPage);
+            Tests.run("listsLastPage", ListingTest::listsLastPage);
+            Tests.run("listsWholeDirectory", ListingTest::listsWholeDirectory);
+            Tests.run("listsPastEnd", ListingTest::listsPastEnd);
+            Tests.run("listsLocalPage", ListingTest::listsLocalPage);
+            Tests.run("skipsKnownListing", () -> skipsKnownListing(a));
+            Tests.run("skipsKnownLocalListing", () -> skipsKnownListing(b));
+            Tests.run("listsChangedDirectory", ListingTest::listsChangedDirectory);
+            System.out.println("ListingTest: all tests passed");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    private static void listsFirstPage() throws Exception {
+        List<TestNode.Listing> parts = list(b, "./many", 0, 1000, 1000);
+        Tests.check(parts.size() > 1, "the page arrives in parts");
+        checkPage(parts, 0, 1000);
+    }
+
+    private static void listsLastPage() throws Exception {
+        checkPage(list(b, "./many", 2000, 1000, 500), 2000, 500);
+    }
+
+    private static void listsWholeDirectory() throws Exception {
+        checkPage(list(b, "./many", 0, 0, FILES), 0, FILES);
+    }
+
+    /**
+     * A page past the end of the directory is empty, but tells the amount of files.
+     */
+    private static void listsPastEnd() throws Exception {
+        List<TestNode.Listing> parts = list(b, "./many", FILES + 10, 1000, 0);
+        Tests.check(parts.size() == 1 && parts.get(0).files.isEmpty() && parts.get(0).total == FILES, "an empty page");
+    }
+
+    /**
+     * The local directories are listed in pages too.
+     */
+    private static void listsLocalPage() throws Exception {
+        checkPage(list(b, b, "./many", 1000, 1000, 1000), 1000, 1000);
+    }
+
+    /**
+     * A listing requested with the version stamp the requester already has isn't
+     * sent again.
+     * @param requester the node that requests the listing of the directory of B.
+     */
+    private static void skipsKnownListing(TestNode requester) throws Exception {
+        long version = list(requester, b, "./many", 0, 10, 10).get(0).version;
+        Tests.check(version != 0, "the listing has a version stamp");
+
+        requester.getListings().clear();
+        requester.getNotModified().clear();
+        request(requester, b, "./many", 0, 10, version);
+        Tests.waitFor(() -> !requester.getNotModified().isEmpty(), "the listing not modified");
+        TestNode.Listing notModified = requester.getNotModified().get(0);
+        Tests.check(notModified.node.equals("B") && notModified.path.equals("./many") && notModified.version == version, "the same version of the directory");
+        Tests.check(requester.getListings().isEmpty(), "no files sent");
+    }
+
+    /**
+     * After a change, the directory is listed again with a new version stamp.
+     */
+    private static void listsChangedDirectory() throws Exception {
+        long version = list(b, "./many", 0, 10, 10).get(0).version;
+        Files.write(b.getRoot().resolve("many/new"), new byte[0]);
+        Tests.waitFor(() -> b.getCore().getDirectoryIndex().getVersion("./many") != version, "a new version stamp");
+
+        a.getListings().clear();
+        a.getNotModified().clear();
+        request(a, b, "./many", 0, 10, version);
+        TestNode.Listing listing = a.waitListing("B", "./many");
+        Tests.check(listing.version != version && listing.total == FILES + 1, "the new listing");
+        Tests.check(a.getNotModified().isEmpty(), "not skipped");
+    }
+
+    /**
+     * Requests to A a page of a directory of a remote node, and waits until all of it
+     * arrives.
+     * @param node the node of the directory.
+     * @param path the path of the directory.
+     * @param offset the position of the first requested file.
+     * @param limit the amount of requested files, 0 for all of them.
+     * @param expected the amount of files that arrive.
+     * @return the parts of the page.
+     */
+    private static List<TestNode.Listing> list(TestNode node, String path, int offset, int limit, int expected) throws Exception {
+        return list(a, node, path, offset, limit, expected);
+    }
+
+    private static List<TestNode.Listing> list(TestNode requester, TestNode node, String path, int offset, int limit, int expected) throws Exception {
+        requester.getListings().clear();
+        request(requester, node, path, offset, limit, 0);
+
+        Tests.waitFor(() -> count(requester.getListings()) >= expected && !requester.getListings().isEmpty(), expected + " files listed");
+        Thread.sleep(100);
+        Tests.check(count(requester.getListings()) == expected, count(requester.getListings()) + " files listed, expected " + expected);
+        synchronized (requester.getListings()) {
+            return new ArrayList<>(requester.getListings());
+        }
+    }
+
+    /**
+     * Requests a page of a directory.
+     * @param requester the node that requests it.
+     * @param node the node of the directory.
+     * @param path the path of the directory.
+     * @param offset the position of the first requested file.
+     * @param limit the amount of requested files, 0 for all of them.
+     * @param version the version stamp of the listing the requester has, 0 if none.
+     */
+    private static void request(TestNode requester, TestNode node, String path, int offset, int limit, long version) {
+        if (node == requester) requester.getCore().addOperation(new Operation(Operation.Type.LISTDIR, null, node.getName(), path, null, offset, limit, version));
+        else requester.getCore().addOperation(new Operation(Operation.Type.TRANSFER, node.getName(), requester.getName(), path, Operation.Mode.INFO, offset, limit, version));
+    }
+
+    /**
+     * Checks that the parts of a page follow each other from its start, with the
+     * files in name order.
+     * @param parts the parts of the page.
+     * @param offset the position of the first file of the page.
+     * @param size the amount of files of the page.
+     */
+    private static void checkPage(List<TestNode.Listing> parts, int offset, int size) {
+        int position = offset;
+        for (TestNode.Listing part : parts) {
+            Tests.check(part.offset == position, "part at " + part.offset + ", expected " + position);
+            Tests.check(part.total == FILES, "total " + part.total);
+            for (String info : part.files) {
+                String expected = String.format("file%05d", position++);
+                Tests.check(info.startsWith(expected + Operation.SEPARATOR), info + ", expected " + expected);
+            }
+        }
+        Tests.check(position == offset + size, "page size " + (position - offset));
+    }
+
+    private static int count(List<TestNode.Listing> listings) {
+        int count = 0;
+        synchronized (listings) {
+            for (TestNode.Listing listing : listings) count += listing.files.size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,204 @@
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import model.Operation;
+import model.Operation.Change;
+import model.Operation.Mode;
+import model.Operation.Type;
+
+/**
+ * Tests of the {@link model.Operation Operation} binary codec: every field survives
+ * an encode/decode round trip, the length-prefixed frames can be read one after
+ * another, and invalid data is rejected with an <code>IOException</code>. The
+ * sequence number is only encoded when it's set, and an Operation that doesn't fit
+ * in a frame isn't encoded.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class OperationTest {
+    public static void main(String[] args) throws Exception {
+        Tests.run("roundTripsEveryField", OperationTest::roundTripsEveryField);
+        Tests.run("roundTripsChanges", OperationTest::roundTripsChanges);
+        Tests.run("roundTripsSequence", OperationTest::roundTripsSequence);
+        Tests.run("readsConsecutiveFrames", OperationTest::readsConsecutiveFrames);
+        Tests.run("rejectsInvalidData", OperationTest::rejectsInvalidData);
+        Tests.run("rejectsTooLong", OperationTest::rejectsTooLong);
+        Tests.run("parsesLegacyText", OperationTest::parsesLegacyText);
+        System.out.println("OperationTest: all tests passed");
+    }
+
+    /**
+     * The optional fields are kept when they're present, and stay empty when not.
+     */
+    private static void roundTripsEveryField() throws Exception {
+        Operation paged = new Operation(Type.TRANSFER, "A", "B", "./d\u00edr/\u00f1.txt", Mode.INFO, 256, 512, 1234567890123L);
+        Operation decoded = Operation.decode(paged.encode());
+        Tests.check(decoded.getType() == Type.TRANSFER, "type");
+        Tests.check(decoded.getSource().equals("A") && decoded.getTarget().equals("B"), "source and target");
+        Tests.check(decoded.getPath().equals("./d\u00edr/\u00f1.txt"), "non-ASCII path");
+        Tests.check(decoded.getMode() == Mode.INFO, "mode");
+        Tests.check(decoded.getOffset() == 256 && decoded.getLimit() == 512, "page");
+        Tests.check(decoded.getVersion() == 1234567890123L, "version");
+        Tests.check(decoded.getChanges() == null, "no changes");
+
+        Operation minimal = Operation.decode(new Operation(Type.MKDIR, "B", "./d").encode());
+        Tests.check(minimal.getType() == Type.MKDIR && minimal.getTarget().equals("B") && minimal.getPath().equals("./d"), "MKDIR fields");
+        Tests.check(minimal.getSource() == null && minimal.getMode() == null, "absent source and mode");
+        Tests.check(minimal.getOffset() == 0 && minimal.getLimit() == 0 && minimal.getVersion() == 0, "absent page and version");
+
+        Operation listdir = Operation.decode(new Operation(Type.LISTDIR, null, "B", ".", null, 0, 100, 0).encode());
+        Tests.check(listdir.getSource() == null && listdir.getOffset() == 0 && listdir.getLimit() == 100, "page with offset 0");
+    }
+
+    /**
+     * The changes of a <code>NOTIFY</code> are kept in order, and an empty list (a
+     * subscription) isn't decoded as no list.
+     */
+    private static void roundTripsChanges() throws Exception {
+        ArrayList<Change> changes = new ArrayList<>();
+        changes.add(new Change(Change.Kind.CREATED, "a"));
+        changes.add(new Change(Change.Kind.DELETED, "b/c"));
+        changes.add(new Change(Change.Kind.MODIFIED, ""));
+        Operation decoded = Operation.decode(new Operation("A", "B", changes).encode());
+        Tests.check(decoded.getType() == Type.NOTIFY, "type");
+        Tests.check(decoded.getChanges().size() == 3, "amount of changes");
+        for (int i = 0; i < changes.size(); i++) {
+            Tests.check(decoded.getChanges().get(i).getKind() == changes.get(i).getKind(), "kind of change " + i);
+            Tests.check(decoded.getChanges().get(i).getPath().equals(changes.get(i).getPath()), "path of change " + i);
+        }
+
+        Operation subscription = Operation.decode(new Operation("A", "B", new ArrayList<>()).encode());
+        Tests.check(subscription.getChanges() != null && subscription.getChanges().isEmpty(), "empty changes");
+    }
+
+    /**
+     * A numbered Operation keeps its sequence, and an unnumbered one doesn't grow.
+     */
+    private static void roundTripsSequence() throws Exception {
+        Operation op = new Operation(Type.MKDIR, "B", "./d");
+        int unnumbered = op.encode().length;
+        Tests.check(Operation.decode(op.encode()).getSequence() == 0, "unnumbered");
+
+        op.setSequence(Long.MAX_VALUE - 1);
+        byte[] data = op.encode();
+        Tests.check(data.length == unnumbered + 8, "sequence encoded only when set");
+        Operation decoded = Operation.decode(data);
+        Tests.check(decoded.getSequence() == Long.MAX_VALUE - 1, "sequence");
+        Tests.check(decoded.getPath().equals("./d"), "fields before the sequence");
+    }
+
+    /**
+     * Every frame is read up to its end, so the next one starts right after it.
+     */
+    private static void readsConsecutiveFrames() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        new Operation(Type.DELETE, "B", "./x").write(out);
+        new Operation(Type.SEND, "A", "B", "./y", Mode.DATA).write(out);
+        out.writeByte(42);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Tests.check(Operation.read(in).getType() == Type.DELETE, "first frame");
+        Operation second = Operation.read(in);
+        Tests.check(second.getType() == Type.SEND && second.getPath().equals("./y"), "second frame");
+        Tests.check(in.readByte() == 42, "data after the frames");
+    }
+
+    /**
+     * An unknown type or a truncated Operation can't be decoded.
+     */
+    private static void rejectsInvalidData() throws Exception {
+        byte[] data = new Operation(Type.SEND, "A", "B", "./f", Mode.DATA).encode();
+
+        byte[] unknownType = data.clone();
+        unknownType[0] = 99;
+        Tests.check(fails(unknownType), "unknown type rejected");
+
+        byte[] unknownMode = data.clone();
+        unknownMode[data.length - 1] = 99;
+        Tests.check(fails(unknownMode), "unknown mode rejected");
+
+        Tests.check(fails(Arrays.copyOf(data, data.length - 2)), "truncated Operation rejected");
+        Tests.check(fails(new byte[0]), "empty data rejected");
+    }
+
+    /**
+     * An Operation that doesn't fit in a frame, with room for its sequence, isn't
+     * encoded, instead of being truncated.
+     */
+    private static void rejectsTooLong() throws Exception {
+        char[] name = new char[Operation.MAX_LENGTH - 20];
+        Arrays.fill(name, 'a');
+        Operation fits = new Operation(Type.MKDIR, "B", new String(name));
+        fits.encode();
+        fits.setSequence(1);
+        Tests.check(fits.encode().length <= Operation.MAX_LENGTH, "Operation with its sequence fits");
+
+        Operation tooLong = new Operation(Type.MKDIR, "B", new String(name) + "aaaaaaaaaa");
+        Tests.check(failsEncoding(tooLong), "too long Operation rejected");
+        Tests.check(failsWriting(tooLong), "too long frame not written");
+
+        ArrayList<Change> changes = new ArrayList<>();
+        for (int i = 0; i <= Operation.MAX_LENGTH; i++) changes.add(new Change(Change.Kind.CREATED, ""));
+        Tests.check(failsEncoding(new Operation("A", "B", changes)), "too many changes rejected");
+    }
+
+    /**
+     * The Operations of the old text queue files are read with the same fields.
+     */
+    private static void parsesLegacyText() {
+        Operation send = Operation.parseLegacy("SEND,B:./f.txt:data");
+        Tests.check(send.getType() == Type.SEND && send.getTarget().equals("B") && send.getPath().equals("./f.txt") && send.getMode() == Mode.DATA, "SEND");
+
+        Operation transfer = Operation.parseLegacy("TRANSFER,B:A:./d:info");
+        Tests.check(transfer.getSource().equals("B") && transfer.getTarget().equals("A") && transfer.getMode() == Mode.INFO, "TRANSFER");
+
+        Operation delete = Operation.parseLegacy("DELETE,B:./old");
+        Tests.check(delete.getType() == Type.DELETE && delete.getTarget().equals("B") && delete.getPath().equals("./old"), "DELETE");
+    }
+
+    /**
+     * @return <code>true</code> if the Operation can't be encoded.
+     */
+    private static boolean failsEncoding(Operation op) {
+        try {
+            op.encode();
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the Operation can't be written, and nothing was.
+     */
+    private static boolean failsWriting(Operation op) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            op.write(new DataOutputStream(bytes));
+            return false;
+        } catch (IOException e) {
+            return bytes.size() == 0;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the data can't be decoded.
+     */
+    private static boolean fails(byte[] data) {
+        try {
+            Operation.decode(data);
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+}
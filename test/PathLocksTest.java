@@ -0,0 +1,143 @@
+package test;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import model.PathLocks;
+
+/**
+ * Tests of the {@link model.PathLocks PathLocks}: the threads using the same path
+ * exclude each other, the ones using different paths don't, and the mutex of a
+ * path is removed when no thread uses it.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class PathLocksTest {
+    public static void main(String[] args) throws Exception {
+        Tests.run("excludesSamePath", PathLocksTest::excludesSamePath);
+        Tests.run("allowsOtherPaths", PathLocksTest::allowsOtherPaths);
+        Tests.run("excludesManyThreads", PathLocksTest::excludesManyThreads);
+        Tests.run("forgetsInterruptedWaiter", PathLocksTest::forgetsInterruptedWaiter);
+        System.out.println("PathLocksTest: all tests passed");
+    }
+
+    /**
+     * A thread waits for the path until the one using it releases it.
+     */
+    private static void excludesSamePath() throws Exception {
+        PathLocks locks = new PathLocks();
+        locks.acquire("a.txt");
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread other = new Thread(() -> {
+            try {
+                locks.acquire("a.txt");
+                acquired.countDown();
+                locks.release("a.txt");
+            } catch (InterruptedException e) {
+            }
+        });
+        other.start();
+        Tests.check(!acquired.await(300, TimeUnit.MILLISECONDS), "waits while the path is in use");
+
+        locks.release("a.txt");
+        Tests.check(acquired.await(5, TimeUnit.SECONDS), "takes the released path");
+        other.join();
+        Tests.check(paths(locks).isEmpty(), "no mutexes left");
+    }
+
+    private static void allowsOtherPaths() throws Exception {
+        PathLocks locks = new PathLocks();
+        locks.acquire("a.txt");
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread other = new Thread(() -> {
+            try {
+                locks.acquire("b.txt");
+                acquired.countDown();
+                locks.release("b.txt");
+            } catch (InterruptedException e) {
+            }
+        });
+        other.start();
+        Tests.check(acquired.await(5, TimeUnit.SECONDS), "takes another path");
+        other.join();
+        locks.release("a.txt");
+    }
+
+    /**
+     * Many threads using the same path one at a time, while others use other paths.
+     */
+    private static void excludesManyThreads() throws Exception {
+        PathLocks locks = new PathLocks();
+        int[] count = new int[1];
+        AtomicBoolean overlapped = new AtomicBoolean();
+        AtomicBoolean inside = new AtomicBoolean();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            String other = "other" + i;
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 1000; j++) {
+                        locks.acquire("shared");
+                        if (!inside.compareAndSet(false, true)) overlapped.set(true);
+                        count[0]++;
+                        inside.set(false);
+                        locks.release("shared");
+
+                        locks.acquire(other);
+                        locks.release(other);
+                    }
+                } catch (InterruptedException e) {
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        Tests.check(!overlapped.get(), "one thread at a time");
+        Tests.check(count[0] == 8000, "every update kept, " + count[0]);
+        Tests.check(paths(locks).isEmpty(), "no mutexes left");
+    }
+
+    /**
+     * A thread interrumpted while waiting doesn't keep the mutex of the path.
+     */
+    private static void forgetsInterruptedWaiter() throws Exception {
+        PathLocks locks = new PathLocks();
+        locks.acquire("a.txt");
+
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            try {
+                locks.acquire("a.txt");
+                locks.release("a.txt");
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        waiter.start();
+        Tests.waitFor(() -> waiter.getState() == Thread.State.WAITING, "the thread waiting");
+        waiter.interrupt();
+        waiter.join();
+        Tests.check(interrupted.get(), "the waiting is interrumpted");
+
+        locks.release("a.txt");
+        Tests.check(paths(locks).isEmpty(), "no mutexes left");
+        locks.acquire("a.txt");
+        locks.release("a.txt");
+    }
+
+    /**
+     * @return the paths with a mutex.
+     */
+    private static Map<?, ?> paths(PathLocks locks) throws Exception {
+        Field field = PathLocks.class.getDeclaredField("locks");
+        field.setAccessible(true);
+        return (Map<?, ?>) field.get(locks);
+    }
+}
@@ -0,0 +1,123 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import model.PathScheduler;
+
+/**
+ * Tests of the {@link model.PathScheduler PathScheduler}: the tasks of the same
+ * path, or of a directory and the paths inside it, run in submission order, and the
+ * tasks of unrelated paths run concurrently.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class PathSchedulerTest {
+    public static void main(String[] args) throws Exception {
+        Tests.run("ordersSamePath", PathSchedulerTest::ordersSamePath);
+        Tests.run("ordersRelatedPaths", PathSchedulerTest::ordersRelatedPaths);
+        Tests.run("runsUnrelatedPaths", PathSchedulerTest::runsUnrelatedPaths);
+        Tests.run("ordersRootWithEveryPath", PathSchedulerTest::ordersRootWithEveryPath);
+        System.out.println("PathSchedulerTest: all tests passed");
+    }
+
+    /**
+     * Many tasks of the same path, written in different ways, in many workers.
+     */
+    private static void ordersSamePath() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(8);
+        try {
+            PathScheduler scheduler = new PathScheduler(workers);
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            String[] paths = { "a/b", "./a/b", "a//b/", "a\\b" };
+            CountDownLatch done = new CountDownLatch(200);
+            for (int i = 0; i < 200; i++) {
+                int number = i;
+                scheduler.submit(paths[i % paths.length], () -> {
+                    if (number % 7 == 0) Thread.yield();
+                    order.add(number);
+                    done.countDown();
+                });
+            }
+            Tests.check(done.await(10, TimeUnit.SECONDS), "every task runs");
+            for (int i = 0; i < 200; i++) Tests.check(order.get(i) == i, "task " + i + " in order");
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * A task of a directory waits for a task inside it, and a task inside it waits
+     * for the one of the directory.
+     */
+    private static void ordersRelatedPaths() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        try {
+            PathScheduler scheduler = new PathScheduler(workers);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch parent = new CountDownLatch(1), child = new CountDownLatch(1);
+            scheduler.submit("a/b/c", () -> await(release));
+            scheduler.submit("./a", parent::countDown);
+            scheduler.submit("a/b", child::countDown);
+
+            Tests.check(!parent.await(300, TimeUnit.MILLISECONDS), "the directory waits for the path inside it");
+            release.countDown();
+            Tests.check(parent.await(5, TimeUnit.SECONDS), "the directory task runs");
+            Tests.check(child.await(5, TimeUnit.SECONDS), "the task inside the directory runs");
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * While a task waits, the tasks of other paths, including the ones that only
+     * start with the same characters, run.
+     */
+    private static void runsUnrelatedPaths() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        try {
+            PathScheduler scheduler = new PathScheduler(workers);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch others = new CountDownLatch(3);
+            scheduler.submit("a/b", () -> await(release));
+            scheduler.submit("a/c", others::countDown);
+            scheduler.submit("a/bc", others::countDown);
+            scheduler.submit("d", others::countDown);
+
+            Tests.check(others.await(5, TimeUnit.SECONDS), "the unrelated tasks run meanwhile");
+            release.countDown();
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private static void ordersRootWithEveryPath() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        try {
+            PathScheduler scheduler = new PathScheduler(workers);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch root = new CountDownLatch(1);
+            scheduler.submit("x/y", () -> await(release));
+            scheduler.submit(".", root::countDown);
+
+            Tests.check(!root.await(300, TimeUnit.MILLISECONDS), "the root waits for every path");
+            release.countDown();
+            Tests.check(root.await(5, TimeUnit.SECONDS), "the root task runs");
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+        }
+    }
+}
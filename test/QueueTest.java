@@ -0,0 +1,453 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import model.Operation;
+import model.Queue;
+
+/**
+ * Tests of the {@link model.Queue Queue} log: the pending Operations are recovered
+ * when a queue is opened again, and a record left incomplete or corrupted by a stop
+ * is discarded without losing the ones after it, as is a damaged record in an
+ * older segment. A consumer can wait for the next Operation. The delivered
+ * Operations stay in the log until they're acknowledged, and a rewind delivers
+ * them again in order. The Operations added at the same time by several threads
+ * are all kept, with every durability, and an Operation whose write fails is
+ * written again, only once.
+ * <p>
+ * A queue is opened again by creating another Queue with the same path, as the
+ * system does when it starts. Run it as described in {@link test.Tests Tests}.
+ */
+
+public class QueueTest {
+    /**
+     * Directory of the queue files of the current test.
+     */
+    private static Path dir;
+
+    public static void main(String[] args) throws Exception {
+        run("recoversPendingOperations", QueueTest::recoversPendingOperations);
+        run("discardsIncompleteRecord", QueueTest::discardsIncompleteRecord);
+        run("discardsCorruptedRecord", QueueTest::discardsCorruptedRecord);
+        run("recoversAcrossSegments", QueueTest::recoversAcrossSegments);
+        run("skipsDamagedRecord", QueueTest::skipsDamagedRecord);
+        run("takeWaitsForOperation", QueueTest::takeWaitsForOperation);
+        run("pollTimesOut", QueueTest::pollTimesOut);
+        run("keepsUnacknowledgedOperations", QueueTest::keepsUnacknowledgedOperations);
+        run("rewindsUnacknowledgedOperations", QueueTest::rewindsUnacknowledgedOperations);
+        run("keepsConcurrentAdds", QueueTest::keepsConcurrentAdds);
+        run("retriesFailedWrite", QueueTest::retriesFailedWrite);
+        System.out.println("QueueTest: all tests passed");
+    }
+
+    /**
+     * The Operations not obtained yet are still in the queue after opening it again,
+     * in the same order.
+     */
+    private static void recoversPendingOperations() throws Exception {
+        Queue queue = new Queue(queuePath());
+        for (int i = 0; i < 5; i++) queue.add(mkdir(i));
+        Tests.check(same(mkdir(0), queue.getNext()), "first Operation obtained");
+
+        Queue reopened = new Queue(queuePath());
+        for (int i = 1; i < 5; i++) Tests.check(same(mkdir(i), reopened.getNext()), "Operation " + i + " recovered");
+        Tests.check(reopened.getNext() == null, "no more Operations");
+    }
+
+    /**
+     * A record only partially written is discarded, and the Operations added after
+     * opening the queue again aren't lost behind it.
+     */
+    private static void discardsIncompleteRecord() throws Exception {
+        Queue queue = new Queue(queuePath());
+        for (int i = 0; i < 3; i++) queue.add(mkdir(i));
+
+        // A header announcing 100 bytes, followed by only 10 of them
+        long valid = lastSegment().length();
+        try (RandomAccessFile segment = new RandomAccessFile(lastSegment(), "rw")) {
+            segment.seek(valid);
+            segment.writeInt(100);
+            segment.writeInt(0);
+            segment.write(new byte[10]);
+        }
+
+        Queue reopened = new Queue(queuePath());
+        for (int i = 0; i < 3; i++) Tests.check(same(mkdir(i), reopened.getNext()), "Operation " + i + " recovered");
+        Tests.check(reopened.getNext() == null, "incomplete record discarded");
+        Tests.check(lastSegment().length() == valid, "incomplete record removed from the log");
+
+        reopened.add(mkdir(3));
+        Queue again = new Queue(queuePath());
+        Tests.check(same(mkdir(3), again.getNext()), "Operation added after the incomplete record recovered");
+        Tests.check(again.getNext() == null, "no more Operations");
+    }
+
+    /**
+     * A record whose checksum doesn't match is discarded.
+     */
+    private static void discardsCorruptedRecord() throws Exception {
+        Queue queue = new Queue(queuePath());
+        for (int i = 0; i < 3; i++) queue.add(mkdir(i));
+
+        // The last byte belongs to the last record
+        try (RandomAccessFile segment = new RandomAccessFile(lastSegment(), "rw")) {
+            segment.seek(segment.length() - 1);
+            int last = segment.read();
+            segment.seek(segment.length() - 1);
+            segment.write(last ^ 0xFF);
+        }
+
+        Queue reopened = new Queue(queuePath());
+        for (int i = 0; i < 2; i++) Tests.check(same(mkdir(i), reopened.getNext()), "Operation " + i + " recovered");
+        Tests.check(reopened.getNext() == null, "corrupted record discarded");
+    }
+
+    /**
+     * The Operations are recovered in order when the log has more than one segment,
+     * also after the head moved to a later segment.
+     */
+    private static void recoversAcrossSegments() throws Exception {
+        // About 60 KB per record: 4 MB segments hold less than 70 of them
+        char[] name = new char[60000];
+        Arrays.fill(name, 'd');
+        int count = 150;
+        Queue queue = new Queue(queuePath(), Queue.Durability.NONE);
+        for (int i = 0; i < count; i++) queue.add(new Operation(Operation.Type.MKDIR, "B", i + new String(name)));
+        Tests.check(segments().length > 1, "more than one segment");
+
+        Queue reopened = new Queue(queuePath(), Queue.Durability.NONE);
+        for (int i = 0; i < count / 2; i++) Tests.check(reopened.getNext().getPath().startsWith(i + "d"), "Operation " + i + " recovered");
+
+        Queue again = new Queue(queuePath(), Queue.Durability.NONE);
+        for (int i = count / 2; i < count; i++) Tests.check(again.getNext().getPath().startsWith(i + "d"), "Operation " + i + " recovered after the head moved");
+        Tests.check(again.getNext() == null, "no more Operations");
+    }
+
+    /**
+     * A damaged record in a segment followed by another one is skipped, and the
+     * records after it are still recovered.
+     */
+    private static void skipsDamagedRecord() throws Exception {
+        char[] name = new char[60000];
+        Arrays.fill(name, 'd');
+        int count = 150;
+        Queue queue = new Queue(queuePath(), Queue.Durability.NONE);
+        for (int i = 0; i < count; i++) queue.add(new Operation(Operation.Type.MKDIR, "B", i + "-" + new String(name)));
+        Tests.check(segments().length > 1, "more than one segment");
+
+        // A byte in the middle of the first segment
+        try (RandomAccessFile segment = new RandomAccessFile(segments()[0], "rw")) {
+            segment.seek(segment.length() / 2);
+            int middle = segment.read();
+            segment.seek(segment.length() / 2);
+            segment.write(middle ^ 0xFF);
+        }
+
+        Queue reopened = new Queue(queuePath(), Queue.Durability.NONE);
+        int recovered = 0, missing = -1;
+        for (Operation op; (op = reopened.getNext()) != null; recovered++) {
+            int number = Integer.parseInt(op.getPath().substring(0, op.getPath().indexOf('-')));
+            if (number != recovered + (missing >= 0 ? 1 : 0)) {
+                Tests.check(missing < 0, "only one record lost");
+                missing = recovered;
+            }
+        }
+        Tests.check(recovered == count - 1, recovered + " of " + (count - 1) + " Operations recovered");
+    }
+
+    /**
+     * A consumer waiting in <code>take()</code> gets the Operation as soon as it's
+     * added, and the ones added before it are obtained first.
+     */
+    private static void takeWaitsForOperation() throws Exception {
+        Queue queue = new Queue(queuePath());
+        ArrayBlockingQueue<Operation> taken = new ArrayBlockingQueue<>(2);
+        Thread consumer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 2; i++) taken.add(queue.take());
+            } catch (Exception e) {
+                // Nothing is taken
+            }
+        });
+        consumer.start();
+
+        Thread.sleep(100);
+        Tests.check(taken.isEmpty(), "nothing taken from an empty queue");
+        queue.add(mkdir(0));
+        queue.add(mkdir(1));
+        Tests.check(same(mkdir(0), taken.poll(5, TimeUnit.SECONDS)), "first Operation taken");
+        Tests.check(same(mkdir(1), taken.poll(5, TimeUnit.SECONDS)), "second Operation taken");
+        consumer.join(5000);
+        Tests.check(queue.getNext() == null, "every Operation taken once");
+    }
+
+    /**
+     * <code>poll()</code> waits up to its timeout for an Operation.
+     */
+    private static void pollTimesOut() throws Exception {
+        Queue queue = new Queue(queuePath());
+        long start = System.nanoTime();
+        Tests.check(queue.poll(100, TimeUnit.MILLISECONDS) == null, "nothing polled from an empty queue");
+        Tests.check(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100), "waited the timeout");
+
+        queue.add(mkdir(0));
+        Tests.check(same(mkdir(0), queue.poll(0, TimeUnit.MILLISECONDS)), "Operation polled without waiting");
+    }
+
+    /**
+     * Only the acknowledged Operations leave the log: the delivered ones that weren't
+     * are obtained again after opening the queue again.
+     */
+    private static void keepsUnacknowledgedOperations() throws Exception {
+        Queue queue = new Queue(queuePath());
+        for (int i = 0; i < 5; i++) queue.add(mkdir(i));
+        for (int i = 0; i < 3; i++) Tests.check(same(mkdir(i), queue.deliver(0, TimeUnit.MILLISECONDS)), "Operation " + i + " delivered");
+        queue.acknowledge(1);
+
+        Queue reopened = new Queue(queuePath());
+        for (int i = 1; i < 5; i++) Tests.check(same(mkdir(i), reopened.getNext()), "Operation " + i + " recovered");
+        Tests.check(reopened.getNext() == null, "acknowledged Operation removed");
+    }
+
+    /**
+     * A rewind delivers again the Operations not acknowledged, before the ones never
+     * delivered, and acknowledging all of them empties the log.
+     */
+    private static void rewindsUnacknowledgedOperations() throws Exception {
+        Queue queue = new Queue(queuePath());
+        for (int i = 0; i < 4; i++) queue.add(mkdir(i));
+        for (int i = 0; i < 3; i++) queue.deliver(0, TimeUnit.MILLISECONDS);
+        queue.acknowledge(1);
+        queue.rewind();
+
+        for (int i = 1; i < 4; i++) Tests.check(same(mkdir(i), queue.deliver(0, TimeUnit.MILLISECONDS)), "Operation " + i + " delivered again in order");
+        Tests.check(queue.deliver(10, TimeUnit.MILLISECONDS) == null, "nothing else to deliver");
+        queue.acknowledge(3);
+
+        Queue reopened = new Queue(queuePath());
+        Tests.check(reopened.getNext() == null, "every Operation acknowledged");
+    }
+
+    /**
+     * The Operations added at the same time by several threads are all in the log
+     * once, and in the order every thread added them, with every durability.
+     */
+    private static void keepsConcurrentAdds() throws Exception {
+        int threads = 8, count = 200;
+        for (Queue.Durability durability : Queue.Durability.values()) {
+            String path = dir.resolve(durability + ".q").toString();
+            Queue queue = new Queue(path, durability);
+            ArrayList<Thread> producers = new ArrayList<>();
+            ArrayBlockingQueue<Exception> failures = new ArrayBlockingQueue<>(threads);
+            for (int t = 0; t < threads; t++) {
+                String node = "N" + t;
+                Thread producer = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < count; i++) queue.add(new Operation(Operation.Type.MKDIR, node, "./d" + i));
+                    } catch (Exception e) {
+                        failures.add(e);
+                    }
+                });
+                producers.add(producer);
+                producer.start();
+            }
+            for (Thread producer : producers) producer.join();
+            Tests.check(failures.isEmpty(), durability + ": every add written");
+
+            int[] next = new int[threads];
+            Queue reopened = new Queue(path, durability);
+            for (int i = 0; i < threads * count; i++) {
+                Operation op = reopened.getNext();
+                Tests.check(op != null, durability + ": Operation " + i + " recovered");
+                int thread = Integer.parseInt(op.getTarget().substring(1));
+                Tests.check(op.getPath().equals("./d" + next[thread]++), durability + ": order of " + op.getTarget());
+            }
+            Tests.check(reopened.getNext() == null, durability + ": every Operation once");
+        }
+    }
+
+    /**
+     * An Operation whose write fails is written again with the next one, and the
+     * part written before the failure isn't kept in the log.
+     */
+    private static void retriesFailedWrite() throws Exception {
+        Queue queue = new Queue(queuePath());
+        queue.add(mkdir(0));
+
+        // The record reaches the segment, but forcing it fails
+        Field writer = Queue.class.getDeclaredField("writer");
+        writer.setAccessible(true);
+        writer.set(queue, new FailingChannel((FileChannel) writer.get(queue)));
+        try {
+            queue.add(mkdir(1));
+            throw new AssertionError("failed write reported");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        queue.add(mkdir(2));
+        Queue reopened = new Queue(queuePath());
+        for (int i = 0; i < 3; i++) Tests.check(same(mkdir(i), reopened.getNext()), "Operation " + i + " recovered");
+        Tests.check(reopened.getNext() == null, "failed record not repeated in the log");
+
+        for (int i = 0; i < 3; i++) Tests.check(same(mkdir(i), queue.getNext()), "Operation " + i + " obtained");
+        Tests.check(queue.getNext() == null, "no more Operations");
+    }
+
+    /**
+     * @return a <code>MKDIR</code> Operation identified by a number.
+     */
+    private static Operation mkdir(int number) {
+        return new Operation(Operation.Type.MKDIR, "B", "./d" + number);
+    }
+
+    /**
+     * @return <code>true</code> if both Operations have the same fields.
+     */
+    private static boolean same(Operation expected, Operation actual) throws IOException {
+        return actual != null && Arrays.equals(expected.encode(), actual.encode());
+    }
+
+    private static String queuePath() {
+        return dir.resolve("test.q").toString();
+    }
+
+    /**
+     * @return the segment files of the queue, in order.
+     */
+    private static File[] segments() {
+        File[] files = dir.toFile().listFiles((d, name) -> name.endsWith(".seg"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static File lastSegment() {
+        File[] files = segments();
+        return files[files.length - 1];
+    }
+
+    /**
+     * Segment channel whose <code>force</code> fails, as when the storage device
+     * fails after the data was written.
+     */
+    private static class FailingChannel extends FileChannel {
+        private FileChannel channel;
+
+        private FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            throw new IOException("Injected failure");
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Runs a test in a new temporary directory, and removes it afterwards.
+     */
+    private static void run(String name, Tests.Test test) throws Exception {
+        dir = Tests.createDirectory("queuetest");
+        try {
+            Tests.run(name, test);
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+}
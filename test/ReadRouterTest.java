@@ -0,0 +1,133 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import model.Operation;
+import model.RemoteChannel;
+
+/**
+ * Tests of the hedged reads of the {@link model.ReadRouter ReadRouter}: A requests a
+ * file kept in E and C. E is the best replica but never sends it, so after
+ * <code>hedge_delay</code> the file is requested to C too, and when E finally starts
+ * sending its copy, A drops it without receiving the data.
+ * <p>
+ * E is simulated by the test: it accepts the connections of A and replies their
+ * first message, but ignores the Operations.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class ReadRouterTest {
+    private static TestNode a, c;
+    private static byte[] data;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Tests.createDirectory("readroutertest");
+        try (ServerSocket silent = new ServerSocket(0)) {
+            accept(silent);
+            a = new TestNode("A", dir).set("replication", 2).set("hedge_delay", 300);
+            c = new TestNode("C", dir).connect(a).start();
+            a.connect(c).connect("E", silent.getLocalPort()).start();
+            Tests.waitFor(() -> a.isConnected("C") && a.isConnected("E"), "A connected to C and E");
+
+            data = TransferTest.random(100000, 1);
+            Files.createDirectories(c.getReceived());
+            Files.write(c.getReceived().resolve("f.txt"), data);
+            a.getCore().getReplication().stored("E", "./recv/f.txt", true);
+            a.getCore().getReplication().stored("C", "./recv/f.txt", true);
+            // C looks slower, so the file is requested to E first
+            a.getCore().getRemoteSender("C").getScore().rtt(1000000000L);
+
+            Tests.run("hedgesSlowRead", ReadRouterTest::hedgesSlowRead);
+            Tests.run("dropsLateCopy", ReadRouterTest::dropsLateCopy);
+            System.out.println("ReadRouterTest: all tests passed");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    /**
+     * The file requested to E arrives from C.
+     */
+    private static void hedgesSlowRead() throws Exception {
+        long start = System.currentTimeMillis();
+        a.getCore().addOperation(new Operation(Operation.Type.TRANSFER, "E", "A", "./recv/f.txt", Operation.Mode.DATA));
+        a.waitMessage("Received: \"f.txt\"");
+        Tests.check(System.currentTimeMillis() - start >= 300, "requested to C after the hedge delay");
+        Tests.check(Arrays.equals(data, Files.readAllBytes(a.getReceived().resolve("f.txt"))), "the same content");
+        Tests.check(c.getMessages().contains("Sended: \"f.txt\""), "sent by C");
+    }
+
+    /**
+     * E starts sending the file once A already has it: A replies it's stored from the
+     * start, so no data is sent, and the received file stays the same.
+     */
+    private static void dropsLateCopy() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", a.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.writeUTF("E");
+            out.writeByte(RemoteChannel.DATA);
+            out.writeByte(0);
+            out.flush();
+            Tests.check(in.readUTF().isEmpty(), "no codec");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream message = new DataOutputStream(bytes);
+            new Operation(Operation.Type.SEND, "E", "A", "./recv/f.txt", Operation.Mode.DATA).write(message);
+            message.writeUTF("f.txt");
+            message.writeLong(data.length);
+            message.writeLong(System.currentTimeMillis());
+            message.writeInt(64 * 1024);
+            out.write(bytes.toByteArray());
+            out.flush();
+
+            Tests.check(in.readLong() == data.length, "resumed at the end");
+            Tests.check(in.readInt() == 0, "no chunk hashes");
+            Tests.check(in.readByte() == RemoteChannel.STORED, "stored");
+        }
+        Tests.check(Collections.frequency(a.getMessages(), "Received: \"f.txt\"") == 1, "received only once");
+        Tests.check(Arrays.equals(data, Files.readAllBytes(a.getReceived().resolve("f.txt"))), "the same content");
+        Tests.check(!a.getCore().isLateCopy("E", "f.txt"), "the late copy is forgotten");
+    }
+
+    /**
+     * Accepts the connections of a simulated node, replying their first message
+     * without a codec, and ignores what they send.
+     * @param server the socket of the simulated node.
+     */
+    private static void accept(ServerSocket server) {
+        // Kept, so they aren't closed when collected
+        ArrayList<Socket> sockets = new ArrayList<>();
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    sockets.add(socket);
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    in.readUTF();
+                    in.readByte();
+                    int codecs = in.readByte();
+                    for (int i = 0; i < codecs; i++) in.readUTF();
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeUTF("");
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // The test ended
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,81 @@
+package test;
+
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.json.JSONObject;
+
+/**
+ * Tests of the replicated sendings: a file is stored in as many nodes as copies are
+ * kept, the user is told when the quorum is reached, and when a node doesn't reply
+ * in time, the user is told which one.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class ReplicationTest {
+    public static void main(String[] args) throws Exception {
+        Tests.run("storesCopies", ReplicationTest::storesCopies);
+        Tests.run("reportsNoReply", ReplicationTest::reportsNoReply);
+        System.out.println("ReplicationTest: all tests passed");
+    }
+
+    /**
+     * With 3 copies in 4 nodes, the file is stored in the chosen node and 2 others,
+     * and the sending is complete with 2 of them.
+     */
+    private static void storesCopies() throws Exception {
+        Path dir = Tests.createDirectory("replicationtest");
+        try {
+            TestNode[] nodes = TestNode.start(dir, new JSONObject().put("replication", 3), "A", "B", "C", "D");
+            TestNode a = nodes[0];
+            byte[] data = TransferTest.random(200000, 1);
+            Files.createDirectories(a.getRoot().resolve("docs"));
+            Files.write(a.getRoot().resolve("docs/f.txt"), data);
+
+            a.getCore().replicate("B", "docs/f.txt");
+            a.waitMessage("Replicated: \"f.txt\" (stored in 2 of 3 nodes)");
+            Tests.waitFor(() -> a.getCore().getReplication().getReplicas("./recv/f.txt").size() == 3, "3 replicas");
+
+            List<String> replicas = a.getCore().getReplication().getReplicas("./recv/f.txt");
+            Tests.check(replicas.contains("B") && new HashSet<>(replicas).size() == 3, "the chosen node and 2 others: " + replicas);
+            for (TestNode node : nodes) {
+                Path copy = node.getReceived().resolve("f.txt");
+                Tests.check(replicas.contains(node.getName()) == Files.exists(copy), "copy in " + node.getName());
+                if (Files.exists(copy)) Tests.check(Arrays.equals(data, Files.readAllBytes(copy)), "same content in " + node.getName());
+            }
+            Tests.check(a.getErrors().isEmpty(), "no errors: " + a.getErrors());
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    /**
+     * E accepts the connections of A but never replies, so after <code>write_timeout
+     * </code> the copy in E counts as failed.
+     */
+    private static void reportsNoReply() throws Exception {
+        Path dir = Tests.createDirectory("replicationtest");
+        try (ServerSocket silent = new ServerSocket(0)) {
+            TestNode b = new TestNode("B", dir);
+            TestNode a = new TestNode("A", dir).connect(b).connect("E", silent.getLocalPort())
+                    .set("replication", 2).set("write_quorum", 2).set("write_timeout", 1);
+            b.connect(a).start();
+            a.start();
+            Tests.waitFor(() -> a.isConnected("B"), "A connected to B");
+
+            Files.write(a.getRoot().resolve("g.txt"), new byte[1000]);
+            a.getCore().replicate("B", "g.txt");
+            b.waitMessage("Received: \"g.txt\"");
+            Tests.waitFor(() -> !a.getErrors().isEmpty(), "the timeout reported");
+            Tests.check(a.getErrors().get(0).equals("Error: \"g.txt\" was stored in only 1 of 2 nodes (no reply from E)."), a.getErrors().get(0));
+            Tests.check(a.getCore().getReplication().getReplicas("./recv/g.txt").equals(List.of("B")), "B is a replica");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import controller.Controller;
+import model.CloudCore;
+
+/**
+ * A node of the system for the tests that need more than the classes of the
+ * model: a {@link model.CloudCore core} running in a directory of the test, with a
+ * controller that keeps what the core tells the GUI instead of showing it. Every
+ * node listens in a free local port.
+ * <p>
+ * The core has no way to stop, so the node keeps running (as a daemon thread)
+ * until the test program ends.
+ */
+
+public class TestNode extends Controller {
+    private String name;
+    private Path dir;
+    private JSONObject config;
+    private CloudCore core;
+
+    private List<String> messages = Collections.synchronizedList(new ArrayList<>());
+    private List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private List<Listing> listings = Collections.synchronizedList(new ArrayList<>());
+    private List<Listing> notModified = Collections.synchronizedList(new ArrayList<>());
+    private List<String> changes = Collections.synchronizedList(new ArrayList<>());
+    private Set<String> connected = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a node, without remote nodes and without backup.
+     * @param name the node name.
+     * @param base the directory of the test. The node directory is created in it.
+     */
+    public TestNode(String name, Path base) throws IOException {
+        this.name = name;
+        dir = Files.createDirectories(base.resolve(name));
+        config = new JSONObject()
+                .put("name", name)
+                .put("path", dir.toString())
+                .put("localport", freePort())
+                .put("remote", new JSONArray())
+                .put("backup", new JSONObject().put("address", "0.0.0.0").put("port", 0).put("updt", 0))
+                .put("backup_port", 0);
+    }
+
+    /**
+     * Creates nodes connected to each other, and starts them.
+     * @param base the directory of the test.
+     * @param options the configuration options of every node.
+     * @param names the node names.
+     * @return the nodes, once all of them are connected.
+     */
+    public static TestNode[] start(Path base, JSONObject options, String... names) throws Exception {
+        TestNode[] nodes = new TestNode[names.length];
+        for (int i = 0; i < names.length; i++) {
+            nodes[i] = new TestNode(names[i], base);
+            for (String key : options.keySet()) nodes[i].set(key, options.get(key));
+        }
+        for (TestNode node : nodes) {
+            for (TestNode other : nodes) if (other != node) node.connect(other);
+        }
+        for (TestNode node : nodes) node.start();
+        for (TestNode node : nodes) node.waitConnected();
+        return nodes;
+    }
+
+    /**
+     * Sets a configuration option. Only before the node is started.
+     * @param key the option.
+     * @param value the value.
+     * @return this node.
+     */
+    public TestNode set(String key, Object value) {
+        config.put(key, value);
+        return this;
+    }
+
+    /**
+     * Adds a remote node. Only before the node is started.
+     * @param node the remote node.
+     * @return this node.
+     */
+    public TestNode connect(TestNode node) {
+        return connect(node.name, node.getPort());
+    }
+
+    /**
+     * Adds a remote node listening in a local port, like one simulated by the test.
+     * Only before the node is started.
+     * @param name the name of the remote node.
+     * @param port the port of the remote node.
+     * @return this node.
+     */
+    public TestNode connect(String name, int port) {
+        config.getJSONArray("remote").put(new JSONObject()
+                .put("name", name)
+                .put("address", "127.0.0.1")
+                .put("port", port));
+        return this;
+    }
+
+    /**
+     * Starts the core of the node.
+     * @return this node.
+     */
+    public TestNode start() {
+        core = new CloudCore(this, config);
+        core.setDaemon(true);
+        core.start();
+        return this;
+    }
+
+    /**
+     * Waits until every remote node is connected.
+     */
+    public void waitConnected() throws Exception {
+        JSONArray remote = config.getJSONArray("remote");
+        for (int i = 0; i < remote.length(); i++) {
+            String remoteName = remote.getJSONObject(i).getString("name");
+            Tests.waitFor(() -> connected.contains(remoteName), name + " connected to " + remoteName);
+        }
+    }
+
+    /**
+     * Waits for a message of the core.
+     * @param message the message.
+     */
+    public void waitMessage(String message) throws Exception {
+        Tests.waitFor(() -> messages.contains(message), name + " message: " + message);
+    }
+
+    /**
+     * Waits for a listing of a directory received from a remote node.
+     * @param node the remote node.
+     * @param path the path of the directory.
+     * @return the first part of the listing received.
+     */
+    public Listing waitListing(String node, String path) throws Exception {
+        Tests.waitFor(() -> findListing(listings, node, path) != null, name + " listing of " + node + " " + path);
+        return findListing(listings, node, path);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPort() {
+        return config.getInt("localport");
+    }
+
+    public CloudCore getCore() {
+        return core;
+    }
+
+    /**
+     * @return the root directory of the node, where the user files are.
+     */
+    public Path getRoot() {
+        return dir.resolve("root");
+    }
+
+    /**
+     * @return the received files directory of the node.
+     */
+    public Path getReceived() {
+        return getRoot().resolve("recv");
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public List<Listing> getListings() {
+        return listings;
+    }
+
+    public List<Listing> getNotModified() {
+        return notModified;
+    }
+
+    /**
+     * @return the changed directories notified, as <code>"node:dir"</code>.
+     */
+    public List<String> getChanges() {
+        return changes;
+    }
+
+    public boolean isConnected(String node) {
+        return connected.contains(node);
+    }
+
+    /*  COMMUNICATION CORE -> TEST  */
+
+    @Override
+    public void notifyReady(ArrayList<String> nodeNames) {
+    }
+
+    @Override
+    public void listFiles(String node, String path, ArrayList<String> files, int offset, int total, long version) {
+        listings.add(new Listing(node, path, files, offset, total, version));
+    }
+
+    @Override
+    public void listNotModified(String node, String path, long version) {
+        notModified.add(new Listing(node, path, new ArrayList<>(), 0, -1, version));
+    }
+
+    @Override
+    public void notifyChanges(String node, HashSet<String> dirs) {
+        for (String changed : dirs) changes.add(node + ":" + changed);
+    }
+
+    @Override
+    public void notifyError(String msg) {
+        errors.add(msg);
+    }
+
+    @Override
+    public void notifyNodeStatus(String nodeName, boolean value) {
+        if (value) connected.add(nodeName);
+        else connected.remove(nodeName);
+    }
+
+    @Override
+    public boolean checkGUI() {
+        return true;
+    }
+
+    @Override
+    public void notifyMessage(String msg) {
+        messages.add(msg);
+    }
+
+    @Override
+    public void updatePath(String nodeName, String path) {
+    }
+
+    private static Listing findListing(List<Listing> listings, String node, String path) {
+        synchronized (listings) {
+            for (Listing listing : listings) {
+                if (listing.node.equals(node) && listing.path.equals(path)) return listing;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a local port nobody is listening on.
+     */
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * A part of a directory listing received by the node.
+     */
+    public static class Listing {
+        public final String node;
+        public final String path;
+        public final ArrayList<String> files;
+        public final int offset;
+        public final int total;
+        public final long version;
+
+        private Listing(String node, String path, ArrayList<String> files, int offset, int total, long version) {
+            this.node = node;
+            this.path = path;
+            this.files = files;
+            this.offset = offset;
+            this.total = total;
+            this.version = version;
+        }
+    }
+}
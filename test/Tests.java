@@ -0,0 +1,101 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * What every test class uses. The project has no test framework, so every test is
+ * a method that throws an <code>AssertionError</code> when it fails, and every test
+ * class has a <code>main</code> that runs its tests. Run them from the project root
+ * with:
+ * <blockquote>
+ * <code>javac -d out -cp lib/json-20200518.jar controller/*.java model/*.java views/*.java test/*.java</code><br>
+ * <code>java -cp out:lib/json-20200518.jar test.AllTests</code>
+ * </blockquote>
+ * (with <code>;</code> instead of <code>:</code> in the class path on Windows), or
+ * one test class, like <code>test.QueueTest</code>, instead of <code>test.AllTests
+ * </code>.
+ */
+
+public class Tests {
+    /**
+     * Time to wait, in milliseconds, for something done by other threads.
+     */
+    public static final long TIMEOUT = 30000;
+
+    /**
+     * Runs a test and shows that it passed. A failure stops the test class.
+     * @param name the name of the test.
+     * @param test the test.
+     */
+    public static void run(String name, Test test) throws Exception {
+        test.run();
+        System.out.println("  " + name + ": OK");
+    }
+
+    /**
+     * @param condition the condition that must hold.
+     * @param description what is checked, shown when it doesn't hold.
+     * @throws AssertionError if the condition doesn't hold.
+     */
+    public static void check(boolean condition, String description) {
+        if (!condition) throw new AssertionError(description);
+    }
+
+    /**
+     * Waits until a condition holds, like the end of something done by other
+     * threads.
+     * @param condition the condition.
+     * @param description what is waited for, shown when it doesn't happen.
+     * @throws AssertionError if the condition doesn't hold within the {@link
+     * #TIMEOUT}.
+     */
+    public static void waitFor(Condition condition, String description) throws Exception {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.holds()) {
+            if (System.currentTimeMillis() > end) throw new AssertionError("Timed out waiting for " + description);
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * Creates a new temporary directory, to be removed with {@link
+     * #delete(Path) delete}.
+     * @param prefix the start of the directory name.
+     * @return the directory.
+     */
+    public static Path createDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix);
+    }
+
+    /**
+     * Deletes a directory with its content. The files removed by the system
+     * meanwhile (like the consumed queue segments) are ignored.
+     * @param dir the directory.
+     */
+    public static void delete(Path dir) {
+        delete(dir.toFile());
+    }
+
+    private static void delete(File file) {
+        File[] content = file.listFiles();
+        if (content != null) for (File child : content) delete(child);
+        file.delete();
+    }
+
+    /**
+     * A test.
+     */
+    public interface Test {
+        void run() throws Exception;
+    }
+
+    /**
+     * A condition waited for by {@link #waitFor(Condition, String) waitFor}.
+     */
+    public interface Condition {
+        boolean holds() throws Exception;
+    }
+}
@@ -0,0 +1,198 @@
+package test;
+
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.json.JSONObject;
+
+import model.Operation;
+
+/**
+ * Tests of sending files between two nodes: the received files have the same
+ * content as the sent ones, whatever their size, a received file is only
+ * visible when it's complete, and a file that was partially received continues
+ * from where it was left. The data is sent without compression, straight from
+ * the file to the socket.
+ * <p>
+ * Run it as described in {@link test.Tests Tests}.
+ */
+
+public class TransferTest {
+    private static TestNode a, b;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Tests.createDirectory("transfertest");
+        try {
+            TestNode[] nodes = TestNode.start(dir, new JSONObject().put("compression", "none"), "A", "B");
+            a = nodes[0];
+            b = nodes[1];
+
+            Tests.run("sendsLargeFile", TransferTest::sendsLargeFile);
+            Tests.run("sendsSmallFile", TransferTest::sendsSmallFile);
+            Tests.run("sendsEmptyFile", TransferTest::sendsEmptyFile);
+            Tests.run("sendsFileInDirectory", TransferTest::sendsFileInDirectory);
+            Tests.run("showsOnlyCompleteFile", TransferTest::showsOnlyCompleteFile);
+            Tests.run("replacesReceivedFile", TransferTest::replacesReceivedFile);
+            Tests.run("resumesPartialFile", TransferTest::resumesPartialFile);
+            Tests.run("restartsChangedFile", TransferTest::restartsChangedFile);
+            System.out.println("TransferTest: all tests passed");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    /**
+     * A file of many chunks, with a size that isn't a multiple of the chunk size.
+     */
+    private static void sendsLargeFile() throws Exception {
+        checkSent("large.bin", random(20 * 1024 * 1024 + 321, 1));
+    }
+
+    private static void sendsSmallFile() throws Exception {
+        checkSent("small.txt", "hello".getBytes("UTF-8"));
+    }
+
+    private static void sendsEmptyFile() throws Exception {
+        checkSent("empty.txt", new byte[0]);
+    }
+
+    /**
+     * A file of a directory is received with only its name.
+     */
+    private static void sendsFileInDirectory() throws Exception {
+        Files.createDirectories(a.getRoot().resolve("docs"));
+        byte[] data = random(100000, 2);
+        Files.write(a.getRoot().resolve("docs/inner.bin"), data);
+        send(a, b, "./docs/inner.bin");
+        b.waitMessage("Received: \"inner.bin\"");
+        Tests.check(Arrays.equals(data, Files.readAllBytes(b.getReceived().resolve("inner.bin"))), "same content");
+    }
+
+    /**
+     * While a file is received, it isn't in the received files directory, and
+     * when it's there it's complete. Then nothing is left in the partial files
+     * directory.
+     */
+    private static void showsOnlyCompleteFile() throws Exception {
+        byte[] data = random(30 * 1024 * 1024, 3);
+        Files.write(a.getRoot().resolve("watched.bin"), data);
+        Path received = b.getReceived().resolve("watched.bin");
+        send(a, b, "./watched.bin");
+        while (!b.getMessages().contains("Received: \"watched.bin\"")) {
+            if (Files.exists(received)) Tests.check(Files.size(received) == data.length, "only the complete file is visible");
+            Thread.sleep(1);
+        }
+        Tests.check(Arrays.equals(data, Files.readAllBytes(received)), "same content");
+
+        try (Stream<Path> partial = Files.list(Paths.get(b.getCore().getPartialFilesDirectory()))) {
+            Tests.check(partial.count() == 0, "no partial files left");
+        }
+    }
+
+    /**
+     * A file sent again, smaller and with other content, replaces the received one.
+     */
+    private static void replacesReceivedFile() throws Exception {
+        checkSent("replaced.bin", random(2 * 1024 * 1024, 4));
+        b.getMessages().clear();
+        checkSent("replaced.bin", random(1024 * 1024, 5));
+    }
+
+    /**
+     * The progress of a previous try of the same file is kept: only the rest of the
+     * file is sent.
+     */
+    private static void resumesPartialFile() throws Exception {
+        byte[] data = random(5 * 1024 * 1024, 6);
+        int verified = 3 * 1024 * 1024;
+        long lastModified = writeFile("resumed.bin", data);
+        byte[] partial = Arrays.copyOf(data, data.length);
+        Arrays.fill(partial, verified, partial.length, (byte) 0);
+        seedPartial("resumed.bin", partial, data.length, lastModified, verified);
+
+        send(a, b, "./resumed.bin");
+        b.waitMessage("Received: \"resumed.bin\"");
+        a.waitMessage("Sended: \"resumed.bin\" (resumed at byte " + verified + ")");
+        Tests.check(Arrays.equals(data, Files.readAllBytes(b.getReceived().resolve("resumed.bin"))), "same content");
+    }
+
+    /**
+     * The progress of a previous try of another version of the file is discarded.
+     */
+    private static void restartsChangedFile() throws Exception {
+        byte[] data = random(5 * 1024 * 1024, 7);
+        long lastModified = writeFile("restarted.bin", data);
+        seedPartial("restarted.bin", random(data.length, 8), data.length, lastModified - 60000, 3 * 1024 * 1024);
+
+        send(a, b, "./restarted.bin");
+        b.waitMessage("Received: \"restarted.bin\"");
+        a.waitMessage("Sended: \"restarted.bin\"");
+        Tests.check(Arrays.equals(data, Files.readAllBytes(b.getReceived().resolve("restarted.bin"))), "same content");
+    }
+
+    /**
+     * Writes a file in the root directory of A, with a last modified time in whole
+     * seconds.
+     * @return the last modified time.
+     */
+    private static long writeFile(String name, byte[] data) throws Exception {
+        Path file = a.getRoot().resolve(name);
+        Files.write(file, data);
+        long lastModified = System.currentTimeMillis() / 1000 * 1000 - 60000;
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+        return lastModified;
+    }
+
+    /**
+     * Leaves in B what a previous try of receiving a file from A left.
+     * @param name the file name.
+     * @param partial the partial file content.
+     * @param size the size of the file.
+     * @param lastModified the last modified time of the file.
+     * @param position the position up to where the data was verified.
+     */
+    private static void seedPartial(String name, byte[] partial, long size, long lastModified, long position) throws Exception {
+        Path file = Paths.get(b.getCore().getPartialFilesDirectory(), "A-" + name);
+        Files.write(file, partial);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(Paths.get(file + ".progress")))) {
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeLong(position);
+        }
+    }
+
+    /**
+     * Sends a new file of the root directory of A to B, and checks that B receives
+     * the same content.
+     * @param name the file name.
+     * @param data the file content.
+     */
+    private static void checkSent(String name, byte[] data) throws Exception {
+        Files.write(a.getRoot().resolve(name), data);
+        send(a, b, "./" + name);
+        b.waitMessage("Received: \"" + name + "\"");
+        Tests.check(Arrays.equals(data, Files.readAllBytes(b.getReceived().resolve(name))), "same content of " + name);
+    }
+
+    /**
+     * Sends a file to a remote node.
+     * @param sender the node that has the file.
+     * @param receiver the remote node.
+     * @param path the path of the file, relative to the sender root directory.
+     */
+    static void send(TestNode sender, TestNode receiver, String path) {
+        sender.getCore().addOperation(new Operation(Operation.Type.SEND, sender.getName(), receiver.getName(), path, Operation.Mode.DATA));
+    }
+
+    static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -2,6 +2,7 @@ package views;
 
 import javax.swing.JButton;
 import javax.swing.JPanel;
+import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTextArea;
@@ -17,6 +18,8 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -37,6 +40,12 @@ public class FilesPanel extends JPanel {
     private String nodeName;
     private Controller controller;
 
+    // The listed directory, its version stamp, amount of files and where the requested page ends
+    private String listedPath = "";
+    private long version;
+    private int total;
+    private int pageEnd;
+
 
     public FilesPanel(Controller controller, String nodeName) {
         super(new GridBagLayout());
@@ -164,6 +173,18 @@ public class FilesPanel extends JPanel {
             }
         });
 
+        tableScroll.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener() {
+            @Override
+            public void adjustmentValueChanged(AdjustmentEvent e) {
+                // Requests the next page when the end of the list is shown
+                JScrollBar bar = tableScroll.getVerticalScrollBar();
+                int rows = table.getModel().getRowCount();
+                if (rows >= pageEnd && rows < total && bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - table.getRowHeight()) {
+                    controller.moreEvent(nodeName);
+                }
+            }
+        });
+
         tableScroll.setPreferredSize(new Dimension(0, 0));
         add(tableScroll, c);
 
@@ -237,14 +258,56 @@ public class FilesPanel extends JPanel {
         backButton.setEnabled(b);
     }
     
-    public void updateTableData(ArrayList<String> files){
+    public void updateTableData(String path, ArrayList<String> files, int total, long version){
+        ((DefaultTableModel) table.getModel()).setRowCount(0); //Elimita todos las celdas antiguas
+        listedPath = normalize(path);
+        pageEnd = Controller.LISTING_PAGE;
+        this.version = version;
+        appendTableData(path, files, total, version);
+    }
+
+    // Adds the next files of the listed directory
+    public void appendTableData(String path, ArrayList<String> files, int total, long version){
+        // The user went to another directory meanwhile
+        if (!normalize(path).equals(listedPath)) return;
+
+        // The directory changed between pages: the next update lists it again
+        if (version != this.version) this.version = 0;
+
+        this.total = total;
         DefaultTableModel d = (DefaultTableModel) table.getModel();
-        d.setRowCount(0); //Elimita todos las celdas antiguas
+        DateFormat df = new SimpleDateFormat("dd-MM-yyyy hh:mm:ss");
         for (String file : files){
-            String[] data = file.split(Operation.SEPARATOR);
-            DateFormat df = new SimpleDateFormat("dd-MM-yyyy hh:mm:ss");
-            d.addRow(new Object[] {data[0], df.format(new Date(Long.parseLong(data[1]))), Boolean.parseBoolean(data[2])});
+            // The filename can contain the separator, so it's split from the end
+            int isDir = file.lastIndexOf(Operation.SEPARATOR);
+            int lastModified = file.lastIndexOf(Operation.SEPARATOR, isDir - 1);
+            d.addRow(new Object[] {file.substring(0, lastModified), df.format(new Date(Long.parseLong(file.substring(lastModified + 1, isDir)))), Boolean.parseBoolean(file.substring(isDir + 1))});
+        }
+    }
+
+    // Where the last requested page of files ends
+    public void setPageEnd(int pageEnd){
+        this.pageEnd = pageEnd;
+    }
+
+    // The version stamp of the listing, if it's the listing of that directory
+    public long getVersion(String path){
+        return normalize(path).equals(listedPath) ? version : 0;
+    }
+
+    public int getRowCount(){
+        return table.getModel().getRowCount();
+    }
+
+    // The same directory can be requested as ".", "./a/" or "/a"
+    private static String normalize(String path){
+        StringBuilder normalized = new StringBuilder();
+        for (String element : path.replace('\\', '/').split("/")){
+            if (element.isEmpty() || element.equals(".")) continue;
+            if (normalized.length() > 0) normalized.append('/');
+            normalized.append(element);
         }
+        return normalized.toString();
     }
 
     /*CONTROL DE OPERATIONS BUTTONS */